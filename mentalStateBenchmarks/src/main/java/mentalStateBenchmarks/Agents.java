@@ -0,0 +1,150 @@
+/**
+ * Knowledge Representation Tools. Copyright (C) 2014 Koen Hindriks.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package mentalStateBenchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import krTools.database.Database;
+import krTools.errors.exceptions.KRException;
+import krTools.language.DatabaseFormula;
+import languageTools.analyzer.agent.AgentValidator;
+import languageTools.program.agent.AgentProgram;
+import mentalState.BASETYPE;
+import mentalState.MentalState;
+import swiprolog.SWIPrologInterface;
+
+/**
+ * Loads the agent program used by the benchmarks and creates databases for
+ * it. The databases of an agent are identified by the name of its source
+ * file, so a copy of the program is written for every agent name.
+ */
+public class Agents {
+	/**
+	 * The program all benchmark agents run: a small blocks world agent.
+	 */
+	private static final String PROGRAM = "benchmark.goal";
+	/**
+	 * Directory with the copies of the program, one per agent name.
+	 */
+	private static File directory;
+
+	/**
+	 * Utility class; constructor is hidden.
+	 */
+	private Agents() {
+	}
+
+	/**
+	 * Loads the benchmark program for an agent.
+	 *
+	 * @param name
+	 *            The name of the agent.
+	 * @return The program, with source file name.goal.
+	 * @throws IOException
+	 *             If the program could not be copied.
+	 * @throws KRException
+	 *             If the KR interface could not be initialized.
+	 */
+	public static AgentProgram load(String name) throws IOException,
+			KRException {
+		File file = new File(getDirectory(), name + ".goal");
+		if (!file.exists()) {
+			try (InputStream in = Agents.class.getResourceAsStream(PROGRAM)) {
+				Files.copy(in, file.toPath());
+			}
+		}
+		AgentValidator validator = new AgentValidator(file.getPath());
+		validator.setKRInterface(new SWIPrologInterface());
+		validator.validate();
+		AgentProgram program = validator.getProgram();
+		if (program == null) {
+			throw new IllegalStateException("unable to load " + file);
+		}
+		return program;
+	}
+
+	/**
+	 * Creates databases for an agent, in the given order. A knowledge base
+	 * should be created before a belief or goal base.
+	 *
+	 * @param state
+	 *            The mental state.
+	 * @param program
+	 *            The program of the agent.
+	 * @param types
+	 *            The types of the databases.
+	 * @return The databases created.
+	 * @throws KRException
+	 */
+	public static List<Database> createDatabases(MentalState state,
+			AgentProgram program, BASETYPE... types) throws KRException {
+		List<Database> databases = new ArrayList<>(types.length);
+		for (BASETYPE type : types) {
+			databases.add(state.makeDatabase(type, getContent(program, type),
+					program));
+		}
+		return databases;
+	}
+
+	/**
+	 * @return The initial content of a database of the given type.
+	 */
+	public static List<DatabaseFormula> getContent(AgentProgram program,
+			BASETYPE type) {
+		switch (type) {
+		case KNOWLEDGEBASE:
+			return program.getAllKnowledge();
+		case BELIEFBASE:
+			return program.getAllBeliefs();
+		default:
+			return Collections.emptyList();
+		}
+	}
+
+	/**
+	 * Destroys databases, ignoring failures.
+	 *
+	 * @param databases
+	 *            The databases to destroy.
+	 */
+	public static void destroy(List<Database> databases) {
+		for (Database database : databases) {
+			try {
+				database.destroy();
+			} catch (KRException e) {
+				// Benchmark clean up; the next trial starts anew.
+			}
+		}
+		databases.clear();
+	}
+
+	private static synchronized File getDirectory() throws IOException {
+		if (directory == null) {
+			directory = Files.createTempDirectory("mentalStateBenchmarks")
+					.toFile();
+			directory.deleteOnExit();
+		}
+		return directory;
+	}
+}
@@ -0,0 +1,89 @@
+/**
+ * Knowledge Representation Tools. Copyright (C) 2014 Koen Hindriks.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package mentalStateBenchmarks;
+
+import java.util.LinkedList;
+import java.util.concurrent.TimeUnit;
+
+import krTools.language.Term;
+import mentalState.MentalState;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import swiPrologMentalState.SwiPrologMentalState;
+import eis.iilang.Function;
+import eis.iilang.Identifier;
+import eis.iilang.Numeral;
+import eis.iilang.Parameter;
+import eis.iilang.ParameterList;
+
+/**
+ * Measures {@link MentalState#convert(Parameter)} and
+ * {@link MentalState#convert(Term)} for a percept parameter of the form
+ * f(id0, 0, 0.5, [id1, 1, ...], g(...)) with the given number of elements in
+ * the list and nested function.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ConvertBenchmark {
+	@Param({ "1", "10", "100", "1000" })
+	public int size;
+
+	private MentalState state;
+	private Parameter parameter;
+	private Term term;
+
+	@Setup
+	public void setup() {
+		this.state = new SwiPrologMentalState();
+		LinkedList<Parameter> list = new LinkedList<>();
+		LinkedList<Parameter> args = new LinkedList<>();
+		for (int i = 0; i < this.size; i++) {
+			list.add(new Identifier("id" + i));
+			args.add(new Numeral(i));
+		}
+		this.parameter = new Function("f", new Identifier("id"),
+				new Numeral(0), new Numeral(0.5), new ParameterList(list),
+				new Function("g", args));
+		this.term = this.state.convert(this.parameter);
+	}
+
+	@Benchmark
+	public Term parameterToTerm() {
+		return this.state.convert(this.parameter);
+	}
+
+	@Benchmark
+	public Parameter termToParameter() {
+		return this.state.convert(this.term);
+	}
+}
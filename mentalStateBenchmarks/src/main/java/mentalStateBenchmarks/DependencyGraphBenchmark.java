@@ -0,0 +1,106 @@
+/**
+ * Knowledge Representation Tools. Copyright (C) 2014 Koen Hindriks.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package mentalStateBenchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import jpl.Atom;
+import krTools.errors.exceptions.KRException;
+import krTools.language.DatabaseFormula;
+import mentalState.DependencyGraph;
+import mentalState.Node;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import swiPrologMentalState.SwiDependencyGraph;
+import swiprolog.language.JPLUtils;
+import swiprolog.language.PrologDBFormula;
+import swiprolog.language.PrologTerm;
+
+/**
+ * Measures the construction of a {@link SwiDependencyGraph} and
+ * {@link Node#getBasicDependencies()} for a program with the given number of
+ * predicates. Predicate pI/0 is defined by pI :- pJ, pK for J = 2I+1 and K =
+ * 2I+2 if these are predicates of the program, and as a fact otherwise, so
+ * the predicates form a binary tree with root p0/0.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DependencyGraphBenchmark {
+	@Param({ "10", "100", "1000", "10000" })
+	public int predicates;
+
+	private final List<DatabaseFormula> clauses = new ArrayList<>();
+	private Node<PrologTerm> root;
+
+	@Setup
+	public void setup() throws KRException {
+		this.clauses.clear();
+		for (int i = 0; i < this.predicates; i++) {
+			jpl.Term head = new Atom("p" + i);
+			int left = 2 * i + 1, right = 2 * i + 2;
+			if (right < this.predicates) {
+				jpl.Term body = JPLUtils.createCompound(",", new Atom("p"
+						+ left), new Atom("p" + right));
+				this.clauses.add(new PrologDBFormula(JPLUtils.createCompound(
+						":-", head, body), null));
+			} else if (left < this.predicates) {
+				this.clauses.add(new PrologDBFormula(JPLUtils.createCompound(
+						":-", head, new Atom("p" + left)), null));
+			} else {
+				this.clauses.add(new PrologDBFormula(head, null));
+			}
+		}
+		for (Node<PrologTerm> node : construct().getNodes()) {
+			if (node.getSignature().equals("p0/0")) {
+				this.root = node;
+			}
+		}
+	}
+
+	@Benchmark
+	public DependencyGraph<PrologTerm> construct() throws KRException {
+		SwiDependencyGraph graph = new SwiDependencyGraph();
+		for (DatabaseFormula clause : this.clauses) {
+			graph.add(clause, true, false);
+		}
+		return graph;
+	}
+
+	@Benchmark
+	public Set<String> basicDependencies() {
+		return this.root.getBasicDependencies();
+	}
+}
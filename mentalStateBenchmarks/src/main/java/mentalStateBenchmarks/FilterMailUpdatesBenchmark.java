@@ -0,0 +1,94 @@
+/**
+ * Knowledge Representation Tools. Copyright (C) 2014 Koen Hindriks.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package mentalStateBenchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import jpl.Atom;
+import krTools.language.Update;
+import mentalState.MentalState;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import swiPrologMentalState.SwiPrologMentalState;
+import swiprolog.language.JPLUtils;
+import swiprolog.language.PrologUpdate;
+
+/**
+ * Measures {@link MentalState#filterMailUpdates(Update, boolean)} on a
+ * conjunction of the given number of updates, a third of which are sent/2
+ * facts, a third negated received/2 facts and a third on/2 facts.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FilterMailUpdatesBenchmark {
+	@Param({ "3", "30", "300", "3000" })
+	public int conjuncts;
+
+	private MentalState state;
+	private Update update;
+
+	@Setup
+	public void setup() {
+		this.state = new SwiPrologMentalState();
+		List<jpl.Term> terms = new ArrayList<>(this.conjuncts);
+		for (int i = 0; i < this.conjuncts; i++) {
+			jpl.Term agent = new Atom("agent" + i);
+			jpl.Term message = JPLUtils.createCompound("msg",
+					JPLUtils.createIntegerNumber(i));
+			switch (i % 3) {
+			case 0:
+				terms.add(JPLUtils.createCompound("sent", agent, message));
+				break;
+			case 1:
+				terms.add(JPLUtils.createCompound("not",
+						JPLUtils.createCompound("received", agent, message)));
+				break;
+			default:
+				terms.add(JPLUtils.createCompound("on", agent, message));
+			}
+		}
+		this.update = new PrologUpdate(JPLUtils.termsToConjunct(terms), null);
+	}
+
+	@Benchmark
+	public Update selectMails() {
+		return this.state.filterMailUpdates(this.update, true);
+	}
+
+	@Benchmark
+	public Update selectOthers() {
+		return this.state.filterMailUpdates(this.update, false);
+	}
+}
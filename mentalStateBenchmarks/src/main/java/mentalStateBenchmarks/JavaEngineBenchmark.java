@@ -0,0 +1,103 @@
+/**
+ * Knowledge Representation Tools. Copyright (C) 2014 Koen Hindriks.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package mentalStateBenchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import jpl.Atom;
+import jpl.Variable;
+import krTools.database.Database;
+import krTools.errors.exceptions.KRException;
+import krTools.language.Substitution;
+import languageTools.program.agent.AgentProgram;
+import mentalState.BASETYPE;
+import mentalState.MentalState;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import swiPrologMentalState.JavaMentalState;
+import swiPrologMentalState.SwiPrologMentalState;
+import swiprolog.language.JPLUtils;
+import swiprolog.language.PrologDBFormula;
+import swiprolog.language.PrologQuery;
+
+/**
+ * Compares the Java engine of the {@link JavaMentalState} with SWI Prolog on
+ * the recursive tower/1 rule of the benchmark program, for a belief base with
+ * one tower of the given height. Every step of the recursion binds another
+ * variable, so the proof holds as many bindings as the tower is high.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class JavaEngineBenchmark {
+	@Param({ "swi", "java" })
+	public String engine;
+	@Param({ "10", "100", "300" })
+	public int height;
+
+	private final List<Database> databases = new ArrayList<>();
+	private PrologQuery tower;
+
+	@Setup
+	public void setup() throws Exception {
+		MentalState state = "java".equals(this.engine) ? new JavaMentalState()
+				: new SwiPrologMentalState();
+		AgentProgram program = Agents.load("engineAgent");
+		this.databases.addAll(Agents.createDatabases(state, program,
+				BASETYPE.KNOWLEDGEBASE, BASETYPE.BELIEFBASE));
+		Database beliefBase = this.databases.get(1);
+		jpl.Term below = new Atom("table");
+		for (int i = 0; i < this.height; i++) {
+			Atom block = new Atom("t" + i);
+			beliefBase.insert(new PrologDBFormula(JPLUtils.createCompound(
+					"on", block, below), null));
+			below = block;
+		}
+		this.tower = new PrologQuery(JPLUtils.createCompound("tower",
+				JPLUtils.createCompound(".", below, new Variable("T"))), null);
+	}
+
+	@TearDown
+	public void tearDown() {
+		Agents.destroy(this.databases);
+	}
+
+	@Benchmark
+	public Set<Substitution> queryTower() throws KRException {
+		return this.databases.get(1).query(this.tower);
+	}
+}
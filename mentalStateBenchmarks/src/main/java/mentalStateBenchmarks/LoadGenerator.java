@@ -0,0 +1,350 @@
+/**
+ * Knowledge Representation Tools. Copyright (C) 2014 Koen Hindriks.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package mentalStateBenchmarks;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import jpl.Atom;
+import jpl.Variable;
+import krTools.database.Database;
+import krTools.errors.exceptions.KRException;
+import krTools.language.DatabaseFormula;
+import krTools.language.Var;
+import languageTools.program.agent.AgentId;
+import languageTools.program.agent.AgentProgram;
+import languageTools.program.agent.msg.Message;
+import languageTools.program.agent.msg.SentenceMood;
+import mentalState.BASETYPE;
+import mentalState.LatencyHistogram;
+import mentalState.MentalState;
+import mentalstatefactory.MentalStateFactory;
+import swiPrologMentalState.ModuleUsage;
+import swiPrologMentalState.PrologCalls;
+import swiPrologMentalState.SwiPrologMentalState;
+import swiprolog.database.SWIPrologDatabase;
+import swiprolog.language.JPLUtils;
+import swiprolog.language.PrologDBFormula;
+import swiprolog.language.PrologQuery;
+import swiprolog.language.PrologSubstitution;
+import swiprolog.language.PrologTerm;
+import swiprolog.language.PrologUpdate;
+import eis.iilang.Identifier;
+import eis.iilang.Numeral;
+import eis.iilang.Percept;
+
+/**
+ * <p>
+ * Standalone load test for the default mental state. For each of a series of
+ * agent counts, creates that many agents with a synthetic knowledge base,
+ * belief base and goal base of configurable size, and then runs a number of
+ * cycles in which every agent replaces part of its percepts, exchanges
+ * messages and queries its belief base. Per step it reports the cycle
+ * latency, the number of calls into Prolog per cycle as counted by
+ * {@link PrologCalls}, the Java heap, the number of clauses in the Prolog
+ * modules and the memory used by Prolog according to statistics/2, and flags
+ * the first step in which a cycle no longer fits in the given budget.
+ * </p>
+ * <p>
+ * Usage: <code>java -cp benchmarks.jar mentalStateBenchmarks.LoadGenerator
+ * [name=value]...</code>, see {@link #DEFAULTS} for the parameters.
+ * </p>
+ * <p>
+ * Messages are inserted into the mailboxes of the sender and receiver with
+ * {@link MentalState#insert(Database, Message, boolean)}, and the resulting
+ * sent/2 and received/2 facts are removed again after a fixed number of
+ * cycles.
+ * </p>
+ */
+public class LoadGenerator {
+	/**
+	 * The parameters and their default values.
+	 */
+	private static final String[][] DEFAULTS = {
+			// comma separated list of agent counts, one step each
+			{ "agents", "1,10,100,1000" },
+			// cycles per step
+			{ "cycles", "50" },
+			// knowledge rules, beliefs and goals per agent
+			{ "kb", "50" }, { "beliefs", "100" }, { "goals", "10" },
+			// percepts per agent, and the fraction replaced every cycle
+			{ "percepts", "50" }, { "churn", "0.2" },
+			// messages sent per agent per cycle, and cycles they are kept
+			{ "messages", "1" }, { "lifetime", "10" },
+			// queries per agent per cycle
+			{ "queries", "5" },
+			// budget for a single cycle of all agents, in milliseconds
+			{ "budget", "100" } };
+
+	/**
+	 * The databases and bookkeeping of a single agent.
+	 */
+	private static class Agent {
+		private final String name;
+		private final List<Database> databases = new ArrayList<>();
+		private Database beliefBase;
+		private Database mailbox;
+		private Database perceptBase;
+		private final Deque<Percept> percepts = new ArrayDeque<>();
+		private final Deque<DatabaseFormula> mails = new ArrayDeque<>();
+		private final Deque<Integer> mailCycles = new ArrayDeque<>();
+
+		private Agent(String name) {
+			this.name = name;
+		}
+	}
+
+	private final Map<String, String> parameters = new LinkedHashMap<>();
+	private MentalState state;
+	private long nextPercept = 0;
+
+	/**
+	 * @param args
+	 *            Parameters of the form name=value.
+	 */
+	public LoadGenerator(String[] args) {
+		for (String[] parameter : DEFAULTS) {
+			this.parameters.put(parameter[0], parameter[1]);
+		}
+		for (String arg : args) {
+			int split = arg.indexOf('=');
+			if (split < 0 || !this.parameters.containsKey(arg.substring(0,
+					split))) {
+				throw new IllegalArgumentException("unknown parameter " + arg
+						+ "; known parameters are "
+						+ this.parameters.keySet());
+			}
+			this.parameters.put(arg.substring(0, split),
+					arg.substring(split + 1));
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		new LoadGenerator(args).run();
+	}
+
+	/**
+	 * Runs all steps and prints a line per step.
+	 *
+	 * @throws Exception
+	 */
+	public void run() throws Exception {
+		this.state = MentalStateFactory.getDefaultInterface();
+		System.out.println(this.parameters);
+		System.out.println("agents\tmean ms\tp99 ms\tmax ms\tcalls/cycle"
+				+ "\theap MB\tclauses\tprolog MB");
+		int step = 0;
+		boolean reported = false;
+		for (String count : this.parameters.get("agents").split(",")) {
+			List<Agent> agents = createAgents(step++,
+					Integer.parseInt(count.trim()));
+			LatencyHistogram cycles = new LatencyHistogram();
+			long calls = PrologCalls.get();
+			int total = getInt("cycles");
+			for (int cycle = 0; cycle < total; cycle++) {
+				long start = System.nanoTime();
+				runCycle(agents, cycle);
+				cycles.record(System.nanoTime() - start);
+			}
+			calls = PrologCalls.get() - calls;
+			Runtime runtime = Runtime.getRuntime();
+			long heap = runtime.totalMemory() - runtime.freeMemory();
+			ModuleUsage usage = getPrologUsage();
+			long memory = getPrologMemory();
+			System.out.println(String.format(
+					"%s\t%.2f\t%.2f\t%.2f\t%d\t%d\t%d\t%d", count.trim(),
+					cycles.getMean() / 1e6, cycles.getPercentile(99) / 1e6,
+					cycles.getMax() / 1e6, calls / total, heap >> 20,
+					usage.getClauses(), memory >> 20));
+			if (!reported && cycles.getMean() / 1e6 > getDouble("budget")) {
+				System.out.println("cycles of " + count.trim()
+						+ " agents exceed the budget of "
+						+ this.parameters.get("budget") + " ms");
+				reported = true;
+			}
+			for (Agent agent : agents) {
+				Agents.destroy(agent.databases);
+			}
+		}
+	}
+
+	/**
+	 * Creates agents with synthetic content. The knowledge base of each agent
+	 * contains rules kbI(X) :- beliefJ(X), the belief base facts beliefJ(N)
+	 * and the goal base facts goalI(N).
+	 */
+	private List<Agent> createAgents(int step, int count) throws Exception {
+		List<DatabaseFormula> knowledge = new ArrayList<>();
+		int beliefs = Math.max(1, getInt("beliefs"));
+		for (int i = 0; i < getInt("kb"); i++) {
+			Variable x = new Variable("X");
+			knowledge.add(new PrologDBFormula(JPLUtils.createCompound(":-",
+					JPLUtils.createCompound("kb" + i, x),
+					JPLUtils.createCompound("belief" + (i % beliefs), x)),
+					null));
+		}
+		List<DatabaseFormula> facts = new ArrayList<>();
+		for (int i = 0; i < getInt("beliefs"); i++) {
+			facts.add(new PrologDBFormula(JPLUtils.createCompound(
+					"belief" + i, JPLUtils.createIntegerNumber(i)), null));
+		}
+		List<DatabaseFormula> goals = new ArrayList<>();
+		for (int i = 0; i < getInt("goals"); i++) {
+			goals.add(new PrologDBFormula(JPLUtils.createCompound("goal" + i,
+					JPLUtils.createIntegerNumber(i)), null));
+		}
+		List<Agent> agents = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			Agent agent = new Agent("step" + step + "agent" + i);
+			AgentProgram program = Agents.load(agent.name);
+			agent.databases.add(this.state.makeDatabase(
+					BASETYPE.KNOWLEDGEBASE, knowledge, program));
+			agent.beliefBase = this.state.makeDatabase(BASETYPE.BELIEFBASE,
+					facts, program);
+			agent.databases.add(agent.beliefBase);
+			agent.databases.add(this.state.makeDatabase(BASETYPE.GOALBASE,
+					goals, program));
+			agent.mailbox = this.state.makeDatabase(BASETYPE.MAILBOX,
+					new ArrayList<DatabaseFormula>(0), program);
+			agent.databases.add(agent.mailbox);
+			agent.perceptBase = this.state.makeDatabase(BASETYPE.PERCEPTBASE,
+					new ArrayList<DatabaseFormula>(0), program);
+			agent.databases.add(agent.perceptBase);
+			for (int p = 0; p < getInt("percepts"); p++) {
+				Percept percept = newPercept();
+				this.state.insert(agent.perceptBase, percept);
+				agent.percepts.addLast(percept);
+			}
+			agents.add(agent);
+		}
+		return agents;
+	}
+
+	/**
+	 * Runs a single cycle of all agents.
+	 */
+	private void runCycle(List<Agent> agents, int cycle) throws KRException {
+		int churn = (int) Math.round(getInt("percepts") * getDouble("churn"));
+		int kb = getInt("kb");
+		for (int i = 0; i < agents.size(); i++) {
+			Agent agent = agents.get(i);
+			// Percepts: replace the oldest percepts by new ones.
+			for (int p = 0; p < churn && !agent.percepts.isEmpty(); p++) {
+				this.state.delete(agent.perceptBase,
+						agent.percepts.removeFirst());
+				Percept percept = newPercept();
+				this.state.insert(agent.perceptBase, percept);
+				agent.percepts.addLast(percept);
+			}
+			// Messages: send to the next agents, and expire old messages.
+			for (int m = 0; m < getInt("messages"); m++) {
+				Agent receiver = agents.get((i + m + 1) % agents.size());
+				Message message = new Message(new PrologUpdate(
+						JPLUtils.createCompound("msg",
+								JPLUtils.createIntegerNumber(cycle)), null),
+						SentenceMood.INDICATIVE);
+				message.setSender(new AgentId(agent.name));
+				message.setReceivers(Collections.singleton(new AgentId(
+						receiver.name)));
+				mail(agent, cycle, message, false);
+				mail(receiver, cycle, message, true);
+			}
+			while (!agent.mailCycles.isEmpty()
+					&& cycle - agent.mailCycles.peekFirst() >= getInt("lifetime")) {
+				agent.mailbox.delete(agent.mails.removeFirst());
+				agent.mailCycles.removeFirst();
+			}
+			// Queries: evaluate knowledge rules on the belief base.
+			for (int q = 0; q < getInt("queries") && kb > 0; q++) {
+				agent.beliefBase.query(new PrologQuery(JPLUtils.createCompound(
+						"kb" + ((cycle + q) % kb), new Variable("X")), null));
+			}
+		}
+	}
+
+	private void mail(Agent agent, int cycle, Message message,
+			boolean received) throws KRException {
+		Set<DatabaseFormula> facts = this.state.insert(agent.mailbox, message,
+				received);
+		for (DatabaseFormula fact : facts) {
+			agent.mails.addLast(fact);
+			agent.mailCycles.addLast(cycle);
+		}
+	}
+
+	private Percept newPercept() {
+		long id = this.nextPercept++;
+		return new Percept("seen", new Identifier("object" + id), new Numeral(
+				id));
+	}
+
+	/**
+	 * @return The total usage of all Prolog modules, if the default mental
+	 *         state is the SWI Prolog mental state.
+	 */
+	private ModuleUsage getPrologUsage() throws KRException {
+		ModuleUsage total = ModuleUsage.EMPTY;
+		if (this.state instanceof SwiPrologMentalState) {
+			SwiPrologMentalState swi = (SwiPrologMentalState) this.state;
+			swi.setUsageSampleInterval(0);
+			for (ModuleUsage usage : swi.getUsageByType().values()) {
+				total = total.add(usage);
+			}
+		}
+		return total;
+	}
+
+	/**
+	 * @return The memory used by Prolog, in bytes: the heap and the stacks of
+	 *         all threads according to statistics/2, or 0 if the default
+	 *         mental state is not the SWI Prolog mental state.
+	 */
+	private long getPrologMemory() throws KRException {
+		if (!(this.state instanceof SwiPrologMentalState)) {
+			return 0;
+		}
+		Variable heap = new Variable("Heap");
+		Variable stacks = new Variable("Stacks");
+		Set<PrologSubstitution> results = SWIPrologDatabase
+				.rawquery(JPLUtils.createCompound(",", JPLUtils.createCompound(
+						"statistics", new Atom("heapused"), heap),
+						JPLUtils.createCompound("statistics",
+								new Atom("stack"), stacks)));
+		long memory = 0;
+		for (PrologSubstitution result : results) {
+			for (Var var : result.getVariables()) {
+				memory += ((PrologTerm) result.get(var)).getTerm().longValue();
+			}
+		}
+		return memory;
+	}
+
+	private int getInt(String name) {
+		return Integer.parseInt(this.parameters.get(name));
+	}
+
+	private double getDouble(String name) {
+		return Double.parseDouble(this.parameters.get(name));
+	}
+}
@@ -0,0 +1,92 @@
+/**
+ * Knowledge Representation Tools. Copyright (C) 2014 Koen Hindriks.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package mentalStateBenchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import krTools.database.Database;
+import krTools.errors.exceptions.KRException;
+import languageTools.program.agent.AgentProgram;
+import mentalState.BASETYPE;
+import mentalState.MentalState;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import swiPrologMentalState.SwiPrologMentalState;
+
+/**
+ * Measures {@link MentalState#makeDatabase} for each {@link BASETYPE}. Every
+ * invocation uses a fresh mental state (with a knowledge base, if the type
+ * requires one) because an agent can have only one database of most types.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 100)
+@Measurement(iterations = 500)
+@Fork(1)
+public class MakeDatabaseBenchmark {
+	@Param({ "KNOWLEDGEBASE", "BELIEFBASE", "GOALBASE", "MAILBOX",
+			"PERCEPTBASE" })
+	public BASETYPE type;
+
+	private AgentProgram program;
+	private MentalState state;
+	private final List<Database> databases = new ArrayList<>();
+
+	@Setup
+	public void load() throws Exception {
+		this.program = Agents.load("makeDatabaseAgent");
+	}
+
+	@Setup(Level.Invocation)
+	public void setup() throws KRException {
+		this.state = new SwiPrologMentalState();
+		if (this.type != BASETYPE.KNOWLEDGEBASE) {
+			this.databases.addAll(Agents.createDatabases(this.state,
+					this.program, BASETYPE.KNOWLEDGEBASE));
+		}
+	}
+
+	@TearDown(Level.Invocation)
+	public void tearDown() {
+		Agents.destroy(this.databases);
+	}
+
+	@Benchmark
+	public Database makeDatabase() throws KRException {
+		Database database = this.state.makeDatabase(this.type,
+				Agents.getContent(this.program, this.type), this.program);
+		this.databases.add(database);
+		return database;
+	}
+}
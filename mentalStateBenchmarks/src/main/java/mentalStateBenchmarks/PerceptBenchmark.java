@@ -0,0 +1,97 @@
+/**
+ * Knowledge Representation Tools. Copyright (C) 2014 Koen Hindriks.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package mentalStateBenchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import krTools.database.Database;
+import krTools.errors.exceptions.KRException;
+import languageTools.program.agent.AgentProgram;
+import mentalState.BASETYPE;
+import mentalState.MentalState;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import swiPrologMentalState.SwiPrologMentalState;
+import eis.iilang.Identifier;
+import eis.iilang.Numeral;
+import eis.iilang.Percept;
+
+/**
+ * Measures inserting a batch of percepts into the percept base of an agent
+ * and deleting them again, i.e. one cycle of percept processing in which all
+ * percepts change. Percepts have the form on(blockN, N).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PerceptBenchmark {
+	@Param({ "1", "10", "100", "1000" })
+	public int percepts;
+
+	private MentalState state;
+	private Database perceptBase;
+	private final List<Database> databases = new ArrayList<>();
+	private final List<Percept> batch = new ArrayList<>();
+
+	@Setup
+	public void setup() throws Exception {
+		this.state = new SwiPrologMentalState();
+		AgentProgram program = Agents.load("perceptAgent");
+		this.databases.addAll(Agents.createDatabases(this.state, program,
+				BASETYPE.KNOWLEDGEBASE, BASETYPE.BELIEFBASE,
+				BASETYPE.PERCEPTBASE));
+		this.perceptBase = this.databases.get(2);
+		for (int i = 0; i < this.percepts; i++) {
+			this.batch.add(new Percept("on", new Identifier("block" + i),
+					new Numeral(i)));
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		Agents.destroy(this.databases);
+		this.batch.clear();
+	}
+
+	@Benchmark
+	public void insertAndDelete() throws KRException {
+		for (Percept percept : this.batch) {
+			this.state.insert(this.perceptBase, percept);
+		}
+		for (Percept percept : this.batch) {
+			this.state.delete(this.perceptBase, percept);
+		}
+	}
+}
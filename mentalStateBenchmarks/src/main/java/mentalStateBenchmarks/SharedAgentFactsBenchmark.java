@@ -0,0 +1,100 @@
+/**
+ * Knowledge Representation Tools. Copyright (C) 2014 Koen Hindriks.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package mentalStateBenchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import krTools.database.Database;
+import krTools.errors.exceptions.KRException;
+import languageTools.program.agent.AgentId;
+import mentalState.BASETYPE;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import swiPrologMentalState.SwiPrologMentalState;
+
+/**
+ * Measures an agent joining and leaving a multi-agent system with the given
+ * number of agents, i.e. updating its agent/1 fact in the belief base of
+ * every agent, with agent facts stored per belief base or shared between all
+ * agents.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SharedAgentFactsBenchmark {
+	@Param({ "100", "1000", "2000" })
+	public int agents;
+	@Param({ "false", "true" })
+	public boolean shared;
+
+	private SwiPrologMentalState state;
+	private final List<Database> databases = new ArrayList<>();
+	private final List<Database> beliefBases = new ArrayList<>();
+	private final AgentId newcomer = new AgentId("newcomer");
+
+	@Setup
+	public void setup() throws Exception {
+		this.state = new SwiPrologMentalState();
+		this.state.setSharedAgentFacts(this.shared);
+		List<AgentId> ids = new ArrayList<>(this.agents);
+		for (int i = 0; i < this.agents; i++) {
+			List<Database> created = Agents.createDatabases(this.state,
+					Agents.load("agent" + i), BASETYPE.KNOWLEDGEBASE,
+					BASETYPE.BELIEFBASE);
+			this.databases.addAll(created);
+			this.beliefBases.add(created.get(1));
+			ids.add(new AgentId("agent" + i));
+		}
+		for (Database beliefBase : this.beliefBases) {
+			this.state.updateAgentFacts(beliefBase, true, ids);
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		Agents.destroy(this.databases);
+		this.beliefBases.clear();
+	}
+
+	@Benchmark
+	public void joinAndLeave() throws KRException {
+		for (Database beliefBase : this.beliefBases) {
+			this.state.updateAgentFact(beliefBase, true, this.newcomer, false);
+		}
+		for (Database beliefBase : this.beliefBases) {
+			this.state.updateAgentFact(beliefBase, false, this.newcomer, false);
+		}
+	}
+}
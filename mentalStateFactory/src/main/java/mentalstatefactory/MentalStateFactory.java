@@ -20,10 +20,15 @@ package mentalstatefactory;
 import java.util.Hashtable;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 
 import krTools.KRInterface;
 import krTools.errors.exceptions.KRInitFailedException;
 import mentalState.MentalState;
+import mentalState.MentalStateMetrics;
+import mentalState.NoMetrics;
+import swiPrologMentalState.JavaMentalState;
+import swiPrologMentalState.ShardedMentalState;
 import swiPrologMentalState.SwiPrologMentalState;
 
 /**
@@ -38,12 +43,25 @@ public class MentalStateFactory {
 	 */
 	private static Map<Class<? extends KRInterface>, Class<? extends MentalState>> mentalstateInterfaces;
 
+	/**
+	 * Alternative {@link MentalState}s for a KR interface, keyed by the name
+	 * of the KR interface and the name of the variant, see
+	 * {@link #getVariantKey(Class, String)}.
+	 */
+	private static Map<String, Class<? extends MentalState>> variants;
+
 	/**
 	 * The default interface that get be obtained by
 	 * {@link MentalStateFactory#getDefaultLanguage()}.
 	 */
 	private static MentalState defaultInterface;
 
+	/**
+	 * The metrics that are set on every {@link MentalState} provided by this
+	 * factory.
+	 */
+	private static MentalStateMetrics metrics = NoMetrics.INSTANCE;
+
 	// Initialize KR interfaces map and default language interface.
 	static {
 		init();
@@ -61,9 +79,15 @@ public class MentalStateFactory {
 	 */
 	private static void init() {
 		mentalstateInterfaces = new Hashtable<>();
+		variants = new Hashtable<>();
 		// Add SWI Prolog and set as default.
 		defaultInterface = new SwiPrologMentalState();
 		MentalStateFactory.addInterface(defaultInterface);
+		// Add the pure Java implementation for the SWI Prolog subset.
+		MentalStateFactory.addInterface(new JavaMentalState(),
+				JavaMentalState.VARIANT);
+		MentalStateFactory.addInterface(new ShardedMentalState(),
+				ShardedMentalState.VARIANT);
 	}
 
 	/**
@@ -86,11 +110,51 @@ public class MentalStateFactory {
 							+ " does not support constructing a mental state.");
 		}
 
+		return instantiate(mentalstateInterfaces.get(kri), kri.getName());
+	}
+
+	/**
+	 * Provides an alternative implementation of the mental state for a
+	 * knowledge representation technology, e.g. one that only supports part
+	 * of the language but is faster for agents that fit that part.
+	 *
+	 * @param kri
+	 *            The required KR interface. Should not be null.
+	 * @param variant
+	 *            The name of the variant, e.g. {@link JavaMentalState#VARIANT}.
+	 * @return A {@link MentalState} implementation for the given language
+	 *         technology.
+	 * @throws InstantiationFailedException
+	 *             If the variant does not exist or cannot be constructed.
+	 */
+	public static MentalState getInterface(Class<? extends KRInterface> kri,
+			String variant) throws InstantiationFailedException {
+		String key = getVariantKey(kri, variant);
+		if (!variants.containsKey(key)) {
+			throw new InstantiationFailedException(
+					"The knowledge representation language " + kri.getName()
+							+ " does not have a mental state variant "
+							+ variant + ".");
+		}
+		return instantiate(variants.get(key), key);
+	}
+
+	private static MentalState instantiate(
+			Class<? extends MentalState> implementation, String name)
+			throws InstantiationFailedException {
 		try {
-			return mentalstateInterfaces.get(kri).newInstance();
+			MentalStateMetrics current = metrics;
+			long start = current.isEnabled() ? System.nanoTime() : 0;
+			MentalState instance = implementation.newInstance();
+			instance.setMetrics(current);
+			if (current.isEnabled()) {
+				current.record("getInterface", null, null, System.nanoTime()
+						- start);
+			}
+			return instance;
 		} catch (InstantiationException | IllegalAccessException e) {
 			throw new InstantiationFailedException("Failed to instantiate "
-					+ kri.getName(), e);
+					+ name, e);
 		}
 	}
 
@@ -114,6 +178,72 @@ public class MentalStateFactory {
 				msInterface.getClass());
 	}
 
+	/**
+	 * Adds an alternative implementation of the mental state for a KR
+	 * interface, which can be obtained with
+	 * {@link #getInterface(Class, String)}. The implementation that is
+	 * provided for the KR interface by {@link #getInterface(Class)} does not
+	 * change.
+	 *
+	 * @param msInterface
+	 *            {@link MentalState} to be added to the factory. Should not be
+	 *            null
+	 * @param variant
+	 *            The name of the variant.
+	 * @throws IllegalStateException
+	 *             if the variant is already present.
+	 */
+	public static void addInterface(MentalState msInterface, String variant) {
+		String key = getVariantKey(msInterface.getKRInterface(), variant);
+		if (variants.containsKey(key)) {
+			throw new IllegalStateException("Variant " + key
+					+ " is already present");
+		}
+		variants.put(key, msInterface.getClass());
+	}
+
+	/**
+	 * @return The names of the variants that are available for a KR
+	 *         interface.
+	 */
+	public static Set<String> getVariants(Class<? extends KRInterface> kri) {
+		Set<String> names = new TreeSet<>();
+		String prefix = kri.getName() + "/";
+		for (String key : variants.keySet()) {
+			if (key.startsWith(prefix)) {
+				names.add(key.substring(prefix.length()));
+			}
+		}
+		return names;
+	}
+
+	private static String getVariantKey(Class<? extends KRInterface> kri,
+			String variant) {
+		return kri.getName() + "/" + variant;
+	}
+
+	/**
+	 * Sets the metrics that mental states provided by this factory report to,
+	 * including the default interface. Mental states that have been provided
+	 * before keep reporting to the metrics they were given.
+	 *
+	 * @param mentalStateMetrics
+	 *            The metrics to report to, e.g. a
+	 *            {@link mentalState.HistogramMetrics}.
+	 */
+	public static void setMetrics(MentalStateMetrics mentalStateMetrics) {
+		metrics = mentalStateMetrics;
+		defaultInterface.setMetrics(mentalStateMetrics);
+	}
+
+	/**
+	 * @return The metrics that mental states provided by this factory report
+	 *         to.
+	 */
+	public static MentalStateMetrics getMetrics() {
+		return metrics;
+	}
+
 	/**
 	 * @return A set of names with supported KR interfaces.
 	 */
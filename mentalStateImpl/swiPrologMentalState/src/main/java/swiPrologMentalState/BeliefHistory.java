@@ -0,0 +1,194 @@
+/**
+ * Knowledge Representation Tools. Copyright (C) 2014 Koen Hindriks.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package swiPrologMentalState;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import jpl.Term;
+import krTools.errors.exceptions.KRQueryFailedException;
+
+/**
+ * <p>
+ * The contents of a belief base at past cycles of its agent, see
+ * {@link SwiPrologMentalState#setBeliefHistory(int)}. Every insert and delete
+ * is applied to a {@link PersistentFactSet}; at the end of a cycle the current
+ * set is stored as the version for that cycle. As versions share all formulas
+ * that did not change, a version costs memory in proportion to the changes
+ * in its cycle only. Facts that are imported into the belief base, such as
+ * percepts and messages, are not part of the history. A formula that Prolog
+ * stores more than once is in a version once; its other copies are counted,
+ * so deleting one copy keeps it in the current set.
+ * </p>
+ * <p>
+ * At most a fixed number of versions is kept. When there are more, every
+ * other version in the older half of the history is dropped, so recent
+ * cycles are available exactly and older cycles at a lower resolution; the
+ * very first version is always kept.
+ * </p>
+ */
+public class BeliefHistory {
+	private final int maxVersions;
+	/**
+	 * The cycles for which a version is kept, in increasing order.
+	 */
+	private final List<Long> cycles = new ArrayList<>();
+	private final List<PersistentFactSet> versions = new ArrayList<>();
+	private PersistentFactSet current = PersistentFactSet.EMPTY;
+	/**
+	 * The number of extra copies of each formula in the belief base that
+	 * occurs more than once, keyed by its string representation.
+	 */
+	private final Map<String, Integer> copies = new HashMap<>();
+	/**
+	 * Set if a formula with variables was deleted; as Prolog deletes the
+	 * first matching clause, the current set is then rebuilt from the belief
+	 * base at the end of the cycle.
+	 */
+	private boolean stale = false;
+	private long compactions = 0;
+
+	/**
+	 * @param maxVersions
+	 *            The maximum number of versions that is kept; at least 2.
+	 */
+	public BeliefHistory(int maxVersions) {
+		if (maxVersions < 2) {
+			throw new IllegalArgumentException(
+					"at least two versions should be kept");
+		}
+		this.maxVersions = maxVersions;
+	}
+
+	synchronized void insert(Term formula) {
+		if (this.current.contains(formula)) {
+			String key = formula.toString();
+			Integer count = this.copies.get(key);
+			this.copies.put(key, count == null ? 1 : count + 1);
+		} else {
+			this.current = this.current.add(formula);
+		}
+	}
+
+	synchronized void delete(Term formula) {
+		if (JavaDatabase.isGround(formula)) {
+			String key = formula.toString();
+			Integer count = this.copies.get(key);
+			if (count == null) {
+				this.current = this.current.remove(formula);
+			} else if (count == 1) {
+				this.copies.remove(key);
+			} else {
+				this.copies.put(key, count - 1);
+			}
+		} else {
+			this.stale = true;
+		}
+	}
+
+	/**
+	 * Stores the current content of the belief base as the version for a
+	 * cycle. A cycle in which nothing changed does not use a version.
+	 *
+	 * @param cycle
+	 *            The cycle that has ended; should be larger than the cycle
+	 *            of the previous call.
+	 * @param database
+	 *            The belief base, used if the content has to be rebuilt.
+	 * @throws KRQueryFailedException
+	 */
+	synchronized void commit(long cycle, TypedSWIPrologDatabase database)
+			throws KRQueryFailedException {
+		if (this.stale) {
+			List<Term> clauses = new LinkedList<>();
+			database.dump(new LinkedList<Term>(), clauses);
+			this.current = PersistentFactSet.EMPTY;
+			this.copies.clear();
+			for (Term clause : clauses) {
+				insert(clause);
+			}
+			this.stale = false;
+		}
+		int last = this.versions.size() - 1;
+		if (last >= 0 && this.versions.get(last) == this.current) {
+			return;
+		}
+		this.cycles.add(cycle);
+		this.versions.add(this.current);
+		if (this.versions.size() > this.maxVersions) {
+			compact();
+		}
+	}
+
+	/**
+	 * Drops every other version in the older half of the history, except the
+	 * first version.
+	 */
+	private void compact() {
+		int half = this.versions.size() / 2;
+		List<Long> cycles = new ArrayList<>(this.cycles.size());
+		List<PersistentFactSet> versions = new ArrayList<>(this.versions.size());
+		for (int i = 0; i < this.versions.size(); i++) {
+			if (i == 0 || i >= half || i % 2 == 0) {
+				cycles.add(this.cycles.get(i));
+				versions.add(this.versions.get(i));
+			}
+		}
+		this.cycles.clear();
+		this.cycles.addAll(cycles);
+		this.versions.clear();
+		this.versions.addAll(versions);
+		this.compactions++;
+	}
+
+	/**
+	 * Returns the content of the belief base at the end of a cycle, or at
+	 * the end of the closest earlier cycle for which a version is kept.
+	 *
+	 * @param cycle
+	 *            A cycle.
+	 * @return The content, or {@code null} if the cycle is before the first
+	 *         version.
+	 */
+	public synchronized PersistentFactSet getBeliefs(long cycle) {
+		int index = Collections.binarySearch(this.cycles, cycle);
+		if (index < 0) {
+			// -index - 1 is the position of the first later cycle.
+			index = -index - 2;
+		}
+		return index < 0 ? null : this.versions.get(index);
+	}
+
+	/**
+	 * @return The cycles for which a version is kept, in increasing order.
+	 */
+	public synchronized List<Long> getCycles() {
+		return Collections.unmodifiableList(new ArrayList<>(this.cycles));
+	}
+
+	/**
+	 * @return The number of times old versions have been dropped.
+	 */
+	public synchronized long getCompactions() {
+		return this.compactions;
+	}
+}
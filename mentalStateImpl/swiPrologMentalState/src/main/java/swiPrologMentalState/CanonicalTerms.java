@@ -0,0 +1,355 @@
+/**
+ * Knowledge Representation Tools. Copyright (C) 2014 Koen Hindriks.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package swiPrologMentalState;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import jpl.Atom;
+import jpl.Compound;
+import jpl.Term;
+import jpl.Variable;
+import swiprolog.language.JPLUtils;
+
+/**
+ * <p>
+ * Converts terms to and from the canonical text representation of SWI Prolog
+ * (see write_canonical/1), without using the embedded Prolog runtime. Used to
+ * exchange terms with {@link PrologWorker} processes.
+ * </p>
+ * <p>
+ * Atoms are always written quoted and compound terms are always written in
+ * prefix form, so the result does not depend on operator declarations. The
+ * reader accepts the output of write_canonical/1 of a worker that runs with
+ * traditional lists, i.e. lists with the functor '.' and the empty list [].
+ * Strings are read as atoms.
+ * </p>
+ */
+class CanonicalTerms {
+	/**
+	 * The text that is read.
+	 */
+	private final String text;
+	/**
+	 * The position of the next character to read.
+	 */
+	private int position = 0;
+
+	private CanonicalTerms(String text) {
+		this.text = text;
+	}
+
+	/**
+	 * @param term
+	 *            A term.
+	 * @return The canonical text of the term, without a terminating full stop.
+	 */
+	static String write(Term term) {
+		StringBuilder out = new StringBuilder();
+		write(term, out);
+		return out.toString();
+	}
+
+	private static void write(Term term, StringBuilder out) {
+		if (term.isVariable()) {
+			out.append(term.name());
+		} else if (term.isInteger()) {
+			out.append(term.longValue());
+		} else if (term.isFloat()) {
+			double value = term.doubleValue();
+			if (Double.isNaN(value) || Double.isInfinite(value)) {
+				throw new IllegalArgumentException("cannot write " + value);
+			}
+			out.append(value);
+		} else if (term.isAtom()) {
+			writeAtom(term.name(), out);
+		} else if (term.isCompound()) {
+			writeAtom(term.name(), out);
+			out.append('(');
+			for (int i = 1; i <= term.arity(); i++) {
+				if (i > 1) {
+					out.append(',');
+				}
+				write(term.arg(i), out);
+			}
+			out.append(')');
+		} else {
+			throw new IllegalArgumentException("cannot write " + term);
+		}
+	}
+
+	private static void writeAtom(String name, StringBuilder out) {
+		out.append('\'');
+		for (int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+			switch (c) {
+			case '\'':
+				out.append("\\'");
+				break;
+			case '\\':
+				out.append("\\\\");
+				break;
+			case '\n':
+				out.append("\\n");
+				break;
+			case '\t':
+				out.append("\\t");
+				break;
+			default:
+				out.append(c);
+			}
+		}
+		out.append('\'');
+	}
+
+	/**
+	 * @param text
+	 *            The canonical text of a single term, optionally followed by
+	 *            a full stop.
+	 * @return The term.
+	 * @throws IllegalArgumentException
+	 *             If the text is not a canonical term.
+	 */
+	static Term read(String text) {
+		CanonicalTerms reader = new CanonicalTerms(text);
+		Term term = reader.readTerm();
+		reader.skipWhitespace();
+		if (reader.peek() == '.') {
+			reader.position++;
+			reader.skipWhitespace();
+		}
+		if (reader.position < text.length()) {
+			throw reader.error("unexpected text after term");
+		}
+		return term;
+	}
+
+	private Term readTerm() {
+		skipWhitespace();
+		char c = peek();
+		if (c == '[') {
+			this.position++;
+			skipWhitespace();
+			if (peek() == ']') {
+				this.position++;
+				return new Atom("[]");
+			}
+			return readList();
+		} else if (c == '{') {
+			this.position++;
+			skipWhitespace();
+			if (peek() == '}') {
+				this.position++;
+				return new Atom("{}");
+			}
+			Term argument = readTerm();
+			expect('}');
+			return JPLUtils.createCompound("{}", argument);
+		} else if (Character.isDigit(c)
+				|| (c == '-' && Character.isDigit(peek(1)))) {
+			return readNumber();
+		} else if (c == '_' || Character.isUpperCase(c)) {
+			return new Variable(readWhile(true));
+		} else if (c == '\'' || c == '"') {
+			return named(readQuoted(c));
+		} else if (Character.isLowerCase(c)) {
+			return named(readWhile(true));
+		} else if (c == '!' || c == ';' || c == ',' || c == '|') {
+			this.position++;
+			return named(String.valueOf(c));
+		} else if (isSymbol(c)) {
+			return named(readWhile(false));
+		}
+		throw error("unexpected character '" + c + "'");
+	}
+
+	/**
+	 * Reads the arguments of a compound term if the name is directly followed
+	 * by an opening bracket.
+	 */
+	private Term named(String name) {
+		if (peek() != '(') {
+			return new Atom(name);
+		}
+		this.position++;
+		List<Term> arguments = new ArrayList<>();
+		do {
+			arguments.add(readTerm());
+			skipWhitespace();
+		} while (accept(','));
+		expect(')');
+		return new Compound(name, arguments.toArray(new Term[arguments.size()]));
+	}
+
+	/**
+	 * Reads the elements and tail of a list after the opening bracket.
+	 */
+	private Term readList() {
+		List<Term> elements = new ArrayList<>();
+		do {
+			elements.add(readTerm());
+			skipWhitespace();
+		} while (accept(','));
+		Term list;
+		if (accept('|')) {
+			list = readTerm();
+			skipWhitespace();
+		} else {
+			list = new Atom("[]");
+		}
+		expect(']');
+		for (int i = elements.size() - 1; i >= 0; i--) {
+			list = JPLUtils.createCompound(".", elements.get(i), list);
+		}
+		return list;
+	}
+
+	private Term readNumber() {
+		int start = this.position;
+		if (peek() == '-') {
+			this.position++;
+		}
+		boolean real = false;
+		skipDigits();
+		if (peek() == '.' && Character.isDigit(peek(1))) {
+			real = true;
+			this.position++;
+			skipDigits();
+		}
+		if ((peek() == 'e' || peek() == 'E')
+				&& (Character.isDigit(peek(1)) || ((peek(1) == '-' || peek(1) == '+') && Character
+						.isDigit(peek(2))))) {
+			real = true;
+			this.position += 2;
+			skipDigits();
+		}
+		String number = this.text.substring(start, this.position);
+		try {
+			if (real) {
+				return new jpl.Float(Double.parseDouble(number));
+			} else {
+				return new jpl.Integer(Long.parseLong(number));
+			}
+		} catch (NumberFormatException e) {
+			throw error("unsupported number " + number);
+		}
+	}
+
+	private String readQuoted(char quote) {
+		StringBuilder name = new StringBuilder();
+		this.position++;
+		while (true) {
+			if (this.position >= this.text.length()) {
+				throw error("unterminated quoted text");
+			}
+			char c = this.text.charAt(this.position++);
+			if (c == quote) {
+				if (peek() != quote) {
+					return name.toString();
+				}
+				this.position++;
+				name.append(quote);
+			} else if (c == '\\') {
+				char escaped = this.text.charAt(this.position++);
+				switch (escaped) {
+				case 'n':
+					name.append('\n');
+					break;
+				case 't':
+					name.append('\t');
+					break;
+				case 'r':
+					name.append('\r');
+					break;
+				case 'x':
+					int end = this.text.indexOf('\\', this.position);
+					name.append((char) java.lang.Integer.parseInt(
+							this.text.substring(this.position, end), 16));
+					this.position = end + 1;
+					break;
+				default:
+					name.append(escaped);
+				}
+			} else {
+				name.append(c);
+			}
+		}
+	}
+
+	/**
+	 * Reads a sequence of alphanumeric characters, or of symbol characters.
+	 */
+	private String readWhile(boolean alphanumeric) {
+		int start = this.position;
+		while (this.position < this.text.length()) {
+			char c = this.text.charAt(this.position);
+			if (alphanumeric ? (Character.isLetterOrDigit(c) || c == '_')
+					: isSymbol(c)) {
+				this.position++;
+			} else {
+				break;
+			}
+		}
+		return this.text.substring(start, this.position);
+	}
+
+	private void skipDigits() {
+		while (Character.isDigit(peek())) {
+			this.position++;
+		}
+	}
+
+	private void skipWhitespace() {
+		while (Character.isWhitespace(peek())) {
+			this.position++;
+		}
+	}
+
+	private boolean accept(char c) {
+		skipWhitespace();
+		if (peek() == c) {
+			this.position++;
+			return true;
+		}
+		return false;
+	}
+
+	private void expect(char c) {
+		if (!accept(c)) {
+			throw error("expected '" + c + "'");
+		}
+	}
+
+	private char peek() {
+		return peek(0);
+	}
+
+	private char peek(int offset) {
+		int i = this.position + offset;
+		return i < this.text.length() ? this.text.charAt(i) : '\0';
+	}
+
+	private IllegalArgumentException error(String message) {
+		return new IllegalArgumentException(message + " at position "
+				+ this.position + " of " + this.text);
+	}
+
+	private static boolean isSymbol(char c) {
+		return "#$&*+-./:<=>?@^~\\".indexOf(c) >= 0;
+	}
+}
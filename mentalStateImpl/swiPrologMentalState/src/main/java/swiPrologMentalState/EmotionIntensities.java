@@ -0,0 +1,281 @@
+/**
+ * Knowledge Representation Tools. Copyright (C) 2014 Koen Hindriks.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package swiPrologMentalState;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import jpl.Atom;
+import jpl.Term;
+import jpl.Variable;
+import krTools.errors.exceptions.KRDatabaseException;
+import krTools.errors.exceptions.KRQueryFailedException;
+import swiprolog.database.SWIPrologDatabase;
+import swiprolog.language.JPLUtils;
+
+/**
+ * <p>
+ * The emotions of an agent: an intensity per emotion, stored in primitive
+ * arrays so that decaying all emotions at the end of a cycle is a single pass
+ * over an array instead of rewriting a Prolog fact per emotion.
+ * </p>
+ * <p>
+ * The belief base of the agent sees the emotions as facts emotion(Name,
+ * Intensity) for every emotion with a non-zero intensity. These facts are
+ * only updated, in a single Prolog call for all emotions that changed, by
+ * {@link #sync(SWIPrologDatabase)} just before the belief base or emotion
+ * base is queried.
+ * </p>
+ */
+public class EmotionIntensities {
+	/**
+	 * Intensities below this value are set to 0 by {@link #decay()}.
+	 */
+	private static final double THRESHOLD = 1e-3;
+
+	private final Map<String, Integer> index = new HashMap<>();
+	private String[] names = new String[8];
+	private double[] intensities = new double[8];
+	/**
+	 * Fraction of its intensity an emotion keeps per cycle.
+	 */
+	private double[] retention = new double[8];
+	/**
+	 * Whether the intensity has changed since the last sync.
+	 */
+	private boolean[] changed = new boolean[8];
+	private int size = 0;
+	private int pending = 0;
+	/**
+	 * The retention of new emotions.
+	 */
+	private final double defaultRetention;
+
+	/**
+	 * @param defaultRetention
+	 *            The fraction of its intensity an emotion keeps per cycle,
+	 *            between 0 and 1, unless set otherwise with
+	 *            {@link #setRetention(String, double)}.
+	 */
+	public EmotionIntensities(double defaultRetention) {
+		checkFraction(defaultRetention);
+		this.defaultRetention = defaultRetention;
+	}
+
+	/**
+	 * @param emotion
+	 *            The name of an emotion.
+	 * @return The intensity of the emotion; 0 if it has never been set.
+	 */
+	public synchronized double get(String emotion) {
+		Integer i = this.index.get(emotion);
+		return i == null ? 0 : this.intensities[i];
+	}
+
+	/**
+	 * Sets the intensity of an emotion.
+	 *
+	 * @param emotion
+	 *            The name of an emotion.
+	 * @param intensity
+	 *            The new intensity; 0 removes the emotion from the belief
+	 *            base.
+	 */
+	public synchronized void set(String emotion, double intensity) {
+		int i = getIndex(emotion);
+		if (this.intensities[i] != intensity) {
+			this.intensities[i] = intensity;
+			markChanged(i);
+		}
+	}
+
+	/**
+	 * Removes an emotion, as retracting an emotion(Name, Intensity) fact
+	 * would: the intensity of the first emotion, in the order in which the
+	 * emotions were first set, that matches the name and intensity and is
+	 * not 0 is set to 0.
+	 *
+	 * @param emotion
+	 *            The name of the emotion; {@code null} matches any emotion.
+	 * @param intensity
+	 *            The intensity of the emotion; {@code null} matches any
+	 *            intensity.
+	 * @return The name of the emotion that was removed; {@code null} if no
+	 *         emotion matches.
+	 */
+	public synchronized String remove(String emotion, Double intensity) {
+		for (int i = 0; i < this.size; i++) {
+			if (this.intensities[i] != 0
+					&& (emotion == null || emotion.equals(this.names[i]))
+					&& (intensity == null || intensity == this.intensities[i])) {
+				this.intensities[i] = 0;
+				markChanged(i);
+				return this.names[i];
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Adds to the intensity of an emotion.
+	 *
+	 * @param emotion
+	 *            The name of an emotion.
+	 * @param delta
+	 *            The amount to add.
+	 */
+	public synchronized void add(String emotion, double delta) {
+		int i = getIndex(emotion);
+		if (delta != 0) {
+			this.intensities[i] += delta;
+			markChanged(i);
+		}
+	}
+
+	/**
+	 * Sets how fast an emotion decays.
+	 *
+	 * @param emotion
+	 *            The name of an emotion.
+	 * @param retention
+	 *            The fraction of its intensity the emotion keeps per cycle,
+	 *            between 0 and 1.
+	 */
+	public synchronized void setRetention(String emotion, double retention) {
+		checkFraction(retention);
+		this.retention[getIndex(emotion)] = retention;
+	}
+
+	/**
+	 * Decays all emotions by their retention in a single pass. Intensities
+	 * that become very small are set to 0.
+	 */
+	public synchronized void decay() {
+		for (int i = 0; i < this.size; i++) {
+			double intensity = this.intensities[i];
+			if (intensity == 0 || this.retention[i] == 1) {
+				continue;
+			}
+			intensity *= this.retention[i];
+			if (Math.abs(intensity) < THRESHOLD) {
+				intensity = 0;
+			}
+			this.intensities[i] = intensity;
+			markChanged(i);
+		}
+	}
+
+	/**
+	 * @return The number of emotions that have been set.
+	 */
+	public synchronized int size() {
+		return this.size;
+	}
+
+	/**
+	 * @return {@code true} if intensities have changed since the last sync.
+	 */
+	public synchronized boolean isPending() {
+		return this.pending > 0;
+	}
+
+	/**
+	 * Replaces the emotion/2 facts of all emotions that have changed since
+	 * the previous sync in a single Prolog call.
+	 *
+	 * @param database
+	 *            The emotion base.
+	 * @throws KRDatabaseException
+	 */
+	public synchronized void sync(SWIPrologDatabase database)
+			throws KRDatabaseException {
+		if (this.pending == 0) {
+			return;
+		}
+		List<Term> removed = new ArrayList<>(this.pending);
+		List<Term> current = new ArrayList<>(this.pending);
+		for (int i = 0; i < this.size; i++) {
+			if (this.changed[i]) {
+				Atom name = new Atom(this.names[i]);
+				removed.add(name);
+				if (this.intensities[i] != 0) {
+					current.add(JPLUtils.createCompound("-", name,
+							new jpl.Float(this.intensities[i])));
+				}
+			}
+		}
+		Variable name = new Variable("Name");
+		Variable intensity = new Variable("Intensity");
+		Term retract = JPLUtils.createCompound("forall", JPLUtils
+				.createCompound("member", name, JPLUtils.termsToList(removed)),
+				JPLUtils.createCompound("retractall", JPLUtils.createCompound(
+						":", database.getJPLName(), JPLUtils.createCompound(
+								"emotion", name, new Variable("_")))));
+		Term assertz = JPLUtils.createCompound("forall", JPLUtils
+				.createCompound("member",
+						JPLUtils.createCompound("-", name, intensity),
+						JPLUtils.termsToList(current)), JPLUtils
+				.createCompound("assertz", JPLUtils.createCompound(":",
+						database.getJPLName(), JPLUtils.createCompound(
+								"emotion", name, intensity))));
+		try {
+			PrologCalls.rawquery(JPLUtils.createCompound(",", retract,
+					assertz));
+		} catch (KRQueryFailedException e) {
+			throw new KRDatabaseException("unable to update " + removed.size()
+					+ " emotions in " + database.getName(), e);
+		}
+		Arrays.fill(this.changed, 0, this.size, false);
+		this.pending = 0;
+	}
+
+	private void markChanged(int i) {
+		if (!this.changed[i]) {
+			this.changed[i] = true;
+			this.pending++;
+		}
+	}
+
+	private int getIndex(String emotion) {
+		Integer i = this.index.get(emotion);
+		if (i != null) {
+			return i;
+		}
+		if (this.size == this.names.length) {
+			int capacity = this.size * 2;
+			this.names = Arrays.copyOf(this.names, capacity);
+			this.intensities = Arrays.copyOf(this.intensities, capacity);
+			this.retention = Arrays.copyOf(this.retention, capacity);
+			this.changed = Arrays.copyOf(this.changed, capacity);
+		}
+		this.names[this.size] = emotion;
+		this.retention[this.size] = this.defaultRetention;
+		this.index.put(emotion, this.size);
+		return this.size++;
+	}
+
+	private static void checkFraction(double retention) {
+		if (retention < 0 || retention > 1) {
+			throw new IllegalArgumentException("retention " + retention
+					+ " is not between 0 and 1");
+		}
+	}
+}
@@ -0,0 +1,912 @@
+/**
+ * Knowledge Representation Tools. Copyright (C) 2014 Koen Hindriks.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package swiPrologMentalState;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import jpl.Atom;
+import jpl.Compound;
+import jpl.Term;
+import jpl.Variable;
+import krTools.database.Database;
+import krTools.errors.exceptions.KRDatabaseException;
+import krTools.errors.exceptions.KRQueryFailedException;
+import krTools.language.DatabaseFormula;
+import krTools.language.Query;
+import krTools.language.Substitution;
+import krTools.language.Update;
+import mentalState.BASETYPE;
+import swiprolog.language.JPLUtils;
+import swiprolog.language.PrologDBFormula;
+import swiprolog.language.PrologQuery;
+import swiprolog.language.PrologSubstitution;
+import swiprolog.parser.PrologOperators;
+
+/**
+ * <p>
+ * A database of the {@link JavaMentalState}: facts and clauses of the SWI
+ * Prolog language, stored and evaluated in Java. Facts are kept in hash
+ * tables per predicate, indexed by their first argument. Queries are
+ * evaluated by a simple depth-first resolution engine that supports
+ * conjunction, disjunction, if-then-else, negation as failure, unification,
+ * term (in)equality, arithmetic comparison and is/2. Other built-in
+ * predicates are not supported; a query that calls one fails with a
+ * {@link KRQueryFailedException}. So does a query whose proof nests more than
+ * a few thousand choice points or calls of user predicates.
+ * </p>
+ * <p>
+ * Unlike Prolog, a database stores a fact at most once. Every method is
+ * synchronized on the database, so databases of different agents can be used
+ * by different threads in parallel.
+ * </p>
+ */
+public class JavaDatabase implements Database {
+	/**
+	 * Maximum depth of a proof, i.e. of nested choice points and calls of
+	 * user predicates. Deterministic goals do not add to the depth. Low enough
+	 * for a proof to fit on the stack of a thread with the default size.
+	 */
+	private static final int MAX_DEPTH = 2000;
+	/**
+	 * Used to give variables of clauses unique names when they are used.
+	 */
+	private static final AtomicLong renaming = new AtomicLong();
+	/**
+	 * Separates the name of a renamed variable from its number; cannot occur
+	 * in the name of a Prolog variable.
+	 */
+	private static final String RENAMED = "#";
+	private static final AtomicLong counter = new AtomicLong();
+
+	/**
+	 * The facts of a single predicate.
+	 */
+	private static class FactTable {
+		/**
+		 * Facts by the string representation of their (ground) first
+		 * argument, then by their own string representation.
+		 */
+		private final Map<String, Map<String, Term>> indexed = new HashMap<>();
+		/**
+		 * Facts without arguments or with a non-ground first argument.
+		 */
+		private final Map<String, Term> unindexed = new LinkedHashMap<>();
+
+		private Map<String, Term> getBucket(Term fact, boolean create) {
+			if (fact.arity() == 0 || !isGround(fact.arg(1))) {
+				return this.unindexed;
+			}
+			String first = fact.arg(1).toString();
+			Map<String, Term> bucket = this.indexed.get(first);
+			if (bucket == null && create) {
+				bucket = new LinkedHashMap<>();
+				this.indexed.put(first, bucket);
+			}
+			return bucket;
+		}
+
+		private boolean add(Term fact) {
+			Map<String, Term> bucket = getBucket(fact, true);
+			return bucket.put(fact.toString(), fact) == null;
+		}
+
+		private boolean remove(Term fact) {
+			Map<String, Term> bucket = getBucket(fact, false);
+			if (bucket == null || bucket.remove(fact.toString()) == null) {
+				return false;
+			}
+			if (bucket.isEmpty() && bucket != this.unindexed) {
+				this.indexed.remove(fact.arg(1).toString());
+			}
+			return true;
+		}
+
+		/**
+		 * @param first
+		 *            The ground first argument of the goal, or {@code null}.
+		 * @return The facts that may unify with the goal.
+		 */
+		private void addCandidates(Term first, List<Term> candidates) {
+			if (first == null) {
+				for (Map<String, Term> bucket : this.indexed.values()) {
+					candidates.addAll(bucket.values());
+				}
+			} else {
+				Map<String, Term> bucket = this.indexed.get(first.toString());
+				if (bucket != null) {
+					candidates.addAll(bucket.values());
+				}
+			}
+			candidates.addAll(this.unindexed.values());
+		}
+
+		private boolean isEmpty() {
+			return this.indexed.isEmpty() && this.unindexed.isEmpty();
+		}
+	}
+
+	/**
+	 * Receives the solutions of a goal.
+	 */
+	private interface Solutions {
+		/**
+		 * @param bindings
+		 *            The bindings of the solution; only valid during the
+		 *            call, as they are undone on backtracking.
+		 * @param depth
+		 *            The depth of the proof of the solution.
+		 * @return {@code true} if more solutions are wanted.
+		 */
+		boolean found(Bindings bindings, int depth);
+	}
+
+	/**
+	 * The bindings of the variables during a proof. Every binding is recorded
+	 * on a trail, so backtracking undoes bindings in place instead of every
+	 * unification copying all bindings.
+	 */
+	private static class Bindings {
+		private final Map<String, Term> values;
+		private final List<String> trail = new ArrayList<>();
+
+		private Bindings(Map<String, Term> values) {
+			this.values = values;
+		}
+
+		/**
+		 * @return A mark to undo later bindings with {@link #undo(int)}.
+		 */
+		private int mark() {
+			return this.trail.size();
+		}
+
+		private void bind(String variable, Term value) {
+			this.values.put(variable, value);
+			this.trail.add(variable);
+		}
+
+		/**
+		 * Removes all bindings made after a mark.
+		 */
+		private void undo(int mark) {
+			for (int i = this.trail.size() - 1; i >= mark; i--) {
+				this.values.remove(this.trail.remove(i));
+			}
+		}
+	}
+
+	/**
+	 * An immutable list of goals that remain to be proven.
+	 */
+	private static class Goals {
+		private final Term goal;
+		private final Goals rest;
+
+		private Goals(Term goal, Goals rest) {
+			this.goal = goal;
+			this.rest = rest;
+		}
+	}
+
+	/**
+	 * Thrown if a query cannot be evaluated.
+	 */
+	private static class EvaluationException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		private EvaluationException(String message) {
+			super(message);
+		}
+	}
+
+	private final JavaMentalState state;
+	private final BASETYPE type;
+	private final String owner;
+	private final String name;
+	private final Map<String, FactTable> facts = new HashMap<>();
+	/**
+	 * Clauses head :- body by the signature of their head.
+	 */
+	private final Map<String, Map<String, Term>> rules = new HashMap<>();
+	/**
+	 * Databases whose facts are visible in this database, e.g. the percept
+	 * base and mailbox of a belief base.
+	 */
+	private final List<JavaDatabase> imports = new CopyOnWriteArrayList<>();
+
+	/**
+	 * @param state
+	 *            The mental state that created this database.
+	 * @param type
+	 *            The type of this database.
+	 * @param owner
+	 *            The name of the agent that owns this database.
+	 */
+	public JavaDatabase(JavaMentalState state, BASETYPE type, String owner) {
+		this.state = state;
+		this.type = type;
+		this.owner = owner;
+		this.name = type.name().toLowerCase() + "_" + owner + "_"
+				+ counter.incrementAndGet();
+	}
+
+	@Override
+	public String getName() {
+		return this.name;
+	}
+
+	public BASETYPE getType() {
+		return this.type;
+	}
+
+	public String getOwner() {
+		return this.owner;
+	}
+
+	/**
+	 * Makes the facts of another database visible in this database.
+	 *
+	 * @param database
+	 *            The database to import.
+	 */
+	public void addImport(JavaDatabase database) {
+		this.imports.add(database);
+	}
+
+	@Override
+	public Set<Substitution> query(Query query) throws KRQueryFailedException {
+		long start = startTiming();
+		Term goal = ((PrologQuery) query).getTerm();
+		Set<String> variables = new LinkedHashSet<>();
+		getVariables(goal, variables);
+		Set<Substitution> result = new LinkedHashSet<>();
+		for (Map<String, Term> bindings : solve(goal)) {
+			Map<String, Term> answer = new HashMap<>();
+			for (String variable : variables) {
+				answer.put(variable, resolve(new Variable(variable), bindings));
+			}
+			result.add(new PrologSubstitution(answer));
+		}
+		recordTime("query", start);
+		return result;
+	}
+
+	/**
+	 * Finds all solutions of a goal.
+	 *
+	 * @param goal
+	 *            A goal.
+	 * @return The bindings of every solution; apply them to a term with
+	 *         {@link #resolve(Term, Map)}.
+	 * @throws KRQueryFailedException
+	 *             If the goal uses unsupported built-in predicates, or is too
+	 *             deep.
+	 */
+	public synchronized List<Map<String, Term>> solve(Term goal)
+			throws KRQueryFailedException {
+		final List<Map<String, Term>> solutions = new ArrayList<>();
+		try {
+			solve(new Goals(goal, null), new Bindings(
+					new HashMap<String, Term>()), 0, new Solutions() {
+				@Override
+				public boolean found(Bindings bindings, int depth) {
+					solutions.add(new HashMap<>(bindings.values));
+					return true;
+				}
+			});
+		} catch (EvaluationException e) {
+			throw new KRQueryFailedException("query " + goal + " on "
+					+ this.name + " failed: " + e.getMessage(), e);
+		} catch (StackOverflowError e) {
+			throw new KRQueryFailedException("query " + goal + " on "
+					+ this.name + " failed: proof too deep", e);
+		}
+		return solutions;
+	}
+
+	@Override
+	public void insert(Update update) throws KRDatabaseException {
+		for (DatabaseFormula formula : update.getDeleteList()) {
+			delete(formula);
+		}
+		for (DatabaseFormula formula : update.getAddList()) {
+			insert(formula);
+		}
+	}
+
+	@Override
+	public void insert(DatabaseFormula formula) throws KRDatabaseException {
+		insert(((PrologDBFormula) formula).getTerm());
+	}
+
+	@Override
+	public void delete(Update update) throws KRDatabaseException {
+		for (DatabaseFormula formula : update.getAddList()) {
+			delete(formula);
+		}
+		for (DatabaseFormula formula : update.getDeleteList()) {
+			insert(formula);
+		}
+	}
+
+	@Override
+	public void delete(DatabaseFormula formula) throws KRDatabaseException {
+		delete(((PrologDBFormula) formula).getTerm());
+	}
+
+	/**
+	 * Adds a fact or clause.
+	 *
+	 * @param term
+	 *            The fact or clause.
+	 */
+	public synchronized void insert(Term term) {
+		long start = startTiming();
+		if (isClause(term)) {
+			String signature = getSignature(term.arg(1));
+			Map<String, Term> clauses = this.rules.get(signature);
+			if (clauses == null) {
+				clauses = new LinkedHashMap<>();
+				this.rules.put(signature, clauses);
+			}
+			clauses.put(term.toString(), term);
+		} else {
+			String signature = getSignature(term);
+			FactTable table = this.facts.get(signature);
+			if (table == null) {
+				table = new FactTable();
+				this.facts.put(signature, table);
+			}
+			table.add(term);
+		}
+		recordTime("insert", start);
+	}
+
+	/**
+	 * Removes a fact or clause.
+	 *
+	 * @param term
+	 *            The fact or clause.
+	 */
+	public synchronized void delete(Term term) {
+		long start = startTiming();
+		if (isClause(term)) {
+			String signature = getSignature(term.arg(1));
+			Map<String, Term> clauses = this.rules.get(signature);
+			if (clauses != null && clauses.remove(term.toString()) != null
+					&& clauses.isEmpty()) {
+				this.rules.remove(signature);
+			}
+		} else {
+			String signature = getSignature(term);
+			FactTable table = this.facts.get(signature);
+			if (table != null && table.remove(term) && table.isEmpty()) {
+				this.facts.remove(signature);
+			}
+		}
+		recordTime("delete", start);
+	}
+
+	@Override
+	public synchronized void destroy() {
+		this.facts.clear();
+		this.rules.clear();
+		this.imports.clear();
+	}
+
+	/**
+	 * Collects the facts of a predicate in this database that may unify with
+	 * a goal whose first argument is the given ground term, or any first
+	 * argument if {@code null}.
+	 */
+	private synchronized void addFacts(String signature, Term first,
+			List<Term> candidates) {
+		FactTable table = this.facts.get(signature);
+		if (table != null) {
+			table.addCandidates(first, candidates);
+		}
+	}
+
+	/**
+	 * Proves a list of goals. Deterministic goals are proven in a loop, only
+	 * goals that can have more than one solution recurse. The bindings are the
+	 * same when this method returns as when it was called.
+	 *
+	 * @return {@code false} if no more solutions are wanted.
+	 */
+	private boolean solve(Goals goals, Bindings bindings, int depth,
+			Solutions solutions) {
+		if (depth > MAX_DEPTH) {
+			throw new EvaluationException("maximum proof depth of "
+					+ MAX_DEPTH + " exceeded");
+		}
+		int mark = bindings.mark();
+		try {
+			while (goals != null) {
+				Term goal = deref(goals.goal, bindings.values);
+				Goals rest = goals.rest;
+				if (goal.isVariable()) {
+					throw new EvaluationException("goal " + goals.goal
+							+ " is not instantiated");
+				}
+				String signature = getSignature(goal);
+				switch (signature) {
+				case "true/0":
+					break;
+				case "fail/0":
+				case "false/0":
+					return true;
+				case ",/2":
+					rest = new Goals(goal.arg(1), new Goals(goal.arg(2), rest));
+					break;
+				case ";/2":
+					Term left = deref(goal.arg(1), bindings.values);
+					if (getSignature(left).equals("->/2")) {
+						return solveIfThenElse(left.arg(1), left.arg(2),
+								goal.arg(2), rest, bindings, depth, solutions);
+					}
+					return solve(new Goals(goal.arg(1), rest), bindings,
+							depth + 1, solutions)
+							&& solve(new Goals(goal.arg(2), rest), bindings,
+									depth + 1, solutions);
+				case "->/2":
+					return solveIfThenElse(goal.arg(1), goal.arg(2), new Atom(
+							"fail"), rest, bindings, depth, solutions);
+				case "not/1":
+				case "\\+/1":
+					if (isProvable(goal.arg(1), bindings, depth)) {
+						return true;
+					}
+					break;
+				case "=/2":
+					if (!unify(goal.arg(1), goal.arg(2), bindings)) {
+						return true;
+					}
+					break;
+				case "\\=/2":
+					int before = bindings.mark();
+					boolean unifies = unify(goal.arg(1), goal.arg(2), bindings);
+					bindings.undo(before);
+					if (unifies) {
+						return true;
+					}
+					break;
+				case "==/2":
+					if (!identical(resolve(goal.arg(1), bindings.values),
+							resolve(goal.arg(2), bindings.values))) {
+						return true;
+					}
+					break;
+				case "\\==/2":
+					if (identical(resolve(goal.arg(1), bindings.values),
+							resolve(goal.arg(2), bindings.values))) {
+						return true;
+					}
+					break;
+				case "</2":
+				case ">/2":
+				case "=</2":
+				case ">=/2":
+				case "=:=/2":
+				case "=\\=/2":
+					if (!compare(goal.name(),
+							evaluate(goal.arg(1), bindings.values),
+							evaluate(goal.arg(2), bindings.values))) {
+						return true;
+					}
+					break;
+				case "is/2":
+					Number value = evaluate(goal.arg(2), bindings.values);
+					Term result = (value instanceof Long) ? JPLUtils
+							.createIntegerNumber(value.longValue())
+							: new jpl.Float(value.doubleValue());
+					if (!unify(goal.arg(1), result, bindings)) {
+						return true;
+					}
+					break;
+				default:
+					return solveUserPredicate(signature, goal, rest, bindings,
+							depth, solutions);
+				}
+				goals = rest;
+			}
+			return solutions.found(bindings, depth);
+		} finally {
+			bindings.undo(mark);
+		}
+	}
+
+	/**
+	 * Proves (Condition -> Then ; Else) followed by the remaining goals: only
+	 * the first solution of the condition is used.
+	 */
+	private boolean solveIfThenElse(Term condition, final Term then,
+			Term otherwise, final Goals rest, final Bindings bindings,
+			final int depth, final Solutions solutions) {
+		final boolean[] proven = { false };
+		final boolean[] more = { true };
+		solve(new Goals(condition, null), bindings, depth + 1,
+				new Solutions() {
+					@Override
+					public boolean found(Bindings first, int reached) {
+						proven[0] = true;
+						more[0] = solve(new Goals(then, rest), first,
+								reached + 1, solutions);
+						return false;
+					}
+				});
+		if (proven[0]) {
+			return more[0];
+		}
+		return solve(new Goals(otherwise, rest), bindings, depth + 1,
+				solutions);
+	}
+
+	/**
+	 * @return {@code true} if the goal has a solution; the bindings are not
+	 *         changed.
+	 */
+	private boolean isProvable(Term goal, Bindings bindings, int depth) {
+		final boolean[] proven = { false };
+		solve(new Goals(goal, null), bindings, depth + 1, new Solutions() {
+			@Override
+			public boolean found(Bindings solution, int reached) {
+				proven[0] = true;
+				return false;
+			}
+		});
+		return proven[0];
+	}
+
+	/**
+	 * Proves a goal by the facts of this database and its imports, and by
+	 * the clauses of this database.
+	 */
+	private boolean solveUserPredicate(String signature, Term goal,
+			Goals rest, Bindings bindings, int depth, Solutions solutions) {
+		if (PrologOperators.prologBuiltin(signature)) {
+			throw new EvaluationException("built-in predicate " + signature
+					+ " is not supported");
+		}
+		Term first = null;
+		if (goal.arity() > 0) {
+			Term argument = resolve(goal.arg(1), bindings.values);
+			if (isGround(argument)) {
+				first = argument;
+			}
+		}
+		List<Term> candidates = new ArrayList<>();
+		addFacts(signature, first, candidates);
+		for (JavaDatabase imported : this.imports) {
+			imported.addFacts(signature, first, candidates);
+		}
+		int mark = bindings.mark();
+		for (Term fact : candidates) {
+			boolean more = !unify(goal, rename(fact), bindings)
+					|| solve(rest, bindings, depth + 1, solutions);
+			bindings.undo(mark);
+			if (!more) {
+				return false;
+			}
+		}
+		Map<String, Term> clauses = this.rules.get(signature);
+		if (clauses != null) {
+			for (Term clause : new ArrayList<>(clauses.values())) {
+				Term renamed = rename(clause);
+				boolean more = !unify(goal, renamed.arg(1), bindings)
+						|| solve(new Goals(renamed.arg(2), rest), bindings,
+								depth + 1, solutions);
+				bindings.undo(mark);
+				if (!more) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Unifies two terms.
+	 *
+	 * @return The extended bindings, or {@code null} if the terms do not
+	 *         unify. The given bindings are not modified.
+	 */
+	static Map<String, Term> unify(Term a, Term b,
+			Map<String, Term> bindings) {
+		Bindings extended = new Bindings(new HashMap<>(bindings));
+		return unify(a, b, extended) ? extended.values : null;
+	}
+
+	/**
+	 * Unifies two terms, adding bindings to the trail.
+	 *
+	 * @return {@code true} if the terms unify. If not, some bindings may
+	 *         have been added; the caller should undo them.
+	 */
+	private static boolean unify(Term a, Term b, Bindings bindings) {
+		a = deref(a, bindings.values);
+		b = deref(b, bindings.values);
+		if (a.isVariable() || b.isVariable()) {
+			if (a.isVariable() && a.name().equals("_") || b.isVariable()
+					&& b.name().equals("_")) {
+				return true;
+			}
+			if (a.isVariable() && b.isVariable() && a.name().equals(b.name())) {
+				return true;
+			}
+			if (a.isVariable()) {
+				bindings.bind(a.name(), b);
+			} else {
+				bindings.bind(b.name(), a);
+			}
+			return true;
+		} else if (a.isInteger() || b.isInteger()) {
+			return a.isInteger() && b.isInteger()
+					&& a.longValue() == b.longValue();
+		} else if (a.isFloat() || b.isFloat()) {
+			return a.isFloat() && b.isFloat()
+					&& a.doubleValue() == b.doubleValue();
+		} else if (!a.name().equals(b.name()) || a.arity() != b.arity()) {
+			return false;
+		}
+		for (int i = 1; i <= a.arity(); i++) {
+			if (!unify(a.arg(i), b.arg(i), bindings)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static Term deref(Term term, Map<String, Term> bindings) {
+		while (term.isVariable()) {
+			Term value = bindings.get(term.name());
+			if (value == null) {
+				return term;
+			}
+			term = value;
+		}
+		return term;
+	}
+
+	/**
+	 * Applies bindings to a term.
+	 *
+	 * @param term
+	 *            A term.
+	 * @param bindings
+	 *            The bindings of a solution.
+	 * @return The term with all bound variables replaced by their values.
+	 */
+	public static Term resolve(Term term, Map<String, Term> bindings) {
+		term = deref(term, bindings);
+		if (term.isVariable() || term.isInteger() || term.isFloat()
+				|| term.arity() == 0) {
+			return term;
+		}
+		Term[] args = new Term[term.arity()];
+		for (int i = 0; i < args.length; i++) {
+			args[i] = resolve(term.arg(i + 1), bindings);
+		}
+		return new Compound(term.name(), args);
+	}
+
+	/**
+	 * Gives the variables of a clause or non-ground fact fresh names. The
+	 * names end with {@link #RENAMED} and a number, so they cannot be equal
+	 * to the name of a variable in a query.
+	 */
+	private static Term rename(Term term) {
+		if (isGround(term)) {
+			return term;
+		}
+		return rename(term, RENAMED + renaming.incrementAndGet());
+	}
+
+	private static Term rename(Term term, String suffix) {
+		if (term.isVariable()) {
+			return term.name().equals("_") ? term : new Variable(term.name()
+					+ suffix);
+		} else if (term.isInteger() || term.isFloat() || term.arity() == 0) {
+			return term;
+		}
+		Term[] args = new Term[term.arity()];
+		for (int i = 0; i < args.length; i++) {
+			args[i] = rename(term.arg(i + 1), suffix);
+		}
+		return new Compound(term.name(), args);
+	}
+
+	private static boolean identical(Term a, Term b) {
+		if (a.isVariable() || b.isVariable()) {
+			return a.isVariable() && b.isVariable()
+					&& a.name().equals(b.name()) && !a.name().equals("_");
+		}
+		if (a.isInteger() || b.isInteger()) {
+			return a.isInteger() && b.isInteger()
+					&& a.longValue() == b.longValue();
+		} else if (a.isFloat() || b.isFloat()) {
+			return a.isFloat() && b.isFloat()
+					&& a.doubleValue() == b.doubleValue();
+		} else if (!a.name().equals(b.name()) || a.arity() != b.arity()) {
+			return false;
+		}
+		for (int i = 1; i <= a.arity(); i++) {
+			if (!identical(a.arg(i), b.arg(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Evaluates an arithmetic expression.
+	 *
+	 * @return A {@link Long} or {@link Double}.
+	 */
+	private static Number evaluate(Term term, Map<String, Term> bindings) {
+		term = deref(term, bindings);
+		if (term.isInteger()) {
+			return term.longValue();
+		} else if (term.isFloat()) {
+			return term.doubleValue();
+		} else if (term.isVariable()) {
+			throw new EvaluationException("arguments are not sufficiently "
+					+ "instantiated");
+		}
+		if (term.arity() == 1 && term.name().equals("-")) {
+			Number value = evaluate(term.arg(1), bindings);
+			return value instanceof Long ? (Number) (-value.longValue())
+					: (Number) (-value.doubleValue());
+		} else if (term.arity() == 1 && term.name().equals("abs")) {
+			Number value = evaluate(term.arg(1), bindings);
+			return value instanceof Long ? (Number) Math.abs(value
+					.longValue()) : (Number) Math.abs(value.doubleValue());
+		} else if (term.arity() != 2) {
+			throw new EvaluationException("arithmetic function "
+					+ getSignature(term) + " is not supported");
+		}
+		Number x = evaluate(term.arg(1), bindings);
+		Number y = evaluate(term.arg(2), bindings);
+		boolean integers = x instanceof Long && y instanceof Long;
+		switch (term.name()) {
+		case "+":
+			return integers ? (Number) (x.longValue() + y.longValue())
+					: (Number) (x.doubleValue() + y.doubleValue());
+		case "-":
+			return integers ? (Number) (x.longValue() - y.longValue())
+					: (Number) (x.doubleValue() - y.doubleValue());
+		case "*":
+			return integers ? (Number) (x.longValue() * y.longValue())
+					: (Number) (x.doubleValue() * y.doubleValue());
+		case "/":
+			if (integers && y.longValue() != 0
+					&& x.longValue() % y.longValue() == 0) {
+				return x.longValue() / y.longValue();
+			}
+			return x.doubleValue() / y.doubleValue();
+		case "//":
+			if (!integers) {
+				throw new EvaluationException("// requires integers");
+			} else if (y.longValue() == 0) {
+				throw new EvaluationException("division by zero");
+			}
+			return x.longValue() / y.longValue();
+		case "mod":
+			if (!integers) {
+				throw new EvaluationException("mod requires integers");
+			} else if (y.longValue() == 0) {
+				throw new EvaluationException("division by zero");
+			}
+			return ((x.longValue() % y.longValue()) + y.longValue())
+					% y.longValue();
+		case "min":
+			return x.doubleValue() <= y.doubleValue() ? x : y;
+		case "max":
+			return x.doubleValue() >= y.doubleValue() ? x : y;
+		default:
+			throw new EvaluationException("arithmetic function "
+					+ getSignature(term) + " is not supported");
+		}
+	}
+
+	private static boolean compare(String operator, Number x, Number y) {
+		int comparison = x instanceof Long && y instanceof Long ? Long.compare(
+				x.longValue(), y.longValue()) : Double.compare(x.doubleValue(),
+				y.doubleValue());
+		switch (operator) {
+		case "<":
+			return comparison < 0;
+		case ">":
+			return comparison > 0;
+		case "=<":
+			return comparison <= 0;
+		case ">=":
+			return comparison >= 0;
+		case "=:=":
+			return comparison == 0;
+		default:
+			return comparison != 0;
+		}
+	}
+
+	private static boolean isClause(Term term) {
+		return !term.isVariable() && term.arity() == 2
+				&& term.name().equals(":-");
+	}
+
+	private static String getSignature(Term term) {
+		if (term.isInteger() || term.isFloat() || term.isVariable()) {
+			return term.toString() + "/0";
+		}
+		return term.name() + "/" + term.arity();
+	}
+
+	static boolean isGround(Term term) {
+		if (term.isVariable()) {
+			return false;
+		} else if (term.isInteger() || term.isFloat()) {
+			return true;
+		}
+		for (int i = 1; i <= term.arity(); i++) {
+			if (!isGround(term.arg(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	static void getVariables(Term term, Collection<String> variables) {
+		if (term.isVariable()) {
+			if (!term.name().startsWith("_")) {
+				variables.add(term.name());
+			}
+		} else if (!term.isInteger() && !term.isFloat()) {
+			for (int i = 1; i <= term.arity(); i++) {
+				getVariables(term.arg(i), variables);
+			}
+		}
+	}
+
+	/**
+	 * @return The current time if operations are timed, or 0 if the metrics
+	 *         of the mental state are disabled.
+	 */
+	private long startTiming() {
+		return this.state.getMetrics().isEnabled() ? System.nanoTime() : 0;
+	}
+
+	/**
+	 * Reports the time an operation has taken since {@link #startTiming()},
+	 * unless operations are not timed.
+	 */
+	private void recordTime(String operation, long start) {
+		if (start != 0) {
+			this.state.getMetrics().record(operation, this.type, this.owner,
+					System.nanoTime() - start);
+		}
+	}
+}
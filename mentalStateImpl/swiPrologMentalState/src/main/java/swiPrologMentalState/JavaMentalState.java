@@ -0,0 +1,349 @@
+/**
+ * Knowledge Representation Tools. Copyright (C) 2014 Koen Hindriks.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package swiPrologMentalState;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import jpl.Atom;
+import jpl.Variable;
+import krTools.KRInterface;
+import krTools.database.Database;
+import krTools.errors.exceptions.KRDatabaseException;
+import krTools.errors.exceptions.KRInitFailedException;
+import krTools.errors.exceptions.KRQueryFailedException;
+import krTools.language.DatabaseFormula;
+import krTools.language.Term;
+import krTools.language.Update;
+import languageTools.program.agent.AgentId;
+import languageTools.program.agent.AgentProgram;
+import languageTools.program.agent.actions.UserSpecAction;
+import languageTools.program.agent.msg.Message;
+import mentalState.BASETYPE;
+import mentalState.DependencyGraph;
+import mentalState.MentalState;
+import mentalState.MentalStateMetrics;
+import mentalState.NoMetrics;
+import swiprolog.SWIPrologInterface;
+import swiprolog.language.JPLUtils;
+import swiprolog.language.PrologDBFormula;
+import swiprolog.language.PrologUpdate;
+import eis.iilang.Action;
+import eis.iilang.Parameter;
+import eis.iilang.Percept;
+
+/**
+ * <p>
+ * A {@link MentalState} for agents that are written in SWI Prolog but only
+ * use ground facts, rules and simple queries, see {@link JavaDatabase} for
+ * the supported subset. All databases are stored and queried in Java, so no
+ * native Prolog runtime is involved and the databases of different agents
+ * can be queried in parallel.
+ * </p>
+ * <p>
+ * As with the {@link SwiPrologMentalState}, the knowledge of an agent is
+ * copied into its belief and goal bases, and the percepts and messages of an
+ * agent are visible in its belief base. Conversions between terms, EIS
+ * parameters and messages are the same as those of the
+ * {@link SwiPrologMentalState}, as both use the SWI Prolog language.
+ * </p>
+ * <p>
+ * This mental state is registered in the {@link mentalstatefactory
+ * MentalStateFactory} as the {@link #VARIANT} variant of the SWI Prolog
+ * interface.
+ * </p>
+ */
+public class JavaMentalState implements MentalState {
+	/**
+	 * The name of this implementation in the mental state factory.
+	 */
+	public static final String VARIANT = "java";
+
+	/**
+	 * Handles all conversions, which do not involve Prolog.
+	 */
+	private final SwiPrologMentalState language = new SwiPrologMentalState();
+	/**
+	 * The databases of each agent.
+	 */
+	private final Map<String, List<JavaDatabase>> databases = new HashMap<>();
+	/**
+	 * The knowledge of each agent.
+	 */
+	private final Map<String, Collection<DatabaseFormula>> knowledge = new HashMap<>();
+	private MentalStateMetrics metrics = NoMetrics.INSTANCE;
+
+	@Override
+	public Class<? extends KRInterface> getKRInterface() {
+		return SWIPrologInterface.class;
+	}
+
+	@Override
+	public Term convert(Parameter parameter) {
+		return this.language.convert(parameter);
+	}
+
+	@Override
+	public Parameter convert(Term term) {
+		return this.language.convert(term);
+	}
+
+	@Override
+	public Term makeList(List<Term> termList) {
+		return this.language.makeList(termList);
+	}
+
+	@Override
+	public Action convert(UserSpecAction action) {
+		return this.language.convert(action);
+	}
+
+	@Override
+	public Update filterMailUpdates(Update update, boolean selectMails) {
+		return this.language.filterMailUpdates(update, selectMails);
+	}
+
+	@Override
+	public Database makeDatabase(BASETYPE type,
+			Collection<DatabaseFormula> content, AgentProgram agent)
+			throws KRInitFailedException, KRDatabaseException,
+			KRQueryFailedException {
+		if (agent == null) {
+			throw new NullPointerException("agent=null");
+		}
+		String name = agent.getSourceFile().getName();
+		long start = startTiming();
+		JavaDatabase database;
+		synchronized (this.databases) {
+			if (type != BASETYPE.GOALBASE && getDatabase(name, type) != null) {
+				throw new KRInitFailedException("attempt to add second " + type);
+			}
+			database = new JavaDatabase(this, type, name);
+			switch (type) {
+			case KNOWLEDGEBASE:
+				// Knowledge is copied into belief and goal bases.
+				this.knowledge.put(name, content);
+				break;
+			case BELIEFBASE:
+				add(database, content);
+				add(database, this.knowledge.get(name));
+				importInto(database, getDatabase(name, BASETYPE.PERCEPTBASE));
+				importInto(database, getDatabase(name, BASETYPE.MAILBOX));
+				break;
+			case GOALBASE:
+				add(database, content);
+				add(database, this.knowledge.get(name));
+				break;
+			case MAILBOX:
+			case PERCEPTBASE:
+				// Initially empty.
+				importInto(getDatabase(name, BASETYPE.BELIEFBASE), database);
+				break;
+			default:
+				throw new KRInitFailedException("the Java mental state does "
+						+ "not support databases of type " + type);
+			}
+			List<JavaDatabase> list = this.databases.get(name);
+			if (list == null) {
+				list = new ArrayList<>();
+				this.databases.put(name, list);
+			}
+			list.add(database);
+		}
+		recordTime("makeDatabase", type, name, start);
+		return database;
+	}
+
+	/**
+	 * Returns a database of a particular type associated with a given agent;
+	 * for goal bases, the first one that was created.
+	 *
+	 * @param agent
+	 *            The name of an agent.
+	 * @param type
+	 *            The type that is requested.
+	 * @return The database, or {@code null} if no such database exists.
+	 */
+	public JavaDatabase getDatabase(String agent, BASETYPE type) {
+		synchronized (this.databases) {
+			List<JavaDatabase> list = this.databases.get(agent);
+			if (list != null) {
+				for (JavaDatabase database : list) {
+					if (database.getType() == type) {
+						return database;
+					}
+				}
+			}
+			return null;
+		}
+	}
+
+	@Override
+	public Collection<String> getReceiversOfMessage(Database database,
+			Message message) throws KRQueryFailedException {
+		JavaDatabase javadb = (JavaDatabase) database;
+		Variable recipient = new Variable("Recipient");
+		jpl.Term sent = JPLUtils.createCompound("sent", recipient,
+				((PrologDBFormula) message.getContent()).getTerm());
+		Set<String> names = new LinkedHashSet<>();
+		for (Map<String, jpl.Term> solution : javadb.solve(sent)) {
+			names.add(JavaDatabase.resolve(recipient, solution).toString());
+		}
+		return names;
+	}
+
+	@Override
+	public Set<DatabaseFormula> insert(Database database, Message message,
+			boolean received) throws KRDatabaseException {
+		JavaDatabase javadb = (JavaDatabase) database;
+		Set<DatabaseFormula> updates = new HashSet<>();
+		if (received) {
+			updates.add(insertMail(javadb, message, false, message.getSender()));
+		} else {
+			for (AgentId receiver : message.getReceivers()) {
+				updates.add(insertMail(javadb, message, true, receiver));
+			}
+		}
+		return updates;
+	}
+
+	@Override
+	public DatabaseFormula insert(Database database, Percept percept)
+			throws KRDatabaseException {
+		jpl.Term fact = JPLUtils.createCompound("percept",
+				this.language.perceptToTerm(percept));
+		((JavaDatabase) database).insert(fact);
+		return new PrologDBFormula(fact, null);
+	}
+
+	@Override
+	public DatabaseFormula delete(Database database, Percept percept)
+			throws KRDatabaseException {
+		jpl.Term fact = JPLUtils.createCompound("percept",
+				this.language.perceptToTerm(percept));
+		((JavaDatabase) database).delete(fact);
+		return new PrologDBFormula(fact, null);
+	}
+
+	@Override
+	public Set<DatabaseFormula> updateAgentFact(Database database,
+			boolean insert, AgentId id, boolean me) throws KRDatabaseException {
+		JavaDatabase javadb = (JavaDatabase) database;
+		Set<DatabaseFormula> updates = new HashSet<>();
+		updates.add(update(javadb, insert, "agent", id));
+		if (me) {
+			updates.add(update(javadb, insert, "me", id));
+		}
+		return updates;
+	}
+
+	@Override
+	public Set<DatabaseFormula> updateAgentFacts(Database database,
+			boolean insert, Collection<AgentId> ids) throws KRDatabaseException {
+		JavaDatabase javadb = (JavaDatabase) database;
+		Set<DatabaseFormula> updates = new HashSet<>();
+		for (AgentId id : ids) {
+			updates.add(update(javadb, insert, "agent", id));
+		}
+		return updates;
+	}
+
+	@Override
+	public Update convert(Message message, boolean isSent, AgentId receiver) {
+		return this.language.convert(message, isSent, receiver);
+	}
+
+	/**
+	 * @return The metrics that operations are reported to.
+	 */
+	public MentalStateMetrics getMetrics() {
+		return this.metrics;
+	}
+
+	@Override
+	public void setMetrics(MentalStateMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	@Override
+	public DependencyGraph<?> createDependencyGraph() {
+		return this.language.createDependencyGraph();
+	}
+
+	private DatabaseFormula insertMail(JavaDatabase database, Message message,
+			boolean sent, AgentId other) {
+		jpl.Term fact = ((PrologUpdate) this.language.convert(message, sent,
+				other)).getTerm();
+		database.insert(fact);
+		return new PrologDBFormula(fact, null);
+	}
+
+	private static DatabaseFormula update(JavaDatabase database,
+			boolean insert, String predicate, AgentId id) {
+		jpl.Term fact = JPLUtils.createCompound(predicate,
+				new Atom(id.getName()));
+		if (insert) {
+			database.insert(fact);
+		} else {
+			database.delete(fact);
+		}
+		return new PrologDBFormula(fact, null);
+	}
+
+	private static void add(JavaDatabase database,
+			Collection<DatabaseFormula> content) throws KRDatabaseException {
+		if (content != null) {
+			for (DatabaseFormula formula : content) {
+				database.insert(formula);
+			}
+		}
+	}
+
+	private static void importInto(JavaDatabase beliefBase,
+			JavaDatabase database) {
+		if (beliefBase != null && database != null) {
+			beliefBase.addImport(database);
+		}
+	}
+
+	/**
+	 * @return The current time if operations are timed, or 0 if the metrics
+	 *         are disabled.
+	 */
+	private long startTiming() {
+		return this.metrics.isEnabled() ? System.nanoTime() : 0;
+	}
+
+	/**
+	 * Reports the time an operation has taken since {@link #startTiming()},
+	 * unless operations are not timed.
+	 */
+	private void recordTime(String operation, BASETYPE type, String agent,
+			long start) {
+		if (start != 0) {
+			this.metrics.record(operation, type, agent, System.nanoTime()
+					- start);
+		}
+	}
+}
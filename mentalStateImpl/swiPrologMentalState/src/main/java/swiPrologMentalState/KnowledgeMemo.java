@@ -0,0 +1,227 @@
+/**
+ * Knowledge Representation Tools. Copyright (C) 2014 Koen Hindriks.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package swiPrologMentalState;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import jpl.Term;
+import krTools.language.DatabaseFormula;
+import krTools.language.Substitution;
+import swiprolog.language.PrologDBFormula;
+
+/**
+ * <p>
+ * Memoizes the results of queries that only depend on the knowledge base, see
+ * {@link SwiPrologMentalState#setKnowledgeMemoSize(int)}. All belief and goal
+ * bases with the same knowledge have the same answers to such queries, so a
+ * single memo is shared by all agents of a mental state that run a program
+ * instead of every agent evaluating (and caching) the same queries, see
+ * {@link SwiPrologMentalState#getKnowledgeMemo(Collection)}.
+ * </p>
+ * <p>
+ * A query is memoized if every predicate it depends on, directly or through
+ * the {@link SwiDependencyGraph} of the knowledge, is defined by the
+ * knowledge. As the knowledge is copied into every belief and goal base, an
+ * agent can still change a knowledge predicate, either in its initial beliefs
+ * or goals or by an update at runtime. Such a predicate is marked as
+ * tainted for all agents, which removes the queries that depend on it and
+ * stops them from being memoized again.
+ * </p>
+ */
+public class KnowledgeMemo {
+	/**
+	 * The memoized queries; bounded, least recently used first.
+	 */
+	private final QueryCache cache;
+	/**
+	 * The predicates defined by the knowledge.
+	 */
+	private final Set<String> knowledge = new HashSet<>();
+	/**
+	 * The normalized text of the clauses of the knowledge, with the number
+	 * of times each occurs.
+	 */
+	private final Map<String, Integer> clauses = new HashMap<>();
+	/**
+	 * The predicate of each clause of the knowledge, by normalized text.
+	 */
+	private final Map<String, String> heads = new HashMap<>();
+	/**
+	 * The knowledge predicates that have been changed by an agent.
+	 */
+	private final Set<String> tainted = new HashSet<>();
+
+	/**
+	 * @param maxEntries
+	 *            The maximum number of memoized queries.
+	 * @param clauses
+	 *            The clauses of the knowledge base.
+	 */
+	KnowledgeMemo(int maxEntries, Collection<DatabaseFormula> clauses) {
+		this.cache = new QueryCache(maxEntries, clauses,
+				Collections.<String> emptySet());
+		for (DatabaseFormula clause : clauses) {
+			Term term = ((PrologDBFormula) clause).getTerm();
+			String key = QueryCache.getKey(term, new HashMap<String, String>());
+			Integer count = this.clauses.get(key);
+			this.clauses.put(key, count == null ? 1 : count + 1);
+			this.heads.put(key, head(term));
+			this.knowledge.add(head(term));
+		}
+	}
+
+	/**
+	 * @param clauses
+	 *            The clauses of a knowledge base.
+	 * @return The canonical text of the clauses, which identifies the memo
+	 *         of the knowledge base.
+	 */
+	static String getKey(Collection<DatabaseFormula> clauses) {
+		StringBuilder key = new StringBuilder();
+		for (DatabaseFormula clause : clauses) {
+			key.append(CanonicalTerms.write(((PrologDBFormula) clause)
+					.getTerm()));
+			key.append('\n');
+		}
+		return key.toString();
+	}
+
+	/**
+	 * Looks up the results of a query.
+	 *
+	 * @param key
+	 *            The key of the query, see
+	 *            {@link QueryCache#getKey(Term, Map)}.
+	 * @param names
+	 *            The normalized names of the variables of the query.
+	 * @return The results, or {@code null} if they are not memoized.
+	 */
+	Set<Substitution> get(String key, Map<String, String> names) {
+		return this.cache.get(key, names);
+	}
+
+	/**
+	 * Memoizes the results of a query, if it only depends on the knowledge.
+	 *
+	 * @param key
+	 *            The key of the query.
+	 * @param names
+	 *            The normalized names of the variables of the query.
+	 * @param query
+	 *            The query.
+	 * @param results
+	 *            The results of the query.
+	 * @return {@code true} if the results have been memoized.
+	 */
+	synchronized boolean put(String key, Map<String, String> names,
+			Term query, Set<Substitution> results) {
+		Set<String> dependencies = this.cache.getDependencies(query);
+		if (dependencies == null || dependencies.isEmpty()
+				|| !this.knowledge.containsAll(dependencies)
+				|| !Collections.disjoint(this.tainted, dependencies)) {
+			return false;
+		}
+		return this.cache.put(key, names, query, results);
+	}
+
+	/**
+	 * Marks the predicate of a fact or clause that an agent has inserted or
+	 * deleted as changed, if it is defined by the knowledge.
+	 *
+	 * @param formula
+	 *            A fact or clause.
+	 */
+	synchronized void taint(Term formula) {
+		taint(head(formula));
+	}
+
+	private void taint(String signature) {
+		if (this.knowledge.contains(signature) && this.tainted.add(signature)) {
+			this.cache.invalidate(signature);
+		}
+	}
+
+	/**
+	 * @return The signature of the head of a clause.
+	 */
+	private static String head(Term clause) {
+		return QueryCache.signature(QueryCache.isRule(clause) ? clause.arg(1)
+				: clause);
+	}
+
+	/**
+	 * Taints the knowledge predicates whose clauses in a restored database
+	 * differ from those of the knowledge. Clauses are compared by their
+	 * normalized text, so a clause that is written differently by Prolog
+	 * taints its predicate as well.
+	 *
+	 * @param restored
+	 *            All clauses of the database.
+	 */
+	synchronized void taintChanged(Collection<Term> restored) {
+		Map<String, Integer> missing = new HashMap<>(this.clauses);
+		for (Term clause : restored) {
+			String key = QueryCache.getKey(clause, new HashMap<String, String>());
+			Integer count = missing.get(key);
+			if (count == null) {
+				taint(head(clause));
+			} else if (count == 1) {
+				missing.remove(key);
+			} else {
+				missing.put(key, count - 1);
+			}
+		}
+		for (String key : missing.keySet()) {
+			taint(this.heads.get(key));
+		}
+	}
+
+	/**
+	 * @return The number of queries answered from the memo.
+	 */
+	public long getHits() {
+		return this.cache.getHits();
+	}
+
+	/**
+	 * @return The number of queries that were not in the memo.
+	 */
+	public long getMisses() {
+		return this.cache.getMisses();
+	}
+
+	/**
+	 * @return The knowledge predicates that have been changed by an agent.
+	 */
+	public synchronized Set<String> getTainted() {
+		return new HashSet<>(this.tainted);
+	}
+
+	/**
+	 * @return The number of memoized queries.
+	 */
+	public int size() {
+		return this.cache.size();
+	}
+}
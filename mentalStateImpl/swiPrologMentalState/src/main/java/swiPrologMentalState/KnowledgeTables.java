@@ -0,0 +1,194 @@
+/**
+ * Knowledge Representation Tools. Copyright (C) 2014 Koen Hindriks.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package swiPrologMentalState;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import jpl.Atom;
+import jpl.Compound;
+import jpl.Term;
+import jpl.Variable;
+import krTools.errors.exceptions.KRException;
+import krTools.errors.exceptions.KRInitFailedException;
+import krTools.errors.exceptions.KRQueryFailedException;
+import krTools.language.DatabaseFormula;
+import mentalState.Node;
+import swiprolog.language.JPLUtils;
+import swiprolog.language.PrologDBFormula;
+import swiprolog.language.PrologTerm;
+
+/**
+ * <p>
+ * Selects the recursive predicates of a knowledge base that are tabled in
+ * belief and goal bases, see {@link SwiPrologMentalState#setTabling(boolean)}.
+ * A predicate is recursive if it depends on itself in the
+ * {@link SwiDependencyGraph} of the knowledge. Tabling such a predicate
+ * makes SWI Prolog keep its answers between queries, and also makes left
+ * recursive definitions, e.g. of a transitive relation, terminate.
+ * </p>
+ * <p>
+ * Predicates whose answers can change without an update of the database,
+ * or that have side effects, are not tabled; see {@link QueryCache}. The
+ * tables are only valid as long as the predicates the tabled predicates
+ * depend on do not change; {@link #affects(Term)} tells whether an update
+ * requires the tables to be abolished.
+ * </p>
+ */
+public class KnowledgeTables {
+	/**
+	 * The predicates of SWI Prolog that tabling relies on.
+	 */
+	private static final String[] REQUIRED = { "table/1",
+			"abolish_module_tables/1" };
+	/**
+	 * Whether the Prolog engine supports tabling; {@code null} until it has
+	 * been checked.
+	 */
+	private static Boolean supported;
+
+	/**
+	 * The signatures of the tabled predicates.
+	 */
+	private final Set<String> tabled = new LinkedHashSet<>();
+	/**
+	 * The signatures of the predicates the tabled predicates depend on,
+	 * including the tabled predicates themselves.
+	 */
+	private final Set<String> dependencies = new HashSet<>();
+
+	/**
+	 * @param knowledge
+	 *            The clauses of the knowledge base.
+	 * @param volatileSignatures
+	 *            Predicates that can change without an update of the
+	 *            database; predicates that depend on them are not tabled.
+	 */
+	public KnowledgeTables(Collection<DatabaseFormula> knowledge,
+			Collection<String> volatileSignatures) {
+		SwiDependencyGraph graph = new SwiDependencyGraph();
+		for (DatabaseFormula clause : knowledge) {
+			try {
+				graph.add(clause, true, false);
+			} catch (KRException e) {
+				// Not a user predicate; it is never tabled.
+			}
+		}
+		QueryCache analysis = new QueryCache(1, knowledge, volatileSignatures);
+		for (Node<PrologTerm> node : graph.getNodes()) {
+			if (!isRecursive(node, node, new HashSet<String>())) {
+				continue;
+			}
+			Set<String> closure = analysis.getDependencies(goal(node
+					.getSignature()));
+			if (closure != null) {
+				this.tabled.add(node.getSignature());
+				this.dependencies.addAll(closure);
+			}
+		}
+	}
+
+	/**
+	 * Checks that the version of SWI Prolog that is used supports tabling.
+	 * The engine is only asked once.
+	 *
+	 * @throws KRInitFailedException
+	 *             If table/1 or abolish_module_tables/1 is not available.
+	 */
+	public static synchronized void checkSupported()
+			throws KRInitFailedException {
+		if (supported == null) {
+			supported = true;
+			for (String signature : REQUIRED) {
+				// predicate_property(Goal, visible) also finds predicates
+				// that are autoloaded on first use.
+				Term probe = JPLUtils.createCompound("predicate_property",
+						goal(signature), new Atom("visible"));
+				try {
+					if (PrologCalls.rawquery(probe).isEmpty()) {
+						supported = false;
+					}
+				} catch (KRQueryFailedException e) {
+					supported = false;
+				}
+			}
+		}
+		if (!supported) {
+			throw new KRInitFailedException("tabling is enabled, but this "
+					+ "version of SWI Prolog does not support it: "
+					+ Arrays.toString(REQUIRED) + " should be available");
+		}
+	}
+
+	/**
+	 * @return {@code true} if {@code node} can be reached from the
+	 *         dependencies of {@code from}.
+	 */
+	private static boolean isRecursive(Node<PrologTerm> node,
+			Node<PrologTerm> from, Set<String> visited) {
+		for (Node<PrologTerm> dependency : from.getDependencies()) {
+			if (dependency == node) {
+				return true;
+			} else if (visited.add(dependency.getSignature())
+					&& isRecursive(node, dependency, visited)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return The most general goal for a signature name/arity.
+	 */
+	private static Term goal(String signature) {
+		int slash = signature.lastIndexOf('/');
+		String name = signature.substring(0, slash);
+		int arity = Integer.parseInt(signature.substring(slash + 1));
+		if (arity == 0) {
+			return new Atom(name);
+		}
+		Term[] args = new Term[arity];
+		for (int i = 0; i < arity; i++) {
+			args[i] = new Variable("_");
+		}
+		return new Compound(name, args);
+	}
+
+	/**
+	 * @return The signatures name/arity of the predicates that are tabled.
+	 */
+	public Set<String> getTabled() {
+		return Collections.unmodifiableSet(this.tabled);
+	}
+
+	/**
+	 * @param formula
+	 *            A fact or clause that has been inserted or deleted.
+	 * @return {@code true} if the update may change the answers of a tabled
+	 *         predicate.
+	 */
+	public boolean affects(Term formula) {
+		Term head = QueryCache.isRule(formula) ? formula.arg(1) : formula;
+		return this.dependencies.contains(QueryCache.signature(head));
+	}
+}
@@ -0,0 +1,291 @@
+/**
+ * Knowledge Representation Tools. Copyright (C) 2014 Koen Hindriks.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package swiPrologMentalState;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import jpl.Term;
+
+/**
+ * <p>
+ * Keeps track of the facts in a mailbox in the order in which they were
+ * inserted, and decides which facts should be evicted according to a
+ * {@link MailboxRetentionPolicy}. All bookkeeping is done in Java; the facts
+ * that are selected for eviction are removed from the mailbox by the caller in
+ * a single batch.
+ * </p>
+ * <p>
+ * Facts that are removed from the mailbox in another way (e.g. by a delete
+ * action of the agent) have to be reported with {@link #remove(Term)}, so
+ * that they no longer count towards the limits and are never evicted.
+ * </p>
+ */
+public class MailboxRetention {
+	/**
+	 * A fact in the mailbox.
+	 */
+	private static class Entry {
+		private final Term fact;
+		private final String sender;
+		private final long cycle;
+		private boolean evicted = false;
+
+		private Entry(Term fact, String sender, long cycle) {
+			this.fact = fact;
+			this.sender = sender;
+			this.cycle = cycle;
+		}
+	}
+
+	private final MailboxRetentionPolicy policy;
+	/**
+	 * All facts that have not been evicted yet, oldest first. May contain
+	 * entries that have been evicted because of a per sender limit.
+	 */
+	private final Deque<Entry> entries = new ArrayDeque<>();
+	/**
+	 * Received facts per sender, oldest first.
+	 */
+	private final Map<String, Deque<Entry>> senders = new HashMap<>();
+	/**
+	 * Facts that have not been evicted, by their text, oldest first.
+	 */
+	private final Map<String, Deque<Entry>> facts = new HashMap<>();
+	/**
+	 * Facts that have been selected for eviction but have not been collected
+	 * yet.
+	 */
+	private final List<Term> pending = new LinkedList<>();
+	/**
+	 * Number of facts that have not been evicted.
+	 */
+	private int size = 0;
+	/**
+	 * The most recent cycle passed to {@link #collect(long)}.
+	 */
+	private long cycle = 0;
+	private long evictedFacts = 0;
+	private long evictionBatches = 0;
+
+	/**
+	 * @param policy
+	 *            The retention policy to apply.
+	 */
+	public MailboxRetention(MailboxRetentionPolicy policy) {
+		this.policy = policy;
+	}
+
+	public MailboxRetentionPolicy getPolicy() {
+		return this.policy;
+	}
+
+	/**
+	 * Records a fact that has been inserted into the mailbox.
+	 *
+	 * @param fact
+	 *            The sent/2 or received/2 fact.
+	 * @param sender
+	 *            The sender of a received message, or {@code null} for a
+	 *            message that has been sent by the owner of the mailbox.
+	 */
+	public synchronized void record(Term fact, String sender) {
+		Entry entry = new Entry(fact, sender, this.cycle);
+		this.entries.addLast(entry);
+		this.size++;
+		Deque<Entry> copies = this.facts.get(fact.toString());
+		if (copies == null) {
+			copies = new ArrayDeque<>();
+			this.facts.put(fact.toString(), copies);
+		}
+		copies.addLast(entry);
+		if (sender != null && this.policy.getMaxPerSender() > 0) {
+			Deque<Entry> received = this.senders.get(sender);
+			if (received == null) {
+				received = new ArrayDeque<>();
+				this.senders.put(sender, received);
+			}
+			received.addLast(entry);
+			while (received.size() > this.policy.getMaxPerSender()) {
+				evict(received.removeFirst());
+			}
+		}
+	}
+
+	/**
+	 * Selects all facts that exceed the limits of the policy at the given
+	 * cycle, and returns them together with the facts that were already
+	 * selected because of a per sender limit.
+	 *
+	 * @param cycle
+	 *            The current cycle of the owner of the mailbox.
+	 * @return The facts that should be removed from the mailbox; may be empty.
+	 */
+	public synchronized List<Term> collect(long cycle) {
+		this.cycle = cycle;
+		while (!this.entries.isEmpty()) {
+			Entry oldest = this.entries.peekFirst();
+			if (oldest.evicted) {
+				this.entries.removeFirst();
+			} else if ((this.policy.getMaxFacts() > 0 && this.size > this.policy
+					.getMaxFacts())
+					|| (this.policy.getMaxAge() > 0 && cycle - oldest.cycle > this.policy
+							.getMaxAge())) {
+				this.entries.removeFirst();
+				if (oldest.sender != null) {
+					Deque<Entry> received = this.senders.get(oldest.sender);
+					// Entries of a sender are also kept oldest first.
+					if (received != null && received.peekFirst() == oldest) {
+						received.removeFirst();
+						if (received.isEmpty()) {
+							this.senders.remove(oldest.sender);
+						}
+					}
+				}
+				evict(oldest);
+			} else {
+				break;
+			}
+		}
+		List<Term> evicted = new LinkedList<>(this.pending);
+		this.pending.clear();
+		if (!evicted.isEmpty()) {
+			this.evictionBatches++;
+		}
+		return evicted;
+	}
+
+	private void evict(Entry entry) {
+		untrack(entry);
+		this.evictedFacts++;
+		this.pending.add(entry.fact);
+	}
+
+	/**
+	 * Records that a fact has been deleted from the mailbox by other means
+	 * than eviction. As Prolog retracts the first matching clause, the
+	 * oldest fact that matches is no longer tracked.
+	 *
+	 * @param fact
+	 *            The sent/2 or received/2 fact that was deleted; may contain
+	 *            variables.
+	 */
+	public synchronized void remove(Term fact) {
+		Entry removed = null;
+		Deque<Entry> copies = this.facts.get(fact.toString());
+		if (copies != null) {
+			removed = copies.peekFirst();
+		} else if (!JavaDatabase.isGround(fact)) {
+			for (Entry entry : this.entries) {
+				if (!entry.evicted
+						&& matches(fact, entry.fact,
+								new HashMap<String, String>())) {
+					removed = entry;
+					break;
+				}
+			}
+		}
+		if (removed == null) {
+			return;
+		}
+		untrack(removed);
+		if (removed.sender != null) {
+			Deque<Entry> received = this.senders.get(removed.sender);
+			if (received != null) {
+				received.remove(removed);
+				if (received.isEmpty()) {
+					this.senders.remove(removed.sender);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Marks an entry as no longer present; it is dropped from the queue of
+	 * entries when it reaches the front.
+	 */
+	private void untrack(Entry entry) {
+		entry.evicted = true;
+		this.size--;
+		String key = entry.fact.toString();
+		Deque<Entry> copies = this.facts.get(key);
+		if (copies != null) {
+			copies.remove(entry);
+			if (copies.isEmpty()) {
+				this.facts.remove(key);
+			}
+		}
+	}
+
+	/**
+	 * @return {@code true} if the variables of a pattern can be bound such
+	 *         that it equals a ground fact.
+	 */
+	private static boolean matches(Term pattern, Term fact,
+			Map<String, String> bindings) {
+		if (pattern.isVariable()) {
+			if (pattern.name().equals("_")) {
+				return true;
+			}
+			String bound = bindings.get(pattern.name());
+			if (bound == null) {
+				bindings.put(pattern.name(), fact.toString());
+				return true;
+			}
+			return bound.equals(fact.toString());
+		} else if (pattern.isInteger() || pattern.isFloat()
+				|| fact.isInteger() || fact.isFloat() || fact.isVariable()) {
+			return pattern.toString().equals(fact.toString());
+		} else if (!pattern.name().equals(fact.name())
+				|| pattern.arity() != fact.arity()) {
+			return false;
+		}
+		for (int i = 1; i <= pattern.arity(); i++) {
+			if (!matches(pattern.arg(i), fact.arg(i), bindings)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return The number of facts that are currently retained.
+	 */
+	public synchronized int getRetainedFacts() {
+		return this.size;
+	}
+
+	/**
+	 * @return The total number of facts that have been evicted.
+	 */
+	public synchronized long getEvictedFacts() {
+		return this.evictedFacts;
+	}
+
+	/**
+	 * @return The number of non-empty batches returned by
+	 *         {@link #collect(long)}.
+	 */
+	public synchronized long getEvictionBatches() {
+		return this.evictionBatches;
+	}
+}
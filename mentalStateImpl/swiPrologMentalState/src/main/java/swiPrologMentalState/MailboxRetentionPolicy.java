@@ -0,0 +1,90 @@
+/**
+ * Knowledge Representation Tools. Copyright (C) 2014 Koen Hindriks.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package swiPrologMentalState;
+
+/**
+ * Determines how many sent/2 and received/2 facts a mailbox retains. A limit
+ * of 0 means that there is no limit. Facts that exceed one of the limits are
+ * removed, oldest first, by
+ * {@link SwiPrologMentalState#enforceMailboxRetention(krTools.database.Database, long)}
+ * .
+ */
+public class MailboxRetentionPolicy {
+	/**
+	 * The default policy: mailboxes are never pruned.
+	 */
+	public static final MailboxRetentionPolicy UNBOUNDED = new MailboxRetentionPolicy(
+			0, 0, 0);
+
+	/**
+	 * Maximum number of facts in a mailbox.
+	 */
+	private final int maxFacts;
+	/**
+	 * Maximum number of cycles a fact is kept.
+	 */
+	private final int maxAge;
+	/**
+	 * Maximum number of received/2 facts per sender.
+	 */
+	private final int maxPerSender;
+
+	/**
+	 * @param maxFacts
+	 *            Maximum number of facts in a mailbox, or 0.
+	 * @param maxAge
+	 *            Maximum number of cycles a fact is kept, or 0.
+	 * @param maxPerSender
+	 *            Maximum number of received/2 facts from a single sender, or
+	 *            0.
+	 */
+	public MailboxRetentionPolicy(int maxFacts, int maxAge, int maxPerSender) {
+		if (maxFacts < 0 || maxAge < 0 || maxPerSender < 0) {
+			throw new IllegalArgumentException(
+					"retention limits cannot be negative");
+		}
+		this.maxFacts = maxFacts;
+		this.maxAge = maxAge;
+		this.maxPerSender = maxPerSender;
+	}
+
+	public int getMaxFacts() {
+		return this.maxFacts;
+	}
+
+	public int getMaxAge() {
+		return this.maxAge;
+	}
+
+	public int getMaxPerSender() {
+		return this.maxPerSender;
+	}
+
+	/**
+	 * @return {@code true} if this policy does not limit the mailbox at all.
+	 */
+	public boolean isUnbounded() {
+		return this.maxFacts == 0 && this.maxAge == 0 && this.maxPerSender == 0;
+	}
+
+	@Override
+	public String toString() {
+		return "retention(maxFacts=" + this.maxFacts + ", maxAge="
+				+ this.maxAge + ", maxPerSender=" + this.maxPerSender + ")";
+	}
+}
@@ -0,0 +1,235 @@
+/**
+ * Knowledge Representation Tools. Copyright (C) 2014 Koen Hindriks.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package swiPrologMentalState;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import jpl.Term;
+import krTools.errors.exceptions.KRDatabaseException;
+import krTools.errors.exceptions.KRInitFailedException;
+import krTools.errors.exceptions.KRQueryFailedException;
+import krTools.language.DatabaseFormula;
+import languageTools.program.agent.AgentProgram;
+import mentalState.BASETYPE;
+import swiprolog.language.PrologDBFormula;
+
+/**
+ * <p>
+ * Saves all databases of an agent to a compact binary file, and restores
+ * them into a {@link SwiPrologMentalState}. The content of each database is
+ * retrieved in a single Prolog call, and a restored database is filled in a
+ * single Prolog call as well, so neither saving nor restoring parses the
+ * agent program or inserts clauses one at a time.
+ * </p>
+ * <p>
+ * The file is compressed with GZIP and contains the name of the agent,
+ * followed by the type, sequence number, dynamic predicates and clauses of
+ * each database. Terms are stored in canonical text, see
+ * {@link CanonicalTerms}. The knowledge of the agent is stored as the
+ * clauses of its knowledge base.
+ * </p>
+ */
+public class MentalStateSnapshot {
+	private static final int MAGIC = 0x474F534E;
+	private static final int VERSION = 1;
+
+	/**
+	 * The order in which databases are restored: the knowledge base first, as
+	 * belief and goal bases copy its content, and goal bases in order of
+	 * creation.
+	 */
+	private static final Comparator<TypedSWIPrologDatabase> ORDER = new Comparator<TypedSWIPrologDatabase>() {
+		@Override
+		public int compare(TypedSWIPrologDatabase first,
+				TypedSWIPrologDatabase second) {
+			int order = first.getType().compareTo(second.getType());
+			if (order == 0) {
+				order = first.getSequence() - second.getSequence();
+			}
+			return order;
+		}
+	};
+
+	/**
+	 * Utility class; constructor is hidden.
+	 */
+	private MentalStateSnapshot() {
+	}
+
+	/**
+	 * Saves all databases of an agent.
+	 *
+	 * @param state
+	 *            The mental state that stores the databases.
+	 * @param agent
+	 *            The name of the agent.
+	 * @param file
+	 *            The file to write to; overwritten if it exists.
+	 * @throws IOException
+	 *             If the file could not be written.
+	 * @throws KRQueryFailedException
+	 *             If the content of a database could not be retrieved.
+	 */
+	public static void save(SwiPrologMentalState state, String agent,
+			File file) throws IOException, KRQueryFailedException {
+		List<TypedSWIPrologDatabase> databases = new ArrayList<>(
+				state.getDatabases(agent));
+		Collections.sort(databases, ORDER);
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new GZIPOutputStream(
+						new FileOutputStream(file))))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeUTF(agent);
+			out.writeInt(databases.size());
+			for (TypedSWIPrologDatabase database : databases) {
+				List<Term> dynamic = new ArrayList<>();
+				List<Term> clauses = new ArrayList<>();
+				if (database.getType() == BASETYPE.KNOWLEDGEBASE) {
+					Collection<DatabaseFormula> knowledge = state
+							.getKnowledge(agent);
+					if (knowledge != null) {
+						for (DatabaseFormula formula : knowledge) {
+							clauses.add(((PrologDBFormula) formula).getTerm());
+						}
+					}
+				} else {
+					database.dump(dynamic, clauses);
+				}
+				out.writeByte(database.getType().ordinal());
+				out.writeInt(database.getSequence());
+				writeTerms(out, dynamic);
+				writeTerms(out, clauses);
+			}
+		}
+	}
+
+	/**
+	 * Creates the databases of an agent from a snapshot. The agent should
+	 * not have any databases in the mental state yet.
+	 *
+	 * @param state
+	 *            The mental state to restore the databases into.
+	 * @param agent
+	 *            The program of the agent; used to name the databases and
+	 *            to determine dynamic declarations, as when the databases are
+	 *            created normally. Its name does not need to match the name
+	 *            in the snapshot, so a snapshot can be used to start several
+	 *            agents from the same state.
+	 * @param file
+	 *            The snapshot.
+	 * @return The restored databases, in the order in which they were saved,
+	 *         with the sequence numbers they had when they were saved.
+	 * @throws IOException
+	 *             If the snapshot could not be read.
+	 * @throws KRInitFailedException
+	 *             If a database could not be created.
+	 * @throws KRDatabaseException
+	 *             If a database could not be filled.
+	 * @throws KRQueryFailedException
+	 */
+	public static List<TypedSWIPrologDatabase> restore(
+			SwiPrologMentalState state, AgentProgram agent, File file)
+			throws IOException, KRInitFailedException, KRDatabaseException,
+			KRQueryFailedException {
+		String name = agent.getSourceFile().getName();
+		if (!state.getDatabases(name).isEmpty()) {
+			throw new KRInitFailedException("cannot restore databases of "
+					+ name + " as it already has databases");
+		}
+		List<TypedSWIPrologDatabase> restored = new ArrayList<>();
+		List<DatabaseFormula> none = Collections.emptyList();
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new GZIPInputStream(new FileInputStream(file))))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new IOException(file + " is not a mental state snapshot");
+			}
+			in.readUTF();
+			int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				BASETYPE type = BASETYPE.values()[in.readByte()];
+				int sequence = in.readInt();
+				List<Term> dynamic = readTerms(in);
+				List<Term> clauses = readTerms(in);
+				// The knowledge base is saved first, so the knowledge is
+				// known when belief and goal bases are created and their
+				// query memo and tables are built from it. Other databases
+				// are created empty and then filled in a single call.
+				TypedSWIPrologDatabase database;
+				if (type == BASETYPE.KNOWLEDGEBASE) {
+					List<DatabaseFormula> knowledge = new ArrayList<>(
+							clauses.size());
+					for (Term clause : clauses) {
+						knowledge.add(new PrologDBFormula(clause, null));
+					}
+					database = (TypedSWIPrologDatabase) state.makeDatabase(
+							type, knowledge, agent);
+				} else {
+					database = (TypedSWIPrologDatabase) state.makeDatabase(
+							type, none, agent);
+					database.load(dynamic, clauses);
+				}
+				state.restoreSequence(database, sequence);
+				restored.add(database);
+			}
+		}
+		return restored;
+	}
+
+	private static void writeTerms(DataOutputStream out, List<Term> terms)
+			throws IOException {
+		out.writeInt(terms.size());
+		for (Term term : terms) {
+			byte[] text = CanonicalTerms.write(term).getBytes(
+					StandardCharsets.UTF_8);
+			out.writeInt(text.length);
+			out.write(text);
+		}
+	}
+
+	private static List<Term> readTerms(DataInputStream in) throws IOException {
+		int count = in.readInt();
+		List<Term> terms = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			byte[] text = new byte[in.readInt()];
+			in.readFully(text);
+			try {
+				terms.add(CanonicalTerms.read(new String(text,
+						StandardCharsets.UTF_8)));
+			} catch (IllegalArgumentException e) {
+				throw new IOException("corrupt term in snapshot", e);
+			}
+		}
+		return terms;
+	}
+}
@@ -0,0 +1,68 @@
+/**
+ * Knowledge Representation Tools. Copyright (C) 2014 Koen Hindriks.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package swiPrologMentalState;
+
+/**
+ * The number of clauses in, and the approximate memory used by, one or more
+ * SWI Prolog modules. Memory is measured as the sum of the sizes reported by
+ * SWI Prolog for the predicates defined in a module, which includes clauses
+ * and indexes but not the atoms they refer to.
+ */
+public class ModuleUsage {
+	/**
+	 * Usage of a database that does not have a module of its own.
+	 */
+	public static final ModuleUsage EMPTY = new ModuleUsage(0, 0);
+
+	private final long clauses;
+	private final long bytes;
+
+	/**
+	 * @param clauses
+	 *            The number of clauses.
+	 * @param bytes
+	 *            The approximate number of bytes used.
+	 */
+	public ModuleUsage(long clauses, long bytes) {
+		this.clauses = clauses;
+		this.bytes = bytes;
+	}
+
+	public long getClauses() {
+		return this.clauses;
+	}
+
+	public long getBytes() {
+		return this.bytes;
+	}
+
+	/**
+	 * @param other
+	 *            Another usage.
+	 * @return The combined usage of this and the other usage.
+	 */
+	public ModuleUsage add(ModuleUsage other) {
+		return new ModuleUsage(this.clauses + other.clauses, this.bytes
+				+ other.bytes);
+	}
+
+	@Override
+	public String toString() {
+		return "usage(clauses=" + this.clauses + ", bytes=" + this.bytes + ")";
+	}
+}
@@ -0,0 +1,305 @@
+/**
+ * Knowledge Representation Tools. Copyright (C) 2014 Koen Hindriks.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package swiPrologMentalState;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import jpl.Term;
+import jpl.Variable;
+import krTools.errors.exceptions.KRDatabaseException;
+import krTools.errors.exceptions.KRQueryFailedException;
+import swiprolog.database.SWIPrologDatabase;
+import swiprolog.language.JPLUtils;
+
+/**
+ * <p>
+ * Stores the percepts of a percept base in Java, indexed by predicate and by
+ * first argument, instead of asserting each percept in Prolog. Changes are
+ * collected and passed to the Prolog module of the percept base in a single
+ * call by {@link #sync(SWIPrologDatabase)}, which is done just before the
+ * percepts can be observed by Prolog, i.e. before the belief base or percept
+ * base is queried. A percept that is inserted and deleted again between two
+ * queries never reaches Prolog at all.
+ * </p>
+ * <p>
+ * Queries of the form percept(Percept) are answered by {@link #match(Term)}
+ * from the index directly, looking only at the percepts with the predicate
+ * and, if it is given, first argument of the query. Such queries neither
+ * call Prolog nor require the pending changes to be passed to it.
+ * </p>
+ * <p>
+ * Percepts are identified by their string representation, as JPL terms do
+ * not implement equality. Unlike Prolog, the index stores a percept at most
+ * once: inserting a percept that is already present is dropped, so a single
+ * delete removes it.
+ * </p>
+ */
+public class PerceptIndex {
+	/**
+	 * Percepts by signature, then by first argument ("" for atoms), then by
+	 * string representation.
+	 */
+	private final Map<String, Map<String, Map<String, Term>>> percepts = new HashMap<>();
+	/**
+	 * Percepts that have been inserted but not yet asserted in Prolog.
+	 */
+	private final Map<String, Term> added = new LinkedHashMap<>();
+	/**
+	 * Percepts that have been deleted but not yet retracted in Prolog.
+	 */
+	private final Map<String, Term> deleted = new LinkedHashMap<>();
+	private int size = 0;
+
+	/**
+	 * Adds a percept, unless it is present already.
+	 *
+	 * @param percept
+	 *            The percept, i.e. the argument of a percept/1 fact.
+	 * @return {@code true} if the percept was not present yet.
+	 */
+	public synchronized boolean insert(Term percept) {
+		String key = percept.toString();
+		Map<String, Term> bucket = getBucket(percept, true);
+		if (bucket.containsKey(key)) {
+			return false;
+		}
+		bucket.put(key, percept);
+		this.size++;
+		if (this.deleted.remove(key) == null) {
+			this.added.put(key, percept);
+		}
+		return true;
+	}
+
+	/**
+	 * Removes a percept. A percept with variables removes the first percept
+	 * that unifies with it, as a retract would.
+	 *
+	 * @param percept
+	 *            The percept, i.e. the argument of a percept/1 fact.
+	 * @return The percept that has been removed, or {@code null} if no
+	 *         percept matched.
+	 */
+	public synchronized Term delete(Term percept) {
+		if (!JavaDatabase.isGround(percept)) {
+			percept = find(percept);
+			if (percept == null) {
+				return null;
+			}
+		}
+		String key = percept.toString();
+		Map<String, Term> bucket = getBucket(percept, false);
+		if (bucket == null || bucket.remove(key) == null) {
+			return null;
+		}
+		if (bucket.isEmpty()) {
+			// Do not keep buckets of first arguments that have disappeared.
+			String signature = getSignature(percept);
+			Map<String, Map<String, Term>> byArgument = this.percepts
+					.get(signature);
+			byArgument.remove(getFirst(percept));
+			if (byArgument.isEmpty()) {
+				this.percepts.remove(signature);
+			}
+		}
+		this.size--;
+		if (this.added.remove(key) == null) {
+			this.deleted.put(key, percept);
+		}
+		return percept;
+	}
+
+	/**
+	 * @param signature
+	 *            A signature, e.g. "on/2".
+	 * @return The percepts with the given signature.
+	 */
+	public synchronized Collection<Term> getPercepts(String signature) {
+		Map<String, Map<String, Term>> byArgument = this.percepts
+				.get(signature);
+		if (byArgument == null) {
+			return Collections.emptyList();
+		}
+		List<Term> result = new ArrayList<>();
+		for (Map<String, Term> bucket : byArgument.values()) {
+			result.addAll(bucket.values());
+		}
+		return result;
+	}
+
+	/**
+	 * @param signature
+	 *            A signature, e.g. "on/2".
+	 * @param first
+	 *            The first argument.
+	 * @return The percepts with the given signature and first argument.
+	 */
+	public synchronized Collection<Term> getPercepts(String signature,
+			Term first) {
+		Map<String, Map<String, Term>> byArgument = this.percepts
+				.get(signature);
+		Map<String, Term> bucket = byArgument == null ? null : byArgument
+				.get(first.toString());
+		if (bucket == null) {
+			return Collections.emptyList();
+		}
+		return new ArrayList<>(bucket.values());
+	}
+
+	/**
+	 * Finds the percepts that unify with a pattern.
+	 *
+	 * @param pattern
+	 *            The argument of a percept/1 query.
+	 * @return The bindings of the variables of the pattern for each percept
+	 *         that unifies with it.
+	 */
+	public synchronized List<Map<String, Term>> match(Term pattern) {
+		List<Map<String, Term>> solutions = new ArrayList<>();
+		for (Term percept : getCandidates(pattern)) {
+			Map<String, Term> bindings = JavaDatabase.unify(pattern, percept,
+					new HashMap<String, Term>());
+			if (bindings != null) {
+				solutions.add(bindings);
+			}
+		}
+		return solutions;
+	}
+
+	/**
+	 * @return The first percept that unifies with a pattern, or {@code null}
+	 *         if there is none.
+	 */
+	private Term find(Term pattern) {
+		for (Term percept : getCandidates(pattern)) {
+			if (JavaDatabase.unify(pattern, percept,
+					new HashMap<String, Term>()) != null) {
+				return percept;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return The percepts that may unify with a pattern: those with its
+	 *         predicate and, if it is ground, first argument, or all percepts
+	 *         if the pattern is a variable or a number.
+	 */
+	private Collection<Term> getCandidates(Term pattern) {
+		if (pattern.isVariable() || pattern.isInteger() || pattern.isFloat()) {
+			List<Term> all = new ArrayList<>(this.size);
+			for (Map<String, Map<String, Term>> byArgument : this.percepts
+					.values()) {
+				for (Map<String, Term> bucket : byArgument.values()) {
+					all.addAll(bucket.values());
+				}
+			}
+			return all;
+		} else if (pattern.arity() > 0
+				&& JavaDatabase.isGround(pattern.arg(1))) {
+			return getPercepts(getSignature(pattern), pattern.arg(1));
+		}
+		return getPercepts(getSignature(pattern));
+	}
+
+	/**
+	 * @return The number of percepts.
+	 */
+	public synchronized int size() {
+		return this.size;
+	}
+
+	/**
+	 * @return {@code true} if there are changes that have not been passed to
+	 *         Prolog yet.
+	 */
+	public synchronized boolean isPending() {
+		return !this.added.isEmpty() || !this.deleted.isEmpty();
+	}
+
+	/**
+	 * Retracts the percepts that have been deleted and asserts those that
+	 * have been inserted since the previous sync, in a single Prolog call.
+	 *
+	 * @param database
+	 *            The percept base.
+	 * @throws KRDatabaseException
+	 */
+	public synchronized void sync(SWIPrologDatabase database)
+			throws KRDatabaseException {
+		if (!isPending()) {
+			return;
+		}
+		Variable percept = new Variable("Percept");
+		Term fact = JPLUtils.createCompound(":", database.getJPLName(),
+				JPLUtils.createCompound("percept", percept));
+		Term retract = JPLUtils.createCompound("forall", JPLUtils
+				.createCompound("member", percept, JPLUtils
+						.termsToList(new ArrayList<>(this.deleted.values()))),
+				JPLUtils.createCompound("ignore",
+						JPLUtils.createCompound("retract", fact)));
+		Term assertz = JPLUtils.createCompound("forall", JPLUtils
+				.createCompound("member", percept, JPLUtils
+						.termsToList(new ArrayList<>(this.added.values()))),
+				JPLUtils.createCompound("assertz", fact));
+		try {
+			PrologCalls.rawquery(JPLUtils.createCompound(",", retract,
+					assertz));
+		} catch (KRQueryFailedException e) {
+			throw new KRDatabaseException("unable to synchronize "
+					+ this.added.size() + " new and " + this.deleted.size()
+					+ " deleted percepts with " + database.getName(), e);
+		}
+		this.added.clear();
+		this.deleted.clear();
+	}
+
+	private static String getSignature(Term percept) {
+		return percept.name() + "/" + percept.arity();
+	}
+
+	private static String getFirst(Term percept) {
+		return percept.arity() == 0 ? "" : percept.arg(1).toString();
+	}
+
+	private Map<String, Term> getBucket(Term percept, boolean create) {
+		String signature = getSignature(percept);
+		String first = getFirst(percept);
+		Map<String, Map<String, Term>> byArgument = this.percepts
+				.get(signature);
+		if (byArgument == null) {
+			if (!create) {
+				return null;
+			}
+			byArgument = new HashMap<>();
+			this.percepts.put(signature, byArgument);
+		}
+		Map<String, Term> bucket = byArgument.get(first);
+		if (bucket == null && create) {
+			bucket = new LinkedHashMap<>();
+			byArgument.put(first, bucket);
+		}
+		return bucket;
+	}
+}
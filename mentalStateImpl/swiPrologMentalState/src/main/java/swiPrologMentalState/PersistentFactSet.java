@@ -0,0 +1,291 @@
+/**
+ * Knowledge Representation Tools. Copyright (C) 2014 Koen Hindriks.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package swiPrologMentalState;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import jpl.Term;
+
+/**
+ * <p>
+ * An immutable set of facts and clauses, identified by their string
+ * representation as {@link Term} does not implement hashcode/equals. Adding
+ * or removing a formula returns a new set that shares all but O(log n) nodes
+ * with the old set, so many versions of a large set can be kept at the cost
+ * of their differences only.
+ * </p>
+ * <p>
+ * The set is a hash array mapped trie: every node has up to 32 children,
+ * selected by 5 bits of the hash of the formula, and a bitmap that tells which
+ * children are present.
+ * </p>
+ */
+public final class PersistentFactSet implements Iterable<Term> {
+	/**
+	 * The empty set.
+	 */
+	public static final PersistentFactSet EMPTY = new PersistentFactSet(null,
+			0);
+
+	private static final int BITS = 5;
+	private static final int MASK = (1 << BITS) - 1;
+
+	/**
+	 * A formula in the set.
+	 */
+	private static final class Leaf {
+		private final String key;
+		private final int hash;
+		private final Term term;
+
+		private Leaf(String key, Term term) {
+			this.key = key;
+			this.hash = key.hashCode();
+			this.term = term;
+		}
+	}
+
+	/**
+	 * An inner node; children are leaves or nodes. Below the last level of
+	 * the hash, a node holds leaves with the same hash without a bitmap.
+	 */
+	private static final class Node {
+		private final int bitmap;
+		private final Object[] children;
+
+		private Node(int bitmap, Object[] children) {
+			this.bitmap = bitmap;
+			this.children = children;
+		}
+	}
+
+	private final Node root;
+	private final int size;
+
+	private PersistentFactSet(Node root, int size) {
+		this.root = root;
+		this.size = size;
+	}
+
+	/**
+	 * @return The number of formulas in this set.
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * @param term
+	 *            A fact or clause.
+	 * @return {@code true} if the set contains the formula.
+	 */
+	public boolean contains(Term term) {
+		String key = term.toString();
+		int hash = key.hashCode();
+		Node node = this.root;
+		int shift = 0;
+		while (node != null) {
+			Object child;
+			if (shift >= Integer.SIZE) {
+				for (Object leaf : node.children) {
+					if (((Leaf) leaf).key.equals(key)) {
+						return true;
+					}
+				}
+				return false;
+			}
+			int bit = 1 << ((hash >>> shift) & MASK);
+			if ((node.bitmap & bit) == 0) {
+				return false;
+			}
+			child = node.children[Integer.bitCount(node.bitmap & (bit - 1))];
+			if (child instanceof Leaf) {
+				return ((Leaf) child).key.equals(key);
+			}
+			node = (Node) child;
+			shift += BITS;
+		}
+		return false;
+	}
+
+	/**
+	 * @param term
+	 *            A fact or clause.
+	 * @return A set that also contains the formula; this set if it already
+	 *         did.
+	 */
+	public PersistentFactSet add(Term term) {
+		Leaf leaf = new Leaf(term.toString(), term);
+		Node root = add(this.root, 0, leaf);
+		if (root == this.root) {
+			return this;
+		}
+		return new PersistentFactSet(root, this.size + 1);
+	}
+
+	/**
+	 * @param term
+	 *            A fact or clause.
+	 * @return A set without the formula; this set if it did not contain it.
+	 */
+	public PersistentFactSet remove(Term term) {
+		String key = term.toString();
+		Node root = remove(this.root, 0, key, key.hashCode());
+		if (root == this.root) {
+			return this;
+		}
+		return new PersistentFactSet(root, this.size - 1);
+	}
+
+	private static Node add(Node node, int shift, Leaf leaf) {
+		if (shift >= Integer.SIZE) {
+			// All hash bits are used: a list of leaves with equal hashes.
+			Object[] leaves = node == null ? new Object[0] : node.children;
+			for (Object other : leaves) {
+				if (((Leaf) other).key.equals(leaf.key)) {
+					return node;
+				}
+			}
+			return new Node(0, insert(leaves, leaves.length, leaf));
+		}
+		int bit = 1 << ((leaf.hash >>> shift) & MASK);
+		if (node == null) {
+			return new Node(bit, new Object[] { leaf });
+		}
+		int position = Integer.bitCount(node.bitmap & (bit - 1));
+		if ((node.bitmap & bit) == 0) {
+			return new Node(node.bitmap | bit, insert(node.children, position,
+					leaf));
+		}
+		Object child = node.children[position];
+		Node replacement;
+		if (child instanceof Leaf) {
+			Leaf other = (Leaf) child;
+			if (other.key.equals(leaf.key)) {
+				return node;
+			}
+			replacement = add(add(null, shift + BITS, other), shift + BITS,
+					leaf);
+		} else {
+			replacement = add((Node) child, shift + BITS, leaf);
+			if (replacement == child) {
+				return node;
+			}
+		}
+		Object[] children = node.children.clone();
+		children[position] = replacement;
+		return new Node(node.bitmap, children);
+	}
+
+	private static Node remove(Node node, int shift, String key, int hash) {
+		if (node == null) {
+			return null;
+		}
+		if (shift >= Integer.SIZE) {
+			for (int i = 0; i < node.children.length; i++) {
+				if (((Leaf) node.children[i]).key.equals(key)) {
+					return node.children.length == 1 ? null : new Node(0,
+							delete(node.children, i));
+				}
+			}
+			return node;
+		}
+		int bit = 1 << ((hash >>> shift) & MASK);
+		if ((node.bitmap & bit) == 0) {
+			return node;
+		}
+		int position = Integer.bitCount(node.bitmap & (bit - 1));
+		Object child = node.children[position];
+		Object replacement;
+		if (child instanceof Leaf) {
+			if (!((Leaf) child).key.equals(key)) {
+				return node;
+			}
+			replacement = null;
+		} else {
+			replacement = remove((Node) child, shift + BITS, key, hash);
+			if (replacement == child) {
+				return node;
+			}
+		}
+		if (replacement == null) {
+			if (node.children.length == 1) {
+				return null;
+			}
+			return new Node(node.bitmap & ~bit, delete(node.children, position));
+		}
+		Object[] children = node.children.clone();
+		children[position] = replacement;
+		return new Node(node.bitmap, children);
+	}
+
+	private static Object[] insert(Object[] array, int position, Object value) {
+		Object[] result = new Object[array.length + 1];
+		System.arraycopy(array, 0, result, 0, position);
+		result[position] = value;
+		System.arraycopy(array, position, result, position + 1, array.length
+				- position);
+		return result;
+	}
+
+	private static Object[] delete(Object[] array, int position) {
+		Object[] result = new Object[array.length - 1];
+		System.arraycopy(array, 0, result, 0, position);
+		System.arraycopy(array, position + 1, result, position, array.length
+				- position - 1);
+		return result;
+	}
+
+	/**
+	 * Iterates over the formulas in this set, in no particular order.
+	 */
+	@Override
+	public Iterator<Term> iterator() {
+		final Deque<Object> pending = new ArrayDeque<>();
+		if (this.root != null) {
+			pending.push(this.root);
+		}
+		return new Iterator<Term>() {
+			@Override
+			public boolean hasNext() {
+				while (!pending.isEmpty() && pending.peek() instanceof Node) {
+					for (Object child : ((Node) pending.pop()).children) {
+						pending.push(child);
+					}
+				}
+				return !pending.isEmpty();
+			}
+
+			@Override
+			public Term next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				return ((Leaf) pending.pop()).term;
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+}
@@ -0,0 +1,161 @@
+/**
+ * Knowledge Representation Tools. Copyright (C) 2014 Koen Hindriks.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package swiPrologMentalState;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import jpl.Atom;
+import jpl.Compound;
+import jpl.Term;
+import jpl.Variable;
+import krTools.errors.exceptions.KRQueryFailedException;
+import swiprolog.database.SWIPrologDatabase;
+import swiprolog.language.JPLUtils;
+import swiprolog.language.PrologSubstitution;
+
+/**
+ * <p>
+ * A goal that has been compiled once in the module of a database, see
+ * {@link TypedSWIPrologDatabase#prepare(Term, Variable...)}. The goal
+ * becomes the body of a static helper predicate, whose arguments are the
+ * parameters of the goal followed by its other variables:
+ * </p>
+ *
+ * <pre>
+ * '$prepared_N'(Parameters.., Variables..) :- Goal.
+ * </pre>
+ * <p>
+ * Executing the query only passes the values of the parameters to Prolog,
+ * instead of a new copy of the goal that has to be converted, looked up and
+ * interpreted on every call. The solutions bind the other variables of the
+ * goal, under their original names.
+ * </p>
+ */
+public class PreparedQuery {
+	private final Atom module;
+	private final String name;
+	private final Term goal;
+	private final int parameters;
+	/**
+	 * The variables of the goal that are not parameters.
+	 */
+	private final Variable[] variables;
+
+	/**
+	 * Compiles a goal into a helper predicate of a module. An earlier
+	 * definition of the helper predicate is removed first.
+	 *
+	 * @param module
+	 *            The module of the database.
+	 * @param name
+	 *            The name of the helper predicate.
+	 * @param goal
+	 *            The goal.
+	 * @param parameters
+	 *            The variables of the goal whose values are passed to
+	 *            {@link #execute(Term...)}.
+	 * @throws KRQueryFailedException
+	 *             If the goal could not be compiled.
+	 */
+	PreparedQuery(Atom module, String name, Term goal, Variable... parameters)
+			throws KRQueryFailedException {
+		this.module = module;
+		this.name = name;
+		this.goal = goal;
+		this.parameters = parameters.length;
+		Set<String> names = new LinkedHashSet<>();
+		JavaDatabase.getVariables(goal, names);
+		List<Term> args = new ArrayList<>(names.size());
+		for (Variable parameter : parameters) {
+			names.remove(parameter.name());
+			args.add(parameter);
+		}
+		this.variables = new Variable[names.size()];
+		int i = 0;
+		for (String variable : names) {
+			this.variables[i] = new Variable(variable);
+			args.add(this.variables[i++]);
+		}
+		Term head = call(name, args.toArray(new Term[args.size()]));
+		Term indicator = JPLUtils.createCompound(":", module, JPLUtils
+				.createCompound("/", new Atom(name), new jpl.Integer(
+						args.size())));
+		// abolish(M:N/A), assertz(M:(H :- G)), compile_predicates([M:N/A])
+		PrologCalls.rawquery(JPLUtils.createCompound(",", JPLUtils
+				.createCompound("abolish", indicator), JPLUtils.createCompound(
+				",", JPLUtils.createCompound("assertz", JPLUtils
+						.createCompound(":", module, JPLUtils.createCompound(
+								":-", head, goal))), JPLUtils.createCompound(
+						"compile_predicates", JPLUtils.termsToList(Collections
+								.singletonList(indicator))))));
+	}
+
+	/**
+	 * Runs the goal. Callers should use
+	 * {@link TypedSWIPrologDatabase#query(PreparedQuery, Term...)}, which
+	 * brings the database up to date first.
+	 *
+	 * @param arguments
+	 *            The values of the parameters, in order.
+	 * @return The solutions of the goal for the variables that are not
+	 *         parameters.
+	 * @throws KRQueryFailedException
+	 */
+	Set<PrologSubstitution> execute(Term... arguments)
+			throws KRQueryFailedException {
+		if (arguments.length != this.parameters) {
+			throw new IllegalArgumentException("prepared query " + this.goal
+					+ " expects " + this.parameters + " arguments but got "
+					+ arguments.length);
+		}
+		Term[] args = new Term[this.parameters + this.variables.length];
+		System.arraycopy(arguments, 0, args, 0, this.parameters);
+		System.arraycopy(this.variables, 0, args, this.parameters,
+				this.variables.length);
+		return PrologCalls.rawquery(JPLUtils.createCompound(":",
+				this.module, call(this.name, args)));
+	}
+
+	private static Term call(String name, Term[] args) {
+		return args.length == 0 ? new Atom(name) : new Compound(name, args);
+	}
+
+	/**
+	 * @return The module the goal has been compiled in.
+	 */
+	public Atom getModule() {
+		return this.module;
+	}
+
+	/**
+	 * @return The goal.
+	 */
+	public Term getGoal() {
+		return this.goal;
+	}
+
+	@Override
+	public String toString() {
+		return this.module.name() + ":" + this.goal;
+	}
+}
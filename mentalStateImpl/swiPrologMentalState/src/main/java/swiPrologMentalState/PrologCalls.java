@@ -0,0 +1,73 @@
+/**
+ * Knowledge Representation Tools. Copyright (C) 2014 Koen Hindriks.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package swiPrologMentalState;
+
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import jpl.Term;
+import krTools.errors.exceptions.KRQueryFailedException;
+import swiprolog.database.SWIPrologDatabase;
+import swiprolog.language.PrologSubstitution;
+
+/**
+ * Counts the calls from Java into the SWI Prolog runtime made by the mental
+ * states in this package, i.e. the round trips through JPL. Every goal that is
+ * passed to Prolog counts as one call, whatever the number of solutions it
+ * returns.
+ */
+public class PrologCalls {
+	private static final AtomicLong calls = new AtomicLong();
+
+	/**
+	 * Utility class; constructor is hidden.
+	 */
+	private PrologCalls() {
+	}
+
+	/**
+	 * @return The number of calls into Prolog made so far.
+	 */
+	public static long get() {
+		return calls.get();
+	}
+
+	/**
+	 * Counts a call into Prolog that is not made through
+	 * {@link #rawquery(Term)}.
+	 */
+	static void count() {
+		calls.incrementAndGet();
+	}
+
+	/**
+	 * Counts the call and passes it on to
+	 * {@link SWIPrologDatabase#rawquery(Term)}.
+	 *
+	 * @param goal
+	 *            The goal.
+	 * @return The solutions of the goal.
+	 * @throws KRQueryFailedException
+	 */
+	static Set<PrologSubstitution> rawquery(Term goal)
+			throws KRQueryFailedException {
+		calls.incrementAndGet();
+		return SWIPrologDatabase.rawquery(goal);
+	}
+}
@@ -0,0 +1,281 @@
+/**
+ * Knowledge Representation Tools. Copyright (C) 2014 Koen Hindriks.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package swiPrologMentalState;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import jpl.Term;
+import krTools.errors.exceptions.KRInitFailedException;
+import krTools.errors.exceptions.KRQueryFailedException;
+import swiprolog.language.JPLUtils;
+
+/**
+ * <p>
+ * A separate SWI Prolog process on the local machine that stores the
+ * databases of a shard of a {@link ShardedMentalState}. The JVM and the
+ * process communicate through the standard input and output of the process:
+ * every request is a single goal written in canonical text, see
+ * {@link CanonicalTerms}, and every answer is a single line with all
+ * solutions of the goal. The protocol is implemented by the script
+ * worker.pl, which is a resource of this package.
+ * </p>
+ * <p>
+ * The process has its own heap and its own Prolog engine, so databases on
+ * different workers can be updated and queried in parallel. Requests to a
+ * single worker are handled one at a time. A worker that does not answer a
+ * request within the timeout is stopped, since its next answer could not be
+ * told apart from the answer to the next request.
+ * </p>
+ */
+public class PrologWorker {
+	/**
+	 * The worker script, extracted from the resources on first use.
+	 */
+	private static File script;
+	/**
+	 * How long {@link #destroy()} waits for the process to halt, in
+	 * milliseconds.
+	 */
+	private static final long STOP_TIMEOUT = 5000;
+
+	private final int id;
+	private final Process process;
+	private final BufferedWriter requests;
+	/**
+	 * The lines written by the process, read by a separate thread so that a
+	 * request can time out. An empty line, which the worker never writes,
+	 * means that the output of the process has ended.
+	 */
+	private final BlockingQueue<String> answers = new LinkedBlockingQueue<>();
+	/**
+	 * How long an answer is waited for, in milliseconds; 0 to wait forever.
+	 */
+	private final long timeout;
+	private long requestCount = 0;
+	/**
+	 * Set when the process has been stopped by {@link #kill()}.
+	 */
+	private volatile boolean stopped = false;
+
+	/**
+	 * Starts a worker process.
+	 *
+	 * @param id
+	 *            The number of the worker, used in error messages.
+	 * @param executable
+	 *            The SWI Prolog executable, e.g. swipl.
+	 * @param timeout
+	 *            How long an answer is waited for, in milliseconds; 0 to wait
+	 *            forever.
+	 * @throws KRInitFailedException
+	 *             If the process could not be started.
+	 */
+	public PrologWorker(int id, String executable, long timeout)
+			throws KRInitFailedException {
+		this.id = id;
+		this.timeout = timeout;
+		try {
+			ProcessBuilder builder = new ProcessBuilder(executable,
+					"--traditional", "-q", "-f", "none", "-s", getScript()
+							.getPath(), "-g", "goal_worker:serve", "-t", "halt");
+			builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+			this.process = builder.start();
+		} catch (IOException e) {
+			throw new KRInitFailedException("could not start Prolog worker "
+					+ id + " using " + executable, e);
+		}
+		this.requests = new BufferedWriter(new OutputStreamWriter(
+				this.process.getOutputStream(), StandardCharsets.UTF_8));
+		final BufferedReader output = new BufferedReader(new InputStreamReader(
+				this.process.getInputStream(), StandardCharsets.UTF_8));
+		Thread reader = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				readAnswers(output);
+			}
+		}, "Prolog worker " + id);
+		reader.setDaemon(true);
+		reader.start();
+	}
+
+	/**
+	 * Queues the lines written by the process until its output ends.
+	 */
+	private void readAnswers(BufferedReader output) {
+		try {
+			String line;
+			while ((line = output.readLine()) != null) {
+				if (!line.isEmpty()) {
+					this.answers.add(line);
+				}
+			}
+		} catch (IOException e) {
+			// The process has stopped.
+		}
+		this.answers.add("");
+	}
+
+	private static synchronized File getScript() throws IOException {
+		if (script == null) {
+			File file = File.createTempFile("goal_worker", ".pl");
+			file.deleteOnExit();
+			try (InputStream in = PrologWorker.class
+					.getResourceAsStream("worker.pl")) {
+				if (in == null) {
+					throw new IOException("resource worker.pl is missing");
+				}
+				Files.copy(in, file.toPath(),
+						StandardCopyOption.REPLACE_EXISTING);
+			}
+			script = file;
+		}
+		return script;
+	}
+
+	public int getId() {
+		return this.id;
+	}
+
+	/**
+	 * @return The number of requests that have been handled by this worker.
+	 */
+	public synchronized long getRequestCount() {
+		return this.requestCount;
+	}
+
+	/**
+	 * Finds all solutions of a goal in the worker process.
+	 *
+	 * @param template
+	 *            The term that is returned for each solution; should share
+	 *            variables with the goal.
+	 * @param goal
+	 *            The goal; predicates should be qualified with the module of
+	 *            a database.
+	 * @return The instance of the template for each solution of the goal, in
+	 *         the order in which they were found.
+	 * @throws KRQueryFailedException
+	 *             If the goal raised an exception in the worker, or the
+	 *             worker could not be reached or did not answer in time.
+	 */
+	public synchronized List<Term> query(Term template, Term goal)
+			throws KRQueryFailedException {
+		String answer;
+		try {
+			this.requests.write(CanonicalTerms.write(JPLUtils.createCompound(
+					"query", template, goal)));
+			this.requests.write(".\n");
+			this.requests.flush();
+			answer = this.timeout > 0 ? this.answers.poll(this.timeout,
+					TimeUnit.MILLISECONDS) : this.answers.take();
+		} catch (IOException e) {
+			throw new KRQueryFailedException("Prolog worker " + this.id
+					+ " could not be reached", e);
+		} catch (InterruptedException e) {
+			kill();
+			Thread.currentThread().interrupt();
+			throw new KRQueryFailedException("interrupted while waiting for "
+					+ "Prolog worker " + this.id, e);
+		}
+		this.requestCount++;
+		if (answer == null) {
+			kill();
+			throw new KRQueryFailedException("Prolog worker " + this.id
+					+ " did not answer within " + this.timeout
+					+ " ms and has been stopped");
+		} else if (answer.isEmpty()) {
+			// Let later requests see the end of the output as well.
+			this.answers.add(answer);
+			throw new KRQueryFailedException("Prolog worker " + this.id
+					+ " has stopped");
+		}
+		Term reply;
+		try {
+			reply = CanonicalTerms.read(answer);
+		} catch (IllegalArgumentException e) {
+			throw new KRQueryFailedException("Prolog worker " + this.id
+					+ " gave an invalid answer", e);
+		}
+		if (reply.name().equals("ok") && reply.arity() == 1) {
+			List<Term> solutions = JPLUtils.getOperands(".", reply.arg(1));
+			// Remove the empty list.
+			solutions.remove(solutions.size() - 1);
+			return solutions;
+		}
+		throw new KRQueryFailedException("query " + goal
+				+ " failed in Prolog worker " + this.id + ": "
+				+ (reply.arity() == 1 ? reply.arg(1) : reply));
+	}
+
+	/**
+	 * @return {@code false} if the process has been stopped or has ended;
+	 *         its databases are lost then.
+	 */
+	public boolean isAlive() {
+		if (this.stopped) {
+			return false;
+		}
+		try {
+			this.process.exitValue();
+			return false;
+		} catch (IllegalThreadStateException e) {
+			return true;
+		}
+	}
+
+	/**
+	 * Stops the worker process; all databases it stores are lost. The process
+	 * is asked to halt, and killed if it has not done so within
+	 * {@link #STOP_TIMEOUT} milliseconds.
+	 */
+	public synchronized void destroy() {
+		try {
+			this.requests.close();
+			long deadline = System.currentTimeMillis() + STOP_TIMEOUT;
+			while (isAlive() && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+		} catch (IOException e) {
+			// The process is killed below.
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		kill();
+	}
+
+	/**
+	 * Kills the process, e.g. because it does not answer.
+	 */
+	private void kill() {
+		this.stopped = true;
+		this.process.destroy();
+	}
+}
@@ -0,0 +1,450 @@
+/**
+ * Knowledge Representation Tools. Copyright (C) 2014 Koen Hindriks.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package swiPrologMentalState;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import jpl.Compound;
+import jpl.Term;
+import jpl.Variable;
+import krTools.errors.exceptions.KRException;
+import krTools.language.DatabaseFormula;
+import krTools.language.Substitution;
+import krTools.language.Var;
+import mentalState.Node;
+import swiprolog.language.PrologDBFormula;
+import swiprolog.language.PrologSubstitution;
+import swiprolog.language.PrologTerm;
+import swiprolog.parser.PrologOperators;
+
+/**
+ * <p>
+ * Caches the results of queries on a belief or goal base, see
+ * {@link SwiPrologMentalState#setQueryCacheSize(int)}. Queries are keyed by
+ * their canonical text with variables renamed in order of appearance, so
+ * queries that only differ in the names of their variables share an entry.
+ * </p>
+ * <p>
+ * Every entry records the predicates its query depends on: the predicates in
+ * the query and, through a {@link SwiDependencyGraph} of the clauses of the
+ * database, all predicates they depend on, including their basic
+ * dependencies. An insert or delete of a fact only removes the entries that
+ * depend on its predicate; inserting or deleting a clause with a body clears
+ * the cache, as it changes the dependencies.
+ * </p>
+ * <p>
+ * Queries that call a variable, have side effects or depend on changing
+ * state outside the database (assert, call/N, random, global variables,
+ * output, emotions) are never cached, nor are queries on predicates whose
+ * clauses do so.
+ * </p>
+ */
+public class QueryCache {
+	/**
+	 * Prefixes of the signatures of built-in predicates that make a query
+	 * uncacheable.
+	 */
+	private static final String[] IMPURE = { "assert", "retract", "abolish",
+			"call/", "catch/", "random", "nb_", "b_", "get_time/", "flag/",
+			"record", "erase/", "read", "write", "print", "format", "nl/",
+			"tab/", "emotion/" };
+
+	private static class CachedResult {
+		private final Set<String> signatures;
+		private final List<Map<String, Term>> solutions;
+
+		private CachedResult(Set<String> signatures,
+				List<Map<String, Term>> solutions) {
+			this.signatures = signatures;
+			this.solutions = solutions;
+		}
+	}
+
+	private final int maxEntries;
+	private final SwiDependencyGraph graph = new SwiDependencyGraph();
+	/**
+	 * Predicates whose clauses make a query uncacheable.
+	 */
+	private final Set<String> uncacheable = new HashSet<>();
+	/**
+	 * The entries, least recently used first.
+	 */
+	private final LinkedHashMap<String, CachedResult> entries = new LinkedHashMap<String, CachedResult>(
+			16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(
+				Map.Entry<String, CachedResult> eldest) {
+			if (size() > QueryCache.this.maxEntries) {
+				unindex(eldest.getKey(), eldest.getValue());
+				return true;
+			}
+			return false;
+		}
+	};
+	/**
+	 * The keys of the entries that depend on a predicate, by signature.
+	 */
+	private final Map<String, Set<String>> dependents = new HashMap<>();
+	private long hits = 0;
+	private long misses = 0;
+	private long invalidations = 0;
+
+	/**
+	 * @param maxEntries
+	 *            The maximum number of cached queries; the least recently
+	 *            used query is removed first.
+	 * @param clauses
+	 *            The initial clauses of the database.
+	 * @param volatileSignatures
+	 *            Predicates that can change without an insert or delete on
+	 *            the database, e.g. agent/1 if agent facts are shared.
+	 */
+	public QueryCache(int maxEntries, Collection<DatabaseFormula> clauses,
+			Collection<String> volatileSignatures) {
+		this.maxEntries = maxEntries;
+		this.uncacheable.addAll(volatileSignatures);
+		for (DatabaseFormula clause : clauses) {
+			addClause(((PrologDBFormula) clause).getTerm());
+		}
+	}
+
+	/**
+	 * Adds a clause to the dependency graph, and marks its head uncacheable
+	 * if its body is.
+	 */
+	private void addClause(Term clause) {
+		if (!isRule(clause)) {
+			return;
+		}
+		try {
+			this.graph.add(new PrologDBFormula(clause, null), true, false);
+		} catch (KRException e) {
+			// Not a user predicate; it is never cached.
+			this.uncacheable.add(signature(clause.arg(1)));
+			return;
+		}
+		if (getSignatures(clause.arg(2), false) == null) {
+			this.uncacheable.add(signature(clause.arg(1)));
+		}
+	}
+
+	/**
+	 * @param query
+	 *            A query.
+	 * @return The normalized key of the query; {@code names} receives the
+	 *         normalized name of each variable of the query.
+	 */
+	static String getKey(Term query, Map<String, String> names) {
+		return CanonicalTerms.write(normalize(query, names));
+	}
+
+	private static Term normalize(Term term, Map<String, String> names) {
+		if (term.isVariable()) {
+			if (term.name().equals("_")) {
+				return term;
+			}
+			String normalized = names.get(term.name());
+			if (normalized == null) {
+				normalized = "V" + names.size();
+				names.put(term.name(), normalized);
+			}
+			return new Variable(normalized);
+		} else if (!term.isCompound() || term.arity() == 0) {
+			return term;
+		}
+		Term[] args = new Term[term.arity()];
+		for (int i = 0; i < args.length; i++) {
+			args[i] = normalize(term.arg(i + 1), names);
+		}
+		return new Compound(term.name(), args);
+	}
+
+	/**
+	 * Looks up the results of a query.
+	 *
+	 * @param key
+	 *            The key of the query, see {@link #getKey(Term, Map)}.
+	 * @param names
+	 *            The normalized names of the variables of the query.
+	 * @return The results, or {@code null} if they are not cached.
+	 */
+	synchronized Set<Substitution> get(String key, Map<String, String> names) {
+		CachedResult entry = this.entries.get(key);
+		if (entry == null) {
+			this.misses++;
+			return null;
+		}
+		this.hits++;
+		Set<Substitution> results = new LinkedHashSet<>();
+		for (Map<String, Term> solution : entry.solutions) {
+			Map<String, Term> bindings = new HashMap<>();
+			for (Map.Entry<String, String> name : names.entrySet()) {
+				Term value = solution.get(name.getValue());
+				if (value != null) {
+					bindings.put(name.getKey(), value);
+				}
+			}
+			results.add(new PrologSubstitution(bindings));
+		}
+		return results;
+	}
+
+	/**
+	 * Stores the results of a query, if it can be cached.
+	 *
+	 * @param key
+	 *            The key of the query.
+	 * @param names
+	 *            The normalized names of the variables of the query.
+	 * @param query
+	 *            The query.
+	 * @param results
+	 *            The results of the query.
+	 * @return {@code true} if the results have been cached.
+	 */
+	synchronized boolean put(String key, Map<String, String> names,
+			Term query, Set<Substitution> results) {
+		Set<String> signatures = getSignatures(query, true);
+		if (signatures == null) {
+			return false;
+		}
+		List<Map<String, Term>> solutions = new ArrayList<>(results.size());
+		for (Substitution result : results) {
+			Map<String, Term> solution = new HashMap<>();
+			for (Var var : result.getVariables()) {
+				String normalized = names.get(((Variable) var).name());
+				if (normalized != null) {
+					solution.put(normalized,
+							((PrologTerm) result.get(var)).getTerm());
+				}
+			}
+			solutions.add(solution);
+		}
+		CachedResult old = this.entries.put(key, new CachedResult(signatures, solutions));
+		if (old != null) {
+			unindex(key, old);
+		}
+		for (String signature : signatures) {
+			Set<String> keys = this.dependents.get(signature);
+			if (keys == null) {
+				keys = new HashSet<>();
+				this.dependents.put(signature, keys);
+			}
+			keys.add(key);
+		}
+		return true;
+	}
+
+	private void unindex(String key, CachedResult entry) {
+		for (String signature : entry.signatures) {
+			Set<String> keys = this.dependents.get(signature);
+			if (keys != null) {
+				keys.remove(key);
+				if (keys.isEmpty()) {
+					this.dependents.remove(signature);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Removes the entries that may be affected by an insert or delete.
+	 *
+	 * @param formula
+	 *            The fact or clause that was inserted or deleted.
+	 */
+	synchronized void invalidate(Term formula) {
+		if (isRule(formula)) {
+			addClause(formula);
+			this.invalidations += this.entries.size();
+			this.entries.clear();
+			this.dependents.clear();
+		} else {
+			invalidate(signature(formula));
+		}
+	}
+
+	/**
+	 * Removes the entries that depend on a predicate.
+	 *
+	 * @param signature
+	 *            The signature name/arity of the predicate.
+	 */
+	synchronized void invalidate(String signature) {
+		Set<String> keys = this.dependents.remove(signature);
+		if (keys == null) {
+			return;
+		}
+		for (String key : keys) {
+			CachedResult entry = this.entries.remove(key);
+			if (entry != null) {
+				unindex(key, entry);
+				this.invalidations++;
+			}
+		}
+	}
+
+	/**
+	 * @param query
+	 *            A query.
+	 * @return The predicates the query depends on, directly or indirectly,
+	 *         or {@code null} if the query cannot be cached.
+	 */
+	synchronized Set<String> getDependencies(Term query) {
+		return getSignatures(query, true);
+	}
+
+	/**
+	 * Collects the predicates a goal depends on.
+	 *
+	 * @param goal
+	 *            A goal.
+	 * @param closure
+	 *            Whether to add the predicates the predicates of the goal
+	 *            depend on.
+	 * @return The signatures, or {@code null} if the goal cannot be cached.
+	 */
+	private Set<String> getSignatures(Term goal, boolean closure) {
+		Set<String> signatures = new HashSet<>();
+		return addSignatures(goal, closure, signatures) ? signatures : null;
+	}
+
+	private boolean addSignatures(Term goal, boolean closure,
+			Set<String> signatures) {
+		if (goal.isVariable() || goal.isInteger() || goal.isFloat()) {
+			return false;
+		}
+		String signature = signature(goal);
+		switch (signature) {
+		case ",/2":
+		case ";/2":
+		case "->/2":
+		case "*->/2":
+		case "forall/2":
+			return addSignatures(goal.arg(1), closure, signatures)
+					&& addSignatures(goal.arg(2), closure, signatures);
+		case "\\+/1":
+		case "not/1":
+		case "once/1":
+		case "ignore/1":
+			return addSignatures(goal.arg(1), closure, signatures);
+		case "findall/3":
+		case "findall/4":
+		case "bagof/3":
+		case "setof/3":
+		case "aggregate_all/3":
+			return addSignatures(stripExistentials(goal.arg(2)), closure,
+					signatures);
+		case "aggregate_all/4":
+			return addSignatures(goal.arg(3), closure, signatures);
+		default:
+			break;
+		}
+		for (String prefix : IMPURE) {
+			if (signature.startsWith(prefix)) {
+				return false;
+			}
+		}
+		if (this.uncacheable.contains(signature)) {
+			return false;
+		}
+		if (PrologOperators.prologBuiltin(signature)) {
+			return true;
+		}
+		signatures.add(signature);
+		if (closure) {
+			Node<PrologTerm> node = this.graph.getNode(signature);
+			if (node != null) {
+				signatures.addAll(node.getBasicDependencies());
+				addDependencies(node, signatures);
+			}
+			for (String dependency : signatures) {
+				if (this.uncacheable.contains(dependency)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Adds the signatures of all nodes a node depends on, directly or
+	 * indirectly.
+	 */
+	private static void addDependencies(Node<PrologTerm> node,
+			Set<String> signatures) {
+		for (Node<PrologTerm> dependency : node.getDependencies()) {
+			if (signatures.add(dependency.getSignature())) {
+				addDependencies(dependency, signatures);
+			}
+		}
+	}
+
+	private static Term stripExistentials(Term goal) {
+		while (goal.name().equals("^") && goal.arity() == 2) {
+			goal = goal.arg(2);
+		}
+		return goal;
+	}
+
+	static boolean isRule(Term formula) {
+		return formula.name().equals(":-") && formula.arity() == 2;
+	}
+
+	static String signature(Term term) {
+		return term.name() + "/" + term.arity();
+	}
+
+	/**
+	 * @return The number of queries answered from the cache.
+	 */
+	public synchronized long getHits() {
+		return this.hits;
+	}
+
+	/**
+	 * @return The number of queries that were not in the cache.
+	 */
+	public synchronized long getMisses() {
+		return this.misses;
+	}
+
+	/**
+	 * @return The number of entries removed because of updates.
+	 */
+	public synchronized long getInvalidations() {
+		return this.invalidations;
+	}
+
+	/**
+	 * @return The number of cached queries.
+	 */
+	public synchronized int size() {
+		return this.entries.size();
+	}
+}
@@ -0,0 +1,309 @@
+/**
+ * Knowledge Representation Tools. Copyright (C) 2014 Koen Hindriks.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package swiPrologMentalState;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import jpl.Atom;
+import jpl.Term;
+import jpl.Variable;
+import krTools.database.Database;
+import krTools.errors.exceptions.KRDatabaseException;
+import krTools.errors.exceptions.KRQueryFailedException;
+import krTools.language.DatabaseFormula;
+import krTools.language.Query;
+import krTools.language.Substitution;
+import krTools.language.Update;
+import mentalState.BASETYPE;
+import swiprolog.language.JPLUtils;
+import swiprolog.language.PrologDBFormula;
+import swiprolog.language.PrologQuery;
+import swiprolog.language.PrologSubstitution;
+
+/**
+ * A database of the {@link ShardedMentalState}: a module in a
+ * {@link PrologWorker} process. Every operation is a single request to the
+ * worker; an update with several formulas is also a single request.
+ */
+public class ShardedDatabase implements Database {
+	private static final AtomicLong counter = new AtomicLong();
+
+	private final ShardedMentalState state;
+	private final PrologWorker worker;
+	private final BASETYPE type;
+	private final String owner;
+	/**
+	 * The name of the module in the worker.
+	 */
+	private final Atom module;
+
+	/**
+	 * @param state
+	 *            The mental state that created this database.
+	 * @param worker
+	 *            The worker that stores this database.
+	 * @param type
+	 *            The type of this database.
+	 * @param owner
+	 *            The name of the agent that owns this database.
+	 */
+	public ShardedDatabase(ShardedMentalState state, PrologWorker worker,
+			BASETYPE type, String owner) {
+		this.state = state;
+		this.worker = worker;
+		this.type = type;
+		this.owner = owner;
+		this.module = new Atom(type.name().toLowerCase() + "_" + owner + "_"
+				+ counter.incrementAndGet());
+	}
+
+	@Override
+	public String getName() {
+		return this.module.name();
+	}
+
+	/**
+	 * @return The name of the module of this database in the worker.
+	 */
+	public Atom getModule() {
+		return this.module;
+	}
+
+	public BASETYPE getType() {
+		return this.type;
+	}
+
+	public String getOwner() {
+		return this.owner;
+	}
+
+	public PrologWorker getWorker() {
+		return this.worker;
+	}
+
+	@Override
+	public Set<Substitution> query(Query query) throws KRQueryFailedException {
+		long start = startTiming();
+		Term goal = ((PrologQuery) query).getTerm();
+		Set<String> variables = new LinkedHashSet<>();
+		JavaDatabase.getVariables(goal, variables);
+		List<Term> values = new ArrayList<>(variables.size());
+		for (String variable : variables) {
+			values.add(new Variable(variable));
+		}
+		Term template = JPLUtils.termsToList(values);
+		Set<Substitution> result = new LinkedHashSet<>();
+		for (Term solution : this.worker.query(template, qualify(goal))) {
+			List<Term> bindings = JPLUtils.getOperands(".", solution);
+			Map<String, Term> answer = new HashMap<>();
+			int i = 0;
+			for (String variable : variables) {
+				answer.put(variable, bindings.get(i++));
+			}
+			result.add(new PrologSubstitution(answer));
+		}
+		recordTime("query", start);
+		return result;
+	}
+
+	/**
+	 * Finds all solutions of a goal in the module of this database.
+	 *
+	 * @param template
+	 *            The term that is returned for each solution.
+	 * @param goal
+	 *            The goal.
+	 * @return The instance of the template for each solution.
+	 * @throws KRQueryFailedException
+	 */
+	public List<Term> solve(Term template, Term goal)
+			throws KRQueryFailedException {
+		return this.worker.query(template, qualify(goal));
+	}
+
+	@Override
+	public void insert(Update update) throws KRDatabaseException {
+		update(update.getAddList(), update.getDeleteList());
+	}
+
+	@Override
+	public void insert(DatabaseFormula formula) throws KRDatabaseException {
+		insert(((PrologDBFormula) formula).getTerm());
+	}
+
+	@Override
+	public void delete(Update update) throws KRDatabaseException {
+		update(update.getDeleteList(), update.getAddList());
+	}
+
+	@Override
+	public void delete(DatabaseFormula formula) throws KRDatabaseException {
+		delete(((PrologDBFormula) formula).getTerm());
+	}
+
+	/**
+	 * Adds a fact or clause.
+	 *
+	 * @param term
+	 *            The fact or clause.
+	 * @throws KRDatabaseException
+	 */
+	public void insert(Term term) throws KRDatabaseException {
+		long start = startTiming();
+		run(JPLUtils.createCompound("assertz", qualify(term)));
+		recordTime("insert", start);
+	}
+
+	/**
+	 * Removes a fact or clause, if present.
+	 *
+	 * @param term
+	 *            The fact or clause.
+	 * @throws KRDatabaseException
+	 */
+	public void delete(Term term) throws KRDatabaseException {
+		long start = startTiming();
+		run(JPLUtils.createCompound("ignore",
+				JPLUtils.createCompound("retract", qualify(term))));
+		recordTime("delete", start);
+	}
+
+	/**
+	 * Adds and removes facts or clauses in a single request. The removed
+	 * formulas are removed first.
+	 *
+	 * @param added
+	 *            The formulas that are added.
+	 * @param removed
+	 *            The formulas that are removed.
+	 * @throws KRDatabaseException
+	 */
+	public void update(List<DatabaseFormula> added,
+			List<DatabaseFormula> removed) throws KRDatabaseException {
+		List<Term> addedTerms = new ArrayList<>(added.size());
+		for (DatabaseFormula formula : added) {
+			addedTerms.add(((PrologDBFormula) formula).getTerm());
+		}
+		List<Term> removedTerms = new ArrayList<>(removed.size());
+		for (DatabaseFormula formula : removed) {
+			removedTerms.add(((PrologDBFormula) formula).getTerm());
+		}
+		updateAll(addedTerms, removedTerms);
+	}
+
+	/**
+	 * Adds and removes facts or clauses in a single request. The removed
+	 * terms are removed first.
+	 *
+	 * @param added
+	 *            The terms that are added.
+	 * @param removed
+	 *            The terms that are removed; terms that are not present are
+	 *            ignored.
+	 * @throws KRDatabaseException
+	 */
+	public void updateAll(List<Term> added, List<Term> removed)
+			throws KRDatabaseException {
+		if (added.isEmpty() && removed.isEmpty()) {
+			return;
+		}
+		long start = startTiming();
+		Variable formula = new Variable("Formula");
+		Term retract = JPLUtils.createCompound("forall", JPLUtils
+				.createCompound("member", formula,
+						JPLUtils.termsToList(removed)), JPLUtils
+				.createCompound("ignore", JPLUtils.createCompound("retract",
+						qualify(formula))));
+		Term assertz = JPLUtils.createCompound("forall", JPLUtils
+				.createCompound("member", formula, JPLUtils.termsToList(added)),
+				JPLUtils.createCompound("assertz", qualify(formula)));
+		run(JPLUtils.createCompound(",", retract, assertz));
+		recordTime(added.isEmpty() ? "delete" : "insert", start);
+	}
+
+	/**
+	 * Removes all local clauses from the module of this database, and
+	 * removes this database from its mental state.
+	 */
+	@Override
+	public void destroy() throws KRDatabaseException {
+		this.state.removeDatabase(this);
+		Variable head = new Variable("Head");
+		Term predicate = qualify(head);
+		Term local = JPLUtils.createCompound(",", JPLUtils.createCompound(
+				"current_predicate", new Variable("_"), predicate), JPLUtils
+				.createCompound("\\+", JPLUtils.createCompound(
+						"predicate_property", predicate, JPLUtils
+								.createCompound("imported_from",
+										new Variable("_")))));
+		run(JPLUtils.createCompound("forall", local,
+				JPLUtils.createCompound("retractall", predicate)));
+	}
+
+	/**
+	 * Runs a goal once in the worker.
+	 *
+	 * @param goal
+	 *            A goal; should qualify predicates with the module of this
+	 *            database.
+	 * @throws KRDatabaseException
+	 *             If the goal raised an exception or failed.
+	 */
+	void run(Term goal) throws KRDatabaseException {
+		List<Term> solutions;
+		try {
+			solutions = this.worker.query(new Atom("true"),
+					JPLUtils.createCompound("once", goal));
+		} catch (KRQueryFailedException e) {
+			throw new KRDatabaseException("unable to update " + getName(), e);
+		}
+		if (solutions.isEmpty()) {
+			throw new KRDatabaseException("update " + goal + " of "
+					+ getName() + " failed");
+		}
+	}
+
+	private Term qualify(Term term) {
+		return JPLUtils.createCompound(":", this.module, term);
+	}
+
+	/**
+	 * @return The current time if operations are timed, or 0 if the metrics
+	 *         of the mental state are disabled.
+	 */
+	private long startTiming() {
+		return this.state.getMetrics().isEnabled() ? System.nanoTime() : 0;
+	}
+
+	/**
+	 * Reports the time an operation has taken since {@link #startTiming()},
+	 * unless operations are not timed.
+	 */
+	private void recordTime(String operation, long start) {
+		if (start != 0) {
+			this.state.getMetrics().record(operation, this.type, this.owner,
+					System.nanoTime() - start);
+		}
+	}
+}
@@ -0,0 +1,624 @@
+/**
+ * Knowledge Representation Tools. Copyright (C) 2014 Koen Hindriks.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package swiPrologMentalState;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import jpl.Atom;
+import jpl.Variable;
+import krTools.KRInterface;
+import krTools.database.Database;
+import krTools.errors.exceptions.KRDatabaseException;
+import krTools.errors.exceptions.KRInitFailedException;
+import krTools.errors.exceptions.KRQueryFailedException;
+import krTools.language.DatabaseFormula;
+import krTools.language.Term;
+import krTools.language.Update;
+import languageTools.program.agent.AgentId;
+import languageTools.program.agent.AgentProgram;
+import languageTools.program.agent.actions.UserSpecAction;
+import languageTools.program.agent.msg.Message;
+import mentalState.BASETYPE;
+import mentalState.DependencyGraph;
+import mentalState.MentalState;
+import mentalState.MentalStateMetrics;
+import mentalState.NoMetrics;
+import swiprolog.SWIPrologInterface;
+import swiprolog.language.JPLUtils;
+import swiprolog.language.PrologDBFormula;
+import swiprolog.language.PrologUpdate;
+import eis.iilang.Action;
+import eis.iilang.Parameter;
+import eis.iilang.Percept;
+
+/**
+ * <p>
+ * A {@link MentalState} that spreads the databases of agents over several
+ * local SWI Prolog processes, see {@link PrologWorker}, instead of storing
+ * all databases in the single Prolog engine embedded in the JVM. The workers
+ * are shared by all sharded mental states. Each agent is assigned a worker
+ * when its first database is created, in turn, so agents that run the same
+ * program are spread over the workers as well. All databases of an agent are
+ * stored by the same worker, so the percept base and mailbox of an agent can
+ * be imported into its belief base as in the {@link SwiPrologMentalState}.
+ * Conversions are the same as those of the {@link SwiPrologMentalState}.
+ * </p>
+ * <p>
+ * Workers are started when the first database is created and stopped by
+ * {@link #shutdown()}. The number of workers, the SWI Prolog executable and
+ * the timeout should be set before that. This mental state is registered in
+ * the {@link mentalstatefactory MentalStateFactory} as the {@link #VARIANT}
+ * variant of the SWI Prolog interface.
+ * </p>
+ */
+public class ShardedMentalState implements MentalState {
+	/**
+	 * The name of this implementation in the mental state factory.
+	 */
+	public static final String VARIANT = "sharded";
+
+	/**
+	 * The workers, shared by all sharded mental states; started on first
+	 * use.
+	 */
+	private static final List<PrologWorker> workers = new ArrayList<>();
+	private static int shards = Runtime.getRuntime().availableProcessors();
+	private static String executable = "swipl";
+	private static long timeout = 60000;
+	/**
+	 * The worker that is assigned to the next agent.
+	 */
+	private static int next = 0;
+
+	/**
+	 * Handles all conversions, and computes dynamic declarations.
+	 */
+	private final SwiPrologMentalState language = new SwiPrologMentalState();
+	/**
+	 * The databases of each agent.
+	 */
+	private final Map<String, List<ShardedDatabase>> databases = new HashMap<>();
+	/**
+	 * The worker of each agent.
+	 */
+	private final Map<String, PrologWorker> assignments = new HashMap<>();
+	/**
+	 * Serializes the creation of the databases of each agent, so agents can
+	 * create their databases in parallel.
+	 */
+	private final Map<String, Object> locks = new HashMap<>();
+	/**
+	 * The knowledge of each agent.
+	 */
+	private final Map<String, Collection<DatabaseFormula>> knowledge = new ConcurrentHashMap<>();
+	private final Map<String, Set<jpl.Term>> dynamicBeliefs = new ConcurrentHashMap<>();
+	private final Map<String, Set<jpl.Term>> dynamicGoals = new ConcurrentHashMap<>();
+	private MentalStateMetrics metrics = NoMetrics.INSTANCE;
+
+	@Override
+	public Class<? extends KRInterface> getKRInterface() {
+		return SWIPrologInterface.class;
+	}
+
+	/**
+	 * @return The number of worker processes.
+	 */
+	public static int getShards() {
+		synchronized (workers) {
+			return shards;
+		}
+	}
+
+	/**
+	 * Sets the number of worker processes; should be called before any
+	 * database is created.
+	 *
+	 * @param shards
+	 *            The number of workers; at least 1. The default is the number
+	 *            of available processors.
+	 */
+	public static void setShards(int shards) {
+		if (shards < 1) {
+			throw new IllegalArgumentException("at least one shard is needed");
+		}
+		synchronized (workers) {
+			if (!workers.isEmpty()) {
+				throw new IllegalStateException("workers have been started");
+			}
+			ShardedMentalState.shards = shards;
+		}
+	}
+
+	/**
+	 * Sets the SWI Prolog executable that is used to start workers; should be
+	 * called before any database is created.
+	 *
+	 * @param executable
+	 *            The name or path of the executable. The default is swipl.
+	 */
+	public static void setExecutable(String executable) {
+		synchronized (workers) {
+			ShardedMentalState.executable = executable;
+		}
+	}
+
+	/**
+	 * Sets how long a request may take before the worker that handles it is
+	 * considered to hang; should be called before any database is created.
+	 *
+	 * @param timeout
+	 *            The timeout in milliseconds, or 0 to wait forever. The
+	 *            default is one minute.
+	 */
+	public static void setTimeout(long timeout) {
+		if (timeout < 0) {
+			throw new IllegalArgumentException("timeout should not be negative");
+		}
+		synchronized (workers) {
+			ShardedMentalState.timeout = timeout;
+		}
+	}
+
+	/**
+	 * @return The workers that have been started, in order of their id.
+	 */
+	public static List<PrologWorker> getWorkers() {
+		synchronized (workers) {
+			return Collections.unmodifiableList(new ArrayList<>(workers));
+		}
+	}
+
+	/**
+	 * @param agent
+	 *            The name of an agent.
+	 * @return The worker that stores the databases of the agent; if the agent
+	 *         has no worker yet, or has no databases and its worker has been
+	 *         killed, the next worker in turn is assigned to it.
+	 * @throws KRInitFailedException
+	 *             If the workers could not be started.
+	 */
+	public PrologWorker getWorker(String agent) throws KRInitFailedException {
+		synchronized (getLock(agent)) {
+			PrologWorker worker;
+			boolean empty;
+			synchronized (this.databases) {
+				worker = this.assignments.get(agent);
+				empty = !this.databases.containsKey(agent);
+			}
+			// An agent whose worker was killed gets a new one once its old
+			// databases have been destroyed.
+			if (worker == null || (!worker.isAlive() && empty)) {
+				worker = nextWorker();
+				synchronized (this.databases) {
+					this.assignments.put(agent, worker);
+				}
+			}
+			return worker;
+		}
+	}
+
+	private static PrologWorker nextWorker() throws KRInitFailedException {
+		synchronized (workers) {
+			if (workers.isEmpty()) {
+				for (int i = 0; i < shards; i++) {
+					workers.add(new PrologWorker(i, executable, timeout));
+				}
+				next = 0;
+			}
+			PrologWorker worker = workers.get(next);
+			if (!worker.isAlive()) {
+				// The worker has been killed, e.g. after a timeout; its
+				// agents have lost their databases, but new agents get a
+				// fresh process.
+				worker = new PrologWorker(worker.getId(), executable, timeout);
+				workers.set(next, worker);
+			}
+			next = (next + 1) % workers.size();
+			return worker;
+		}
+	}
+
+	/**
+	 * Stops all workers, also those used by other sharded mental states. All
+	 * databases are lost; new databases start new workers.
+	 */
+	public void shutdown() {
+		synchronized (workers) {
+			for (PrologWorker worker : workers) {
+				worker.destroy();
+			}
+			workers.clear();
+		}
+		synchronized (this.databases) {
+			this.databases.clear();
+			this.assignments.clear();
+			this.locks.clear();
+			this.knowledge.clear();
+		}
+	}
+
+	@Override
+	public Term convert(Parameter parameter) {
+		return this.language.convert(parameter);
+	}
+
+	@Override
+	public Parameter convert(Term term) {
+		return this.language.convert(term);
+	}
+
+	@Override
+	public Term makeList(List<Term> termList) {
+		return this.language.makeList(termList);
+	}
+
+	@Override
+	public Action convert(UserSpecAction action) {
+		return this.language.convert(action);
+	}
+
+	@Override
+	public Update filterMailUpdates(Update update, boolean selectMails) {
+		return this.language.filterMailUpdates(update, selectMails);
+	}
+
+	@Override
+	public Database makeDatabase(BASETYPE type,
+			Collection<DatabaseFormula> content, AgentProgram agent)
+			throws KRInitFailedException, KRDatabaseException,
+			KRQueryFailedException {
+		if (agent == null) {
+			throw new NullPointerException("agent=null");
+		}
+		String name = agent.getSourceFile().getName();
+		long start = startTiming();
+		ShardedDatabase database;
+		// Only the agent's own lock is held during requests to its worker.
+		synchronized (getLock(name)) {
+			if (type != BASETYPE.GOALBASE && getDatabase(name, type) != null) {
+				throw new KRInitFailedException("attempt to add second " + type);
+			}
+			if (!this.dynamicBeliefs.containsKey(name)) {
+				this.dynamicBeliefs.put(name,
+						this.language.getBeliefBaseDeclarations(agent));
+				this.dynamicGoals.put(name,
+						this.language.getGoalBaseDeclarations(agent));
+			}
+			database = new ShardedDatabase(this, getWorker(name), type, name);
+			switch (type) {
+			case KNOWLEDGEBASE:
+				// Knowledge is copied into belief and goal bases.
+				this.knowledge.put(name, content);
+				break;
+			case BELIEFBASE:
+				declareDynamic(database, this.dynamicBeliefs.get(name));
+				add(database, content);
+				add(database, this.knowledge.get(name));
+				importInto(database, getDatabase(name, BASETYPE.PERCEPTBASE));
+				importInto(database, getDatabase(name, BASETYPE.MAILBOX));
+				break;
+			case GOALBASE:
+				declareDynamic(database, this.dynamicGoals.get(name));
+				add(database, content);
+				add(database, this.knowledge.get(name));
+				break;
+			case MAILBOX:
+				export(database, "received", 2);
+				export(database, "sent", 2);
+				importInto(getDatabase(name, BASETYPE.BELIEFBASE), database);
+				break;
+			case PERCEPTBASE:
+				export(database, "percept", 1);
+				export(database, "percept", 2);
+				importInto(getDatabase(name, BASETYPE.BELIEFBASE), database);
+				break;
+			default:
+				throw new KRInitFailedException("the sharded mental state does "
+						+ "not support databases of type " + type);
+			}
+			synchronized (this.databases) {
+				List<ShardedDatabase> list = this.databases.get(name);
+				if (list == null) {
+					list = new ArrayList<>();
+					this.databases.put(name, list);
+				}
+				list.add(database);
+			}
+		}
+		recordTime("makeDatabase", type, name, start);
+		return database;
+	}
+
+	/**
+	 * Removes a database that is destroyed, so that a new database of its
+	 * type can be created for its agent.
+	 *
+	 * @param database
+	 *            The database.
+	 */
+	void removeDatabase(ShardedDatabase database) {
+		synchronized (this.databases) {
+			List<ShardedDatabase> list = this.databases.get(database
+					.getOwner());
+			if (list != null && list.remove(database) && list.isEmpty()) {
+				this.databases.remove(database.getOwner());
+			}
+		}
+	}
+
+	/**
+	 * @return The object that serializes the creation of the databases of an
+	 *         agent.
+	 */
+	private Object getLock(String agent) {
+		synchronized (this.databases) {
+			Object lock = this.locks.get(agent);
+			if (lock == null) {
+				lock = new Object();
+				this.locks.put(agent, lock);
+			}
+			return lock;
+		}
+	}
+
+	/**
+	 * Returns a database of a particular type associated with a given agent;
+	 * for goal bases, the first one that was created.
+	 *
+	 * @param agent
+	 *            The name of an agent.
+	 * @param type
+	 *            The type that is requested.
+	 * @return The database, or {@code null} if no such database exists.
+	 */
+	public ShardedDatabase getDatabase(String agent, BASETYPE type) {
+		synchronized (this.databases) {
+			List<ShardedDatabase> list = this.databases.get(agent);
+			if (list != null) {
+				for (ShardedDatabase database : list) {
+					if (database.getType() == type) {
+						return database;
+					}
+				}
+			}
+			return null;
+		}
+	}
+
+	@Override
+	public Collection<String> getReceiversOfMessage(Database database,
+			Message message) throws KRQueryFailedException {
+		ShardedDatabase sharddb = (ShardedDatabase) database;
+		Variable recipient = new Variable("Recipient");
+		jpl.Term sent = JPLUtils.createCompound("sent", recipient,
+				((PrologDBFormula) message.getContent()).getTerm());
+		long start = startTiming();
+		List<jpl.Term> solutions = sharddb.solve(recipient, sent);
+		recordTime("getReceiversOfMessage", sharddb.getType(), sharddb.getOwner(),
+				start);
+		Set<String> names = new LinkedHashSet<>();
+		for (jpl.Term solution : solutions) {
+			names.add(solution.toString());
+		}
+		return names;
+	}
+
+	@Override
+	public Set<DatabaseFormula> insert(Database database, Message message,
+			boolean received) throws KRDatabaseException {
+		ShardedDatabase sharddb = (ShardedDatabase) database;
+		List<jpl.Term> facts = new ArrayList<>();
+		if (received) {
+			facts.add(getMail(message, false, message.getSender()));
+		} else {
+			for (AgentId receiver : message.getReceivers()) {
+				facts.add(getMail(message, true, receiver));
+			}
+		}
+		sharddb.updateAll(facts, Collections.<jpl.Term> emptyList());
+		return toFormulas(facts);
+	}
+
+	@Override
+	public DatabaseFormula insert(Database database, Percept percept)
+			throws KRDatabaseException {
+		jpl.Term fact = JPLUtils.createCompound("percept",
+				this.language.perceptToTerm(percept));
+		((ShardedDatabase) database).insert(fact);
+		return new PrologDBFormula(fact, null);
+	}
+
+	@Override
+	public DatabaseFormula delete(Database database, Percept percept)
+			throws KRDatabaseException {
+		jpl.Term fact = JPLUtils.createCompound("percept",
+				this.language.perceptToTerm(percept));
+		((ShardedDatabase) database).delete(fact);
+		return new PrologDBFormula(fact, null);
+	}
+
+	@Override
+	public Set<DatabaseFormula> updateAgentFact(Database database,
+			boolean insert, AgentId id, boolean me) throws KRDatabaseException {
+		List<jpl.Term> facts = new ArrayList<>();
+		facts.add(JPLUtils.createCompound("agent", new Atom(id.getName())));
+		if (me) {
+			facts.add(JPLUtils.createCompound("me", new Atom(id.getName())));
+		}
+		update((ShardedDatabase) database, insert, facts);
+		return toFormulas(facts);
+	}
+
+	@Override
+	public Set<DatabaseFormula> updateAgentFacts(Database database,
+			boolean insert, Collection<AgentId> ids) throws KRDatabaseException {
+		List<jpl.Term> facts = new ArrayList<>(ids.size());
+		for (AgentId id : ids) {
+			facts.add(JPLUtils.createCompound("agent", new Atom(id.getName())));
+		}
+		update((ShardedDatabase) database, insert, facts);
+		return toFormulas(facts);
+	}
+
+	@Override
+	public Update convert(Message message, boolean isSent, AgentId receiver) {
+		return this.language.convert(message, isSent, receiver);
+	}
+
+	/**
+	 * @return The metrics that operations are reported to.
+	 */
+	public MentalStateMetrics getMetrics() {
+		return this.metrics;
+	}
+
+	@Override
+	public void setMetrics(MentalStateMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	@Override
+	public DependencyGraph<?> createDependencyGraph() {
+		return this.language.createDependencyGraph();
+	}
+
+	private jpl.Term getMail(Message message, boolean sent, AgentId other) {
+		return ((PrologUpdate) this.language.convert(message, sent, other))
+				.getTerm();
+	}
+
+	private static void update(ShardedDatabase database, boolean insert,
+			List<jpl.Term> facts) throws KRDatabaseException {
+		List<jpl.Term> none = Collections.emptyList();
+		if (insert) {
+			database.updateAll(facts, none);
+		} else {
+			database.updateAll(none, facts);
+		}
+	}
+
+	private static Set<DatabaseFormula> toFormulas(List<jpl.Term> facts) {
+		Set<DatabaseFormula> formulas = new HashSet<>();
+		for (jpl.Term fact : facts) {
+			formulas.add(new PrologDBFormula(fact, null));
+		}
+		return formulas;
+	}
+
+	/**
+	 * Adds content in a single request.
+	 */
+	private static void add(ShardedDatabase database,
+			Collection<DatabaseFormula> content) throws KRDatabaseException {
+		if (content != null && !content.isEmpty()) {
+			database.update(new ArrayList<>(content),
+					Collections.<DatabaseFormula> emptyList());
+		}
+	}
+
+	/**
+	 * Declares predicates dynamic in a single request.
+	 */
+	private static void declareDynamic(ShardedDatabase database,
+			Set<jpl.Term> declarations) throws KRDatabaseException {
+		if (declarations == null || declarations.isEmpty()) {
+			return;
+		}
+		List<jpl.Term> goals = new ArrayList<>(declarations.size());
+		for (jpl.Term declaration : declarations) {
+			goals.add(JPLUtils.createCompound("dynamic", JPLUtils
+					.createCompound(":", database.getModule(), declaration)));
+		}
+		database.run(JPLUtils.termsToConjunct(goals));
+	}
+
+	/**
+	 * Declares a predicate dynamic and exports it from the module of the
+	 * database, so it can be imported into a belief base.
+	 */
+	private static void export(ShardedDatabase database, String predicate,
+			int arity) throws KRDatabaseException {
+		jpl.Term indicator = JPLUtils.createCompound(":", database.getModule(),
+				JPLUtils.createCompound("/", new Atom(predicate),
+						new jpl.Integer(arity)));
+		database.run(JPLUtils.createCompound(",",
+				JPLUtils.createCompound("dynamic", indicator),
+				JPLUtils.createCompound(":", database.getModule(),
+						JPLUtils.createCompound("export", indicator))));
+	}
+
+	/**
+	 * Imports all predicates that a percept base or mailbox exports into a
+	 * belief base, if both exist.
+	 */
+	private static void importInto(ShardedDatabase beliefBase,
+			ShardedDatabase database) throws KRDatabaseException {
+		if (beliefBase == null || database == null) {
+			return;
+		}
+		jpl.Term imports;
+		if (database.getType() == BASETYPE.MAILBOX) {
+			imports = JPLUtils.createCompound(",",
+					importGoal(beliefBase, database, "received", 2),
+					importGoal(beliefBase, database, "sent", 2));
+		} else {
+			imports = JPLUtils.createCompound(",",
+					importGoal(beliefBase, database, "percept", 1),
+					importGoal(beliefBase, database, "percept", 2));
+		}
+		beliefBase.run(imports);
+	}
+
+	private static jpl.Term importGoal(ShardedDatabase beliefBase,
+			ShardedDatabase database, String predicate, int arity) {
+		jpl.Term indicator = JPLUtils.createCompound(":", database.getModule(),
+				JPLUtils.createCompound("/", new Atom(predicate),
+						new jpl.Integer(arity)));
+		return JPLUtils.createCompound(":", beliefBase.getModule(),
+				JPLUtils.createCompound("import", indicator));
+	}
+
+	/**
+	 * @return The current time if operations are timed, or 0 if the metrics
+	 *         are disabled.
+	 */
+	private long startTiming() {
+		return this.metrics.isEnabled() ? System.nanoTime() : 0;
+	}
+
+	/**
+	 * Reports the time an operation has taken since {@link #startTiming()},
+	 * unless operations are not timed.
+	 */
+	private void recordTime(String operation, BASETYPE type, String agent,
+			long start) {
+		if (start != 0) {
+			this.metrics.record(operation, type, agent, System.nanoTime()
+					- start);
+		}
+	}
+}
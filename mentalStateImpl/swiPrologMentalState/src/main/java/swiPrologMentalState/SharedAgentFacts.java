@@ -0,0 +1,226 @@
+/**
+ * Knowledge Representation Tools. Copyright (C) 2014 Koen Hindriks.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package swiPrologMentalState;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import jpl.Atom;
+import jpl.Term;
+import jpl.Variable;
+import krTools.errors.exceptions.KRDatabaseException;
+import krTools.errors.exceptions.KRQueryFailedException;
+import swiprolog.database.SWIPrologDatabase;
+import swiprolog.language.JPLUtils;
+
+/**
+ * <p>
+ * A single SWI Prolog module, shared by all agents in the process, that stores
+ * the agent/1 facts. Belief and goal bases import agent/1 from this module
+ * instead of storing their own copy of every agent fact, which means that an
+ * agent joining or leaving a multi-agent system requires a single update
+ * instead of one update per agent.
+ * </p>
+ * <p>
+ * As agent facts are still inserted and deleted per database, the module
+ * keeps a reference count per agent. An agent fact is only asserted for the
+ * first reference and retracted when the last reference is removed; all other
+ * updates do not involve Prolog at all.
+ * </p>
+ */
+public class SharedAgentFacts {
+	/**
+	 * The name of the shared module.
+	 */
+	private static final Atom MODULE = new Atom("goal_agent_facts");
+	/**
+	 * The number of databases that have inserted the agent fact for an agent.
+	 */
+	private static final Map<String, Integer> references = new HashMap<>();
+	/**
+	 * Whether the shared module has been set up.
+	 */
+	private static boolean created = false;
+
+	/**
+	 * Utility class; constructor is hidden.
+	 */
+	private SharedAgentFacts() {
+	}
+
+	/**
+	 * Imports agent/1 from the shared module into a database, creating the
+	 * shared module first if needed.
+	 *
+	 * @param database
+	 *            A belief or goal base.
+	 * @throws KRQueryFailedException
+	 */
+	public static void importInto(SWIPrologDatabase database)
+			throws KRQueryFailedException {
+		Term agent = JPLUtils.createCompound("agent", new Variable("_"));
+		Term shared_agent = JPLUtils.createCompound(":", MODULE, agent);
+		synchronized (references) {
+			if (!created) {
+				PrologCalls.rawquery(JPLUtils.createCompound("dynamic",
+						shared_agent));
+				PrologCalls.rawquery(JPLUtils.createCompound(":", MODULE,
+						JPLUtils.createCompound("export", shared_agent)));
+				created = true;
+			}
+		}
+		Term import_agent = JPLUtils.createCompound("import", shared_agent);
+		PrologCalls.rawquery(JPLUtils.createCompound(",",
+				new Atom("true"), JPLUtils.createCompound(":",
+						database.getJPLName(), import_agent)));
+	}
+
+	/**
+	 * Adds a reference to the agent fact of an agent.
+	 *
+	 * @param name
+	 *            The name of the agent.
+	 * @throws KRDatabaseException
+	 */
+	public static void insert(String name) throws KRDatabaseException {
+		synchronized (references) {
+			Integer count = references.get(name);
+			if (count == null) {
+				update("assertz", name);
+				references.put(name, 1);
+			} else {
+				references.put(name, count + 1);
+			}
+		}
+	}
+
+	/**
+	 * Removes a reference to the agent fact of an agent.
+	 *
+	 * @param name
+	 *            The name of the agent.
+	 * @throws KRDatabaseException
+	 */
+	public static void delete(String name) throws KRDatabaseException {
+		synchronized (references) {
+			Integer count = references.get(name);
+			if (count == null) {
+				return;
+			} else if (count == 1) {
+				update("retract", name);
+				references.remove(name);
+			} else {
+				references.put(name, count - 1);
+			}
+		}
+	}
+
+	/**
+	 * Adds a reference to the agent facts of a group of agents. All facts
+	 * that need to be asserted are asserted in a single call.
+	 *
+	 * @param names
+	 *            The names of the agents.
+	 * @throws KRDatabaseException
+	 */
+	public static void insert(Collection<String> names)
+			throws KRDatabaseException {
+		synchronized (references) {
+			List<Term> added = new LinkedList<>();
+			for (String name : names) {
+				Integer count = references.get(name);
+				if (count == null) {
+					added.add(new Atom(name));
+					references.put(name, 1);
+				} else {
+					references.put(name, count + 1);
+				}
+			}
+			if (!added.isEmpty()) {
+				updateAll("assertz", added);
+			}
+		}
+	}
+
+	/**
+	 * Removes a reference to the agent facts of a group of agents. All facts
+	 * that need to be retracted are retracted in a single call.
+	 *
+	 * @param names
+	 *            The names of the agents.
+	 * @throws KRDatabaseException
+	 */
+	public static void delete(Collection<String> names)
+			throws KRDatabaseException {
+		synchronized (references) {
+			List<Term> removed = new LinkedList<>();
+			for (String name : names) {
+				Integer count = references.get(name);
+				if (count == null) {
+					continue;
+				} else if (count == 1) {
+					removed.add(new Atom(name));
+					references.remove(name);
+				} else {
+					references.put(name, count - 1);
+				}
+			}
+			if (!removed.isEmpty()) {
+				updateAll("retract", removed);
+			}
+		}
+	}
+
+	/**
+	 * Asserts or retracts the agent facts for a list of agent names in a
+	 * single call.
+	 */
+	private static void updateAll(String operation, List<Term> names)
+			throws KRDatabaseException {
+		Variable name = new Variable("Name");
+		Term agent = JPLUtils.createCompound("agent", name);
+		Term member = JPLUtils.createCompound("member", name,
+				JPLUtils.termsToList(names));
+		try {
+			PrologCalls.rawquery(JPLUtils.createCompound("forall",
+					member, JPLUtils.createCompound(operation,
+							JPLUtils.createCompound(":", MODULE, agent))));
+		} catch (KRQueryFailedException e) {
+			throw new KRDatabaseException("unable to " + operation + " "
+					+ names.size() + " agent facts in " + MODULE.name(), e);
+		}
+	}
+
+	/**
+	 * Asserts or retracts an agent fact in the shared module.
+	 */
+	private static void update(String operation, String name)
+			throws KRDatabaseException {
+		Term agent = JPLUtils.createCompound("agent", new Atom(name));
+		try {
+			PrologCalls.rawquery(JPLUtils.createCompound(operation,
+					JPLUtils.createCompound(":", MODULE, agent)));
+		} catch (KRQueryFailedException e) {
+			throw new KRDatabaseException("unable to " + operation + " "
+					+ agent + " in " + MODULE.name(), e);
+		}
+	}
+}
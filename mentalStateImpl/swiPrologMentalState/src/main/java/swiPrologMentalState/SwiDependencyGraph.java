@@ -107,6 +107,16 @@ public class SwiDependencyGraph extends DependencyGraph<PrologTerm> {
 		}
 	}
 
+	/**
+	 * @param signature
+	 *            A signature name/arity.
+	 * @return The node for the signature, or {@code null} if the graph does
+	 *         not contain it.
+	 */
+	public Node<PrologTerm> getNode(String signature) {
+		return super.graph.get(signature);
+	}
+
 	/**
 	 * Creates nodes for terms, if not already present. Note that the ":-/2"
 	 * operator is taken care of by
@@ -168,7 +178,8 @@ public class SwiDependencyGraph extends DependencyGraph<PrologTerm> {
 		List<jpl.Term> terms = new ArrayList<jpl.Term>();
 
 		// If we need to unpack the operators below, we're dealing with a query.
-		if (signature.equals("not/1")) {
+		if (signature.equals("not/1") || signature.equals("\\+/1")
+				|| signature.equals("once/1") || signature.equals("ignore/1")) {
 			terms.addAll(unpack(term.arg(1)));
 		} else if (signature.equals("include/3")) {
 			/*
@@ -181,6 +192,7 @@ public class SwiDependencyGraph extends DependencyGraph<PrologTerm> {
 					new jpl.Term[] { ANON_VAR });
 			terms.add(stubfunc);
 		} else if (signature.equals(";/2") || signature.equals(",/2")
+				|| signature.equals("->/2") || signature.equals("*->/2")
 				|| signature.equals("forall/2")) {
 			// Unpack the conjunction, disjunction and forall /2-operators.
 			for (jpl.Term argument : term.args()) {
@@ -189,6 +201,7 @@ public class SwiDependencyGraph extends DependencyGraph<PrologTerm> {
 			// findall, setof aggregate and aggregate_all /3-operators only
 			// have a query in the second argument.
 		} else if (signature.equals("findall/3") || signature.equals("setof/3")
+				|| signature.equals("bagof/3")
 				|| signature.equals("aggregate/3")
 				|| signature.equals("aggregate_all/3")) {
 			terms.addAll(unpack(term.arg(2)));
@@ -19,14 +19,18 @@ package swiPrologMentalState;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 
 import jpl.Atom;
 import jpl.Compound;
@@ -60,6 +64,8 @@ import languageTools.program.agent.rules.Rule;
 import mentalState.BASETYPE;
 import mentalState.DependencyGraph;
 import mentalState.MentalState;
+import mentalState.MentalStateMetrics;
+import mentalState.NoMetrics;
 import swiprolog.SWIPrologInterface;
 import swiprolog.database.SWIPrologDatabase;
 import swiprolog.language.JPLUtils;
@@ -84,6 +90,10 @@ import eis.iilang.TruthValue;
  */
 public class SwiPrologMentalState implements MentalState {
 	private static final jpl.Term ANON_VAR = new Variable("_");
+	/**
+	 * The maximum number of knowledge bases for which a memo is kept.
+	 */
+	private static final int MAX_KNOWLEDGE_MEMOS = 16;
 	/**
 	 * Contains all databases that are maintained by SWI Prolog. The key is the
 	 * owner of the database. The value is a list of databases associated with
@@ -98,6 +108,11 @@ public class SwiPrologMentalState implements MentalState {
 	 * is the name of the agent.
 	 */
 	private final Map<String, Collection<DatabaseFormula>> knowledge = new HashMap<>();
+	/**
+	 * The sequence number of the next database of each type of each agent,
+	 * see {@link TypedSWIPrologDatabase#getSequence()}.
+	 */
+	private final Map<String, Map<BASETYPE, Integer>> sequences = new HashMap<>();
 	/**
 	 * The set of dynamic declarations that need to be made when a new belief is
 	 * inserted by an agent. Indexed by agent names and initialized by
@@ -111,6 +126,85 @@ public class SwiPrologMentalState implements MentalState {
 	 */
 	private final Hashtable<String, Set<jpl.Term>> dynamicDeclarationsForGoals = new Hashtable<>();
 	private final Set<String> reserved = new LinkedHashSet<String>();
+	/**
+	 * The retention policy for mailboxes that are created.
+	 */
+	private MailboxRetentionPolicy mailboxRetention = MailboxRetentionPolicy.UNBOUNDED;
+	/**
+	 * Whether agent/1 facts are stored in a module shared by all agents, see
+	 * {@link SharedAgentFacts}.
+	 */
+	private boolean sharedAgentFacts = false;
+	/**
+	 * Whether mailboxes store messages to multiple receivers only once.
+	 */
+	private boolean compactBroadcasts = false;
+	/**
+	 * Whether percept bases store percepts in Java, see {@link PerceptIndex}.
+	 */
+	private boolean javaPercepts = false;
+	/**
+	 * The fraction of their intensity emotions keep per cycle, see
+	 * {@link EmotionIntensities}.
+	 */
+	private double emotionRetention = 0.9;
+	/**
+	 * The log that all updates are written to; {@code null} if updates are
+	 * not logged.
+	 */
+	private UpdateLog updateLog;
+	/**
+	 * The number of versions kept in the history of new belief bases; 0 if
+	 * no history is kept.
+	 */
+	private int beliefHistory = 0;
+	/**
+	 * The maximum number of cached queries per belief or goal base; 0 if
+	 * queries are not cached.
+	 */
+	private int queryCacheSize = 0;
+	/**
+	 * The maximum number of memoized queries per knowledge base; 0 if queries
+	 * on the knowledge base are not memoized.
+	 */
+	private int knowledgeMemoSize = 0;
+	/**
+	 * The memo of every knowledge base, by the canonical text of its clauses,
+	 * least recently used first; at most {@link #MAX_KNOWLEDGE_MEMOS}.
+	 */
+	private final Map<String, KnowledgeMemo> knowledgeMemos = new LinkedHashMap<String, KnowledgeMemo>(
+			16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(
+				Map.Entry<String, KnowledgeMemo> eldest) {
+			return size() > MAX_KNOWLEDGE_MEMOS;
+		}
+	};
+	/**
+	 * Whether recursive knowledge predicates are tabled in new belief and
+	 * goal bases.
+	 */
+	private boolean tabling = false;
+	/**
+	 * The metrics that operations are reported to.
+	 */
+	private MentalStateMetrics metrics = NoMetrics.INSTANCE;
+	/**
+	 * Minimum number of milliseconds between two samples of the memory usage
+	 * of the databases.
+	 */
+	private long usageSampleInterval = 1000;
+	/**
+	 * The most recent sample of the memory usage per agent and database type,
+	 * or {@code null} if no sample has been taken yet.
+	 */
+	private Map<String, Map<BASETYPE, ModuleUsage>> usageSample;
+	/**
+	 * The time at which {@link #usageSample} was taken.
+	 */
+	private long usageSampleTime;
 
 	@Override
 	public Class<? extends KRInterface> getKRInterface() {
@@ -272,130 +366,12 @@ public class SwiPrologMentalState implements MentalState {
 		}
 		final String name = agent.getSourceFile().getName();
 		if (!this.dynamicDeclarationsForBeliefBase.containsKey(name)) {
-			Set<jpl.Term> kbCalls = new LinkedHashSet<>();
-			Set<jpl.Term> dynDecl = new LinkedHashSet<>();
-			Set<jpl.Term> check = new LinkedHashSet<>();
-			Set<jpl.Term> bbDecl, kbDecl;
-
-			// GOAL reserved predicates that should not be declared dynamic.
-			// Represent as strings as Term does not implement hashcode/equal
-			// methods...
-			this.reserved.add("/(percept,2)");
-			this.reserved.add("/(percept,1)");
-			this.reserved.add("/(received,2)");
-			this.reserved.add("/(sent,2)");
-			// dynDecl.removeAll(reserved);
-
-			// ************ compute predicates for belief base **************/
-			/*
-			 * Add dynamic declarations to the belief base that do not occur in
-			 * the belief base or knowledge sections. The predicates that need
-			 * to be declared dynamically are those that occur in the adopt
-			 * action, and conditions in action rules (e.g. conditions of the
-			 * form bel(...), goal(...)), and those that occur in the
-			 * precondition of action specifications. Note that the dynamic
-			 * declarations are agent-specific. As the belief base is
-			 * implemented by a single module in SWI Prolog that is created at
-			 * 'compile time' this initialization has to be performed only once.
-			 */
-			// Add calls from bodies of clauses in the knowledge base
-			kbCalls = getCalls(agent.getAllKnowledge());
-			dynDecl.addAll(kbCalls);
-			// Add calls from bodies of clauses in the belief base
-			dynDecl.addAll(getCalls(agent.getAllBeliefs()));
-			// Add predicates used in goals in the goal base
-			for (Query goal : agent.getAllGoals()) {
-				dynDecl.addAll(getDeclarations(goal.toUpdate().getAddList()));
-			}
-			// Add predicates used in conditions from action rules on the belief
-			// base
-			dynDecl.addAll(getBBConditionDeclarationsFromProgram(agent));
-			// Add predicates used in a-goal or goal-a conditions from action
-			// rules
-			dynDecl.addAll(getGoalConditionsFromProgram(agent));
-			// Add predicates that occur in preconditions of user-specified
-			// actions
-			dynDecl.addAll(getPreConditionDeclarations(agent
-					.getAllActionSpecs()));
-			// Add predicates that occur in the built-in actions adopt,
-			// adoptOne,
-			// drop TODO and sendOnce
-			dynDecl.addAll(getDeclarationsFromProgram(agent));
-
-			// declared predicates in belief base are covered, and can be
-			// removed
-			bbDecl = getDeclarations(agent.getAllBeliefs());
-			// dynDecl.removeAll(bbDecl);
-			// declared predicates in knowledge base are covered, and can be
-			// removed
-			kbDecl = getDeclarations(agent.getAllKnowledge());
-			// dynDecl.removeAll(kbDecl);
-
-			// Store results for belief base
-			this.dynamicDeclarationsForBeliefBase.put(name, dynDecl);
-
-			// check for name clashes
-			check.addAll(bbDecl);
-			check.retainAll(kbDecl);
-			if (!check.isEmpty()) {
-				throw new KRInitFailedException(
-						"for agent "
-								+ name
-								+ " the belief section defines "
-								+ check.toString().substring(1,
-										check.toString().length() - 1)
-										+ " which "
-										+ (check.size() == 1 ? "has" : "have")
-										+ " been defined in the knowledge section already.\n"
-										+ "The SWI Prolog modules used would produce name clashes.");
-			}
+			this.dynamicDeclarationsForBeliefBase.put(name,
+					getBeliefBaseDeclarations(agent));
 		}
 		if (!this.dynamicDeclarationsForGoals.containsKey(name)) {
-			Set<jpl.Term> kbCalls = new LinkedHashSet<>();
-			Set<jpl.Term> dynDecl = new LinkedHashSet<>();
-			Set<jpl.Term> kbDecl;
-			// ************ compute predicates for goal base **************/
-			/*
-			 * Add dynamic declarations to the goal base that do not occur in
-			 * the goal base or knowledge sections in the program. The
-			 * predicates that need to be dynamically declared are those that
-			 * occur in e.g. adopt and drop actions (i.e. all built-in actions
-			 * that modify the goal base) and those that occur in
-			 * goal-conditions in action rules (e.g. conditions of the form
-			 * goal(...)). Note that the dynamic declarations are
-			 * agent-specific. As for each goal that is adopted by the agent a
-			 * new SWI Prolog database (module) is created at runtime, this
-			 * initialization also needs to be performed at runtime when such a
-			 * new module is created. To support this, a hash table is
-			 * introduced from agent names to sets of predicates that need to be
-			 * declared at runtime.
-			 */
-			// Add calls from bodies of clauses in the knowledge base
-			kbCalls = getCalls(agent.getAllKnowledge());
-			// Add calls from bodies of clauses in the knowledge base
-			dynDecl.addAll(kbCalls);
-			// Add calls from goal conditions that occur in action rules
-			dynDecl.addAll(getGoalConditionsFromProgram(agent));
-			// Add calls that result from built-in adopt, drop, and TODO
-			// adoptOne
-			// actions.
-			dynDecl.addAll(getDeclarationsFromProgram(agent));
-			/*
-			 * CHECK Also add the predicates used in the goal bases. Adding this
-			 * fixes 'undefined predicate' warnings when querying an unused goal
-			 * that _is_ defined in a goalbase
-			 */
-			for (Query goal : agent.getAllGoals()) {
-				dynDecl.addAll(getDeclarations(goal.toUpdate().getAddList()));
-			}
-
-			// declared predicates in knowledge base are covered, and can be
-			// removed
-			kbDecl = getDeclarations(agent.getAllKnowledge());
-			dynDecl.removeAll(kbDecl);
-
-			// Store results for goal base
-			this.dynamicDeclarationsForGoals.put(name, dynDecl);
+			this.dynamicDeclarationsForGoals.put(name,
+					getGoalBaseDeclarations(agent));
 		}
 
 		// Check whether an attempt is made to create multiple databases of the
@@ -406,7 +382,6 @@ public class SwiPrologMentalState implements MentalState {
 			for (TypedSWIPrologDatabase database : this.databases.get(name)) {
 				if (database.getType() == type) {
 					found = database;
-					break;
 				}
 			}
 		}
@@ -422,10 +397,13 @@ public class SwiPrologMentalState implements MentalState {
 
 		// Create new database of given type, content;
 		// use name as base name for name of database.
+		long start = startTiming();
 		TypedSWIPrologDatabase database = new TypedSWIPrologDatabase(this,
 				type, theory, name,
 				this.dynamicDeclarationsForBeliefBase.get(name),
 				this.dynamicDeclarationsForGoals.get(name));
+		database.setSequence(nextSequence(name, type));
+		recordTime("makeDatabase", type, name, start);
 		// Add database to list of databases maintained by SWI Prolog and
 		// associated with name.
 		if (this.databases.containsKey(name)) {
@@ -440,6 +418,194 @@ public class SwiPrologMentalState implements MentalState {
 		return database;
 	}
 
+	/**
+	 * @return The sequence number of a new database of a type of an agent:
+	 *         the number of databases of that type that were created for the
+	 *         agent before. Numbers are never reused, also not after a
+	 *         database has been destroyed.
+	 */
+	private int nextSequence(String agent, BASETYPE type) {
+		Map<BASETYPE, Integer> counters = this.sequences.get(agent);
+		if (counters == null) {
+			counters = new EnumMap<>(BASETYPE.class);
+			this.sequences.put(agent, counters);
+		}
+		Integer sequence = counters.get(type);
+		int next = sequence == null ? 0 : sequence;
+		counters.put(type, next + 1);
+		return next;
+	}
+
+	/**
+	 * Gives a database that has been restored from a snapshot the sequence
+	 * number it had when it was saved, see {@link MentalStateSnapshot}, so
+	 * that an update log recorded before the snapshot can be replayed onto
+	 * it. New databases of the agent get higher numbers.
+	 *
+	 * @param database
+	 *            The restored database.
+	 * @param sequence
+	 *            Its saved sequence number.
+	 */
+	void restoreSequence(TypedSWIPrologDatabase database, int sequence) {
+		database.setSequence(sequence);
+		Map<BASETYPE, Integer> counters = this.sequences.get(database
+				.getOwner());
+		Integer next = counters.get(database.getType());
+		if (next == null || next <= sequence) {
+			counters.put(database.getType(), sequence + 1);
+		}
+	}
+
+	/**
+	 * Computes the predicates that need to be declared dynamic in the belief
+	 * base of an agent.
+	 *
+	 * @param agent
+	 *            The agent program.
+	 * @return The dynamic declarations for the belief base.
+	 * @throws KRInitFailedException
+	 *             If the belief section defines predicates that have been
+	 *             defined in the knowledge section already.
+	 */
+	Set<jpl.Term> getBeliefBaseDeclarations(AgentProgram agent)
+			throws KRInitFailedException {
+		final String name = agent.getSourceFile().getName();
+		Set<jpl.Term> kbCalls = new LinkedHashSet<>();
+		Set<jpl.Term> dynDecl = new LinkedHashSet<>();
+		Set<jpl.Term> check = new LinkedHashSet<>();
+		Set<jpl.Term> bbDecl, kbDecl;
+
+		// GOAL reserved predicates that should not be declared dynamic.
+		// Represent as strings as Term does not implement hashcode/equal
+		// methods...
+		this.reserved.add("/(percept,2)");
+		this.reserved.add("/(percept,1)");
+		this.reserved.add("/(received,2)");
+		this.reserved.add("/(sent,2)");
+		// agent/1 is imported from the shared module instead.
+		if (this.sharedAgentFacts) {
+			this.reserved.add("/(agent,1)");
+		}
+		// dynDecl.removeAll(reserved);
+
+		// ************ compute predicates for belief base **************/
+		/*
+		 * Add dynamic declarations to the belief base that do not occur in
+		 * the belief base or knowledge sections. The predicates that need
+		 * to be declared dynamically are those that occur in the adopt
+		 * action, and conditions in action rules (e.g. conditions of the
+		 * form bel(...), goal(...)), and those that occur in the
+		 * precondition of action specifications. Note that the dynamic
+		 * declarations are agent-specific. As the belief base is
+		 * implemented by a single module in SWI Prolog that is created at
+		 * 'compile time' this initialization has to be performed only once.
+		 */
+		// Add calls from bodies of clauses in the knowledge base
+		kbCalls = getCalls(agent.getAllKnowledge());
+		dynDecl.addAll(kbCalls);
+		// Add calls from bodies of clauses in the belief base
+		dynDecl.addAll(getCalls(agent.getAllBeliefs()));
+		// Add predicates used in goals in the goal base
+		for (Query goal : agent.getAllGoals()) {
+			dynDecl.addAll(getDeclarations(goal.toUpdate().getAddList()));
+		}
+		// Add predicates used in conditions from action rules on the belief
+		// base
+		dynDecl.addAll(getBBConditionDeclarationsFromProgram(agent));
+		// Add predicates used in a-goal or goal-a conditions from action
+		// rules
+		dynDecl.addAll(getGoalConditionsFromProgram(agent));
+		// Add predicates that occur in preconditions of user-specified
+		// actions
+		dynDecl.addAll(getPreConditionDeclarations(agent
+				.getAllActionSpecs()));
+		// Add predicates that occur in the built-in actions adopt,
+		// adoptOne,
+		// drop TODO and sendOnce
+		dynDecl.addAll(getDeclarationsFromProgram(agent));
+
+		// declared predicates in belief base are covered, and can be
+		// removed
+		bbDecl = getDeclarations(agent.getAllBeliefs());
+		// dynDecl.removeAll(bbDecl);
+		// declared predicates in knowledge base are covered, and can be
+		// removed
+		kbDecl = getDeclarations(agent.getAllKnowledge());
+		// dynDecl.removeAll(kbDecl);
+
+		// check for name clashes
+		check.addAll(bbDecl);
+		check.retainAll(kbDecl);
+		if (!check.isEmpty()) {
+			throw new KRInitFailedException(
+					"for agent "
+							+ name
+							+ " the belief section defines "
+							+ check.toString().substring(1,
+									check.toString().length() - 1)
+									+ " which "
+									+ (check.size() == 1 ? "has" : "have")
+									+ " been defined in the knowledge section already.\n"
+									+ "The SWI Prolog modules used would produce name clashes.");
+		}
+		return dynDecl;
+	}
+
+	/**
+	 * Computes the predicates that need to be declared dynamic in each goal
+	 * base of an agent.
+	 *
+	 * @param agent
+	 *            The agent program.
+	 * @return The dynamic declarations for goal bases.
+	 */
+	Set<jpl.Term> getGoalBaseDeclarations(AgentProgram agent) {
+		Set<jpl.Term> kbCalls = new LinkedHashSet<>();
+		Set<jpl.Term> dynDecl = new LinkedHashSet<>();
+		Set<jpl.Term> kbDecl;
+		// ************ compute predicates for goal base **************/
+		/*
+		 * Add dynamic declarations to the goal base that do not occur in
+		 * the goal base or knowledge sections in the program. The
+		 * predicates that need to be dynamically declared are those that
+		 * occur in e.g. adopt and drop actions (i.e. all built-in actions
+		 * that modify the goal base) and those that occur in
+		 * goal-conditions in action rules (e.g. conditions of the form
+		 * goal(...)). Note that the dynamic declarations are
+		 * agent-specific. As for each goal that is adopted by the agent a
+		 * new SWI Prolog database (module) is created at runtime, this
+		 * initialization also needs to be performed at runtime when such a
+		 * new module is created. To support this, a hash table is
+		 * introduced from agent names to sets of predicates that need to be
+		 * declared at runtime.
+		 */
+		// Add calls from bodies of clauses in the knowledge base
+		kbCalls = getCalls(agent.getAllKnowledge());
+		// Add calls from bodies of clauses in the knowledge base
+		dynDecl.addAll(kbCalls);
+		// Add calls from goal conditions that occur in action rules
+		dynDecl.addAll(getGoalConditionsFromProgram(agent));
+		// Add calls that result from built-in adopt, drop, and TODO
+		// adoptOne
+		// actions.
+		dynDecl.addAll(getDeclarationsFromProgram(agent));
+		/*
+		 * CHECK Also add the predicates used in the goal bases. Adding this
+		 * fixes 'undefined predicate' warnings when querying an unused goal
+		 * that _is_ defined in a goalbase
+		 */
+		for (Query goal : agent.getAllGoals()) {
+			dynDecl.addAll(getDeclarations(goal.toUpdate().getAddList()));
+		}
+
+		// declared predicates in knowledge base are covered, and can be
+		// removed
+		kbDecl = getDeclarations(agent.getAllKnowledge());
+		dynDecl.removeAll(kbDecl);
+		return dynDecl;
+	}
+
 	/**
 	 * Internal use. Get the knowledge of some agent.
 	 *
@@ -451,6 +617,19 @@ public class SwiPrologMentalState implements MentalState {
 		return this.knowledge.get(agentname);
 	}
 
+	/**
+	 * @param agent
+	 *            The name of an agent.
+	 * @return All databases of the agent; empty if it has none.
+	 */
+	public Collection<TypedSWIPrologDatabase> getDatabases(String agent) {
+		if (this.databases.containsKey(agent)) {
+			return Collections.unmodifiableCollection(new ArrayList<>(
+					this.databases.get(agent)));
+		}
+		return Collections.emptySet();
+	}
+
 	/**
 	 * Returns a database of a particular type associated with a given agent.
 	 * <p>
@@ -477,6 +656,143 @@ public class SwiPrologMentalState implements MentalState {
 		return null;
 	}
 
+	/**
+	 * Returns the database of a particular type associated with a given agent
+	 * that was created after the given number of databases of that type.
+	 *
+	 * @param agent
+	 *            The name of an agent.
+	 * @param type
+	 *            The type that is requested.
+	 * @param sequence
+	 *            The sequence number of the database, see
+	 *            {@link TypedSWIPrologDatabase#getSequence()}; 0 for the
+	 *            first database of a type.
+	 * @return The database, or {@code null} if it does not exist.
+	 */
+	public TypedSWIPrologDatabase getDatabase(String agent, BASETYPE type,
+			int sequence) {
+		if (this.databases.containsKey(agent)) {
+			for (TypedSWIPrologDatabase database : this.databases.get(agent)) {
+				if (database.getType() == type
+						&& database.getSequence() == sequence) {
+					return database;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * <p>
+	 * Reloads the knowledge and belief sections of an agent program into the
+	 * live databases of the agent, without recreating these databases. The
+	 * formulas of the old and new version of each section are compared, and
+	 * only those that were removed are retracted and only those that were
+	 * added are asserted. These changes are applied to the current content of
+	 * each database, so beliefs that the agent has inserted or deleted while
+	 * running are neither asserted nor retracted a second time. Predicates
+	 * that need to be declared dynamic in the new version of the program but
+	 * not in the old version are declared in the belief base and in all goal
+	 * bases of the agent.
+	 * </p>
+	 * <p>
+	 * Changes to the knowledge section are applied to the belief base and to
+	 * each goal base, as these contain a copy of the knowledge. Changes to the
+	 * goal section are ignored as the goals of an agent that is running have
+	 * already been adopted. Note that clauses that are added are appended at
+	 * the end of their predicate definition.
+	 * </p>
+	 *
+	 * @param agent
+	 *            The new version of the agent program. Its source file is used
+	 *            to identify the databases that need to be updated.
+	 * @throws KRInitFailedException
+	 *             If no knowledge base has been created for the agent, or the
+	 *             new belief section defines predicates that have been defined
+	 *             in the knowledge section already.
+	 * @throws KRDatabaseException
+	 *             If a clause could not be retracted or asserted.
+	 * @throws KRQueryFailedException
+	 *             If a predicate could not be declared dynamic.
+	 */
+	public void reload(AgentProgram agent) throws KRInitFailedException,
+			KRDatabaseException, KRQueryFailedException {
+		final String name = agent.getSourceFile().getName();
+		Collection<DatabaseFormula> oldKnowledge = this.knowledge.get(name);
+		if (oldKnowledge == null) {
+			throw new KRInitFailedException("cannot reload agent " + name
+					+ " because its knowledge base has not been created");
+		}
+		Collection<DatabaseFormula> newKnowledge = agent.getAllKnowledge();
+
+		Set<jpl.Term> beliefDeclarations = getBeliefBaseDeclarations(agent);
+		Set<jpl.Term> newBeliefDeclarations = getNewDeclarations(
+				this.dynamicDeclarationsForBeliefBase.get(name),
+				beliefDeclarations);
+		this.dynamicDeclarationsForBeliefBase.put(name, beliefDeclarations);
+		Set<jpl.Term> goalDeclarations = getGoalBaseDeclarations(agent);
+		Set<jpl.Term> newGoalDeclarations = getNewDeclarations(
+				this.dynamicDeclarationsForGoals.get(name), goalDeclarations);
+		this.dynamicDeclarationsForGoals.put(name, goalDeclarations);
+
+		for (TypedSWIPrologDatabase database : this.databases.get(name)) {
+			switch (database.getType()) {
+			case KNOWLEDGEBASE:
+				// Knowledge is not stored in the knowledge base itself.
+				database.setContent(newKnowledge);
+				break;
+			case BELIEFBASE:
+				Collection<DatabaseFormula> oldBeliefs = new LinkedList<>(
+						database.getContent());
+				oldBeliefs.addAll(oldKnowledge);
+				Collection<DatabaseFormula> newBeliefs = new LinkedList<>(
+						agent.getAllBeliefs());
+				newBeliefs.addAll(newKnowledge);
+				database.reload(oldBeliefs, newBeliefs, newBeliefDeclarations);
+				database.setContent(agent.getAllBeliefs());
+				break;
+			case GOALBASE:
+				database.reload(oldKnowledge, newKnowledge,
+						newGoalDeclarations);
+				break;
+			default:
+				// Mailbox and percept base do not depend on the program.
+				break;
+			}
+		}
+		this.knowledge.put(name, newKnowledge);
+	}
+
+	/**
+	 * Returns the declarations that occur in a new set of declarations but not
+	 * in an old one. Declarations are compared by their string representation
+	 * as {@link jpl.Term} does not implement hashcode/equals.
+	 *
+	 * @param oldDeclarations
+	 *            The old declarations; may be {@code null}.
+	 * @param newDeclarations
+	 *            The new declarations.
+	 * @return The declarations in newDeclarations that are not in
+	 *         oldDeclarations.
+	 */
+	private Set<jpl.Term> getNewDeclarations(Set<jpl.Term> oldDeclarations,
+			Set<jpl.Term> newDeclarations) {
+		Set<String> old = new HashSet<>();
+		if (oldDeclarations != null) {
+			for (jpl.Term declaration : oldDeclarations) {
+				old.add(declaration.toString());
+			}
+		}
+		Set<jpl.Term> declarations = new LinkedHashSet<>();
+		for (jpl.Term declaration : newDeclarations) {
+			if (!old.contains(declaration.toString())) {
+				declarations.add(declaration);
+			}
+		}
+		return declarations;
+	}
+
 	/**
 	 * @author KH Jul08 DECLARATION HANDLING: code to extract info to perform
 	 *         right imports/exports and introduction of dynamic predicates for
@@ -743,21 +1059,468 @@ public class SwiPrologMentalState implements MentalState {
 		return names;
 	}
 
+	/**
+	 * @return The retention policy that is applied to new mailboxes.
+	 */
+	public MailboxRetentionPolicy getMailboxRetentionPolicy() {
+		return this.mailboxRetention;
+	}
+
+	/**
+	 * Sets the retention policy for mailboxes. The policy only applies to
+	 * mailboxes that are created after calling this method.
+	 *
+	 * @param policy
+	 *            The retention policy.
+	 */
+	public void setMailboxRetentionPolicy(MailboxRetentionPolicy policy) {
+		this.mailboxRetention = policy;
+	}
+
+	/**
+	 * @return {@code true} if agent/1 facts are stored in a module shared by
+	 *         all agents.
+	 */
+	public boolean isSharedAgentFacts() {
+		return this.sharedAgentFacts;
+	}
+
+	/**
+	 * Determines whether agent/1 facts are stored in a module shared by all
+	 * agents, see {@link SharedAgentFacts}, instead of in each belief base.
+	 * All agents in the process then see the same agent facts; me/1 facts are
+	 * still stored per agent. Should be set before any database is created.
+	 *
+	 * @param shared
+	 *            {@code true} to share agent/1 facts.
+	 */
+	public void setSharedAgentFacts(boolean shared) {
+		this.sharedAgentFacts = shared;
+	}
+
+	/**
+	 * @return {@code true} if new percept bases store percepts in Java.
+	 */
+	public boolean isJavaPercepts() {
+		return this.javaPercepts;
+	}
+
+	/**
+	 * Determines whether percept bases store their percepts in Java, indexed
+	 * by predicate and first argument, see {@link PerceptIndex}. Prolog then
+	 * only sees the percepts when the belief or percept base is queried, at
+	 * which point all changes since the previous query are passed in a single
+	 * call. Only applies to percept bases that are created after calling this
+	 * method.
+	 *
+	 * @param java
+	 *            {@code true} to store percepts in Java.
+	 */
+	public void setJavaPercepts(boolean java) {
+		this.javaPercepts = java;
+	}
+
+	/**
+	 * @return The log that updates are written to, or {@code null}.
+	 */
+	public UpdateLog getUpdateLog() {
+		return this.updateLog;
+	}
+
+	/**
+	 * Writes all later inserts and deletes on the databases of this mental
+	 * state to a log, from which they can be recovered with
+	 * {@link UpdateLog#replay(java.io.File, SwiPrologMentalState)}.
+	 *
+	 * @param log
+	 *            The log, or {@code null} to stop logging. The log is not
+	 *            closed by this mental state.
+	 */
+	public void setUpdateLog(UpdateLog log) {
+		this.updateLog = log;
+	}
+
+	/**
+	 * @return The maximum number of cached queries per new belief or goal
+	 *         base, or 0 if queries are not cached.
+	 */
+	public int getQueryCacheSize() {
+		return this.queryCacheSize;
+	}
+
+	/**
+	 * Caches the results of queries on belief and goal bases, see
+	 * {@link QueryCache}. A cached query is answered without calling Prolog
+	 * until a predicate it depends on is updated. Only applies to databases
+	 * that are created after calling this method.
+	 *
+	 * @param size
+	 *            The maximum number of cached queries per database; 0 to not
+	 *            cache queries.
+	 */
+	public void setQueryCacheSize(int size) {
+		if (size < 0) {
+			throw new IllegalArgumentException("cache size cannot be negative");
+		}
+		this.queryCacheSize = size;
+	}
+
+	/**
+	 * @return The maximum number of memoized queries per knowledge base, or 0
+	 *         if queries on the knowledge base are not memoized.
+	 */
+	public int getKnowledgeMemoSize() {
+		return this.knowledgeMemoSize;
+	}
+
+	/**
+	 * Memoizes the results of queries that only depend on the knowledge
+	 * base, see {@link KnowledgeMemo}. The memo is shared by all belief and
+	 * goal bases with the same knowledge, so a query is evaluated once for
+	 * all agents running a program. Only applies to databases that are
+	 * created after calling this method.
+	 *
+	 * @param size
+	 *            The maximum number of memoized queries per knowledge base; 0
+	 *            to not memoize queries.
+	 */
+	public void setKnowledgeMemoSize(int size) {
+		if (size < 0) {
+			throw new IllegalArgumentException("memo size cannot be negative");
+		}
+		this.knowledgeMemoSize = size;
+	}
+
+	/**
+	 * Returns the memo that is shared by all databases of this mental state
+	 * with the same knowledge, creating it first if needed.
+	 *
+	 * @param clauses
+	 *            The clauses of the knowledge base.
+	 * @return The memo of the knowledge base.
+	 */
+	KnowledgeMemo getKnowledgeMemo(Collection<DatabaseFormula> clauses) {
+		String key = KnowledgeMemo.getKey(clauses);
+		synchronized (this.knowledgeMemos) {
+			KnowledgeMemo memo = this.knowledgeMemos.get(key);
+			if (memo == null) {
+				memo = new KnowledgeMemo(this.knowledgeMemoSize, clauses);
+				this.knowledgeMemos.put(key, memo);
+			}
+			return memo;
+		}
+	}
+
+	/**
+	 * Removes a database that has been destroyed. The memo of its knowledge
+	 * is dropped when no other database uses it.
+	 *
+	 * @param database
+	 *            The database.
+	 */
+	void removeDatabase(TypedSWIPrologDatabase database) {
+		Set<TypedSWIPrologDatabase> owned = this.databases.get(database
+				.getOwner());
+		if (owned == null || !owned.remove(database)) {
+			return;
+		}
+		if (owned.isEmpty()) {
+			this.databases.remove(database.getOwner());
+		}
+		KnowledgeMemo memo = database.getKnowledgeMemo();
+		if (memo == null) {
+			return;
+		}
+		for (Set<TypedSWIPrologDatabase> remaining : this.databases.values()) {
+			for (TypedSWIPrologDatabase other : remaining) {
+				if (other.getKnowledgeMemo() == memo) {
+					return;
+				}
+			}
+		}
+		synchronized (this.knowledgeMemos) {
+			this.knowledgeMemos.values().remove(memo);
+		}
+	}
+
+	/**
+	 * @return {@code true} if recursive knowledge predicates are tabled in
+	 *         new belief and goal bases.
+	 */
+	public boolean isTabling() {
+		return this.tabling;
+	}
+
+	/**
+	 * Tables the recursive predicates of the knowledge base in belief and
+	 * goal bases, see {@link KnowledgeTables}. The answers of a tabled
+	 * predicate are kept until a predicate it depends on is updated. Requires
+	 * a version of SWI Prolog that supports tabling; otherwise creating a
+	 * belief or goal base fails, see {@link KnowledgeTables#checkSupported()}.
+	 * Only applies to databases that are created after calling this method.
+	 *
+	 * @param tabling
+	 *            {@code true} to table recursive knowledge predicates.
+	 */
+	public void setTabling(boolean tabling) {
+		this.tabling = tabling;
+	}
+
+	/**
+	 * @return The number of versions kept in the history of new belief
+	 *         bases, or 0 if no history is kept.
+	 */
+	public int getBeliefHistory() {
+		return this.beliefHistory;
+	}
+
+	/**
+	 * Keeps the content of belief bases at past cycles, see
+	 * {@link BeliefHistory}. A cycle ends when
+	 * {@link #recordCycle(Database, long)} is called. Only applies to belief
+	 * bases that are created after calling this method.
+	 *
+	 * @param versions
+	 *            The maximum number of versions kept per belief base, at least
+	 *            2; or 0 to keep no history.
+	 */
+	public void setBeliefHistory(int versions) {
+		if (versions < 0 || versions == 1) {
+			throw new IllegalArgumentException("cannot keep " + versions
+					+ " versions");
+		}
+		this.beliefHistory = versions;
+	}
+
+	/**
+	 * Stores the current content of a belief base in its history as the
+	 * version for the cycle that has ended. Should be called once per cycle of
+	 * the agent that owns the belief base; does nothing if no history is
+	 * kept.
+	 *
+	 * @param database
+	 *            The belief base.
+	 * @param cycle
+	 *            The cycle that has ended.
+	 * @throws KRQueryFailedException
+	 *             If the content had to be rebuilt but could not be
+	 *             retrieved.
+	 */
+	public void recordCycle(Database database, long cycle)
+			throws KRQueryFailedException {
+		TypedSWIPrologDatabase swidb = (TypedSWIPrologDatabase) database;
+		if (swidb.getHistory() != null) {
+			swidb.getHistory().commit(cycle, swidb);
+		}
+	}
+
+	/**
+	 * @return The fraction of their intensity emotions in new emotion bases
+	 *         keep per cycle.
+	 */
+	public double getEmotionRetention() {
+		return this.emotionRetention;
+	}
+
+	/**
+	 * Sets the fraction of their intensity emotions keep per cycle, see
+	 * {@link #decayEmotions(Database)}. Only applies to emotion bases that are
+	 * created after calling this method; the retention of individual emotions
+	 * can be set with {@link EmotionIntensities#setRetention(String, double)}.
+	 *
+	 * @param retention
+	 *            A fraction between 0 and 1.
+	 */
+	public void setEmotionRetention(double retention) {
+		if (retention < 0 || retention > 1) {
+			throw new IllegalArgumentException("retention " + retention
+					+ " is not between 0 and 1");
+		}
+		this.emotionRetention = retention;
+	}
+
+	/**
+	 * @param database
+	 *            An emotion base.
+	 * @return The emotions of the emotion base, or {@code null} if the
+	 *         database is not an emotion base.
+	 */
+	public EmotionIntensities getEmotions(Database database) {
+		return ((TypedSWIPrologDatabase) database).getEmotions();
+	}
+
+	/**
+	 * Decays all emotions in an emotion base in a single pass over their
+	 * intensities. Prolog is only updated when the belief or emotion base is
+	 * queried next. Should be called once per cycle of the agent that owns the
+	 * emotion base.
+	 *
+	 * @param database
+	 *            The emotion base.
+	 */
+	public void decayEmotions(Database database) {
+		EmotionIntensities emotions = getEmotions(database);
+		if (emotions != null) {
+			emotions.decay();
+		}
+	}
+
+	/**
+	 * @return The metrics that operations are reported to.
+	 */
+	public MentalStateMetrics getMetrics() {
+		return this.metrics;
+	}
+
+	@Override
+	public void setMetrics(MentalStateMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Sets the minimum time between two samples of the memory usage of the
+	 * databases; within this time {@link #getUsage()} returns the previous
+	 * sample.
+	 *
+	 * @param millis
+	 *            The sample interval in milliseconds; 0 to sample on every
+	 *            call.
+	 */
+	public void setUsageSampleInterval(long millis) {
+		this.usageSampleInterval = millis;
+	}
+
+	/**
+	 * Returns the number of clauses and approximate memory used by the
+	 * databases of each agent, per database type (the usage of all goal bases
+	 * of an agent is combined). Sampling requires a Prolog call per database,
+	 * so a sample is reused until the sample interval has passed.
+	 *
+	 * @return The usage per agent and database type.
+	 * @throws KRQueryFailedException
+	 *             If the usage of a database could not be determined.
+	 */
+	public synchronized Map<String, Map<BASETYPE, ModuleUsage>> getUsage()
+			throws KRQueryFailedException {
+		long now = System.currentTimeMillis();
+		if (this.usageSample != null
+				&& now - this.usageSampleTime < this.usageSampleInterval) {
+			return this.usageSample;
+		}
+		Map<String, Map<BASETYPE, ModuleUsage>> sample = new TreeMap<>();
+		for (String agent : new ArrayList<>(this.databases.keySet())) {
+			Map<BASETYPE, ModuleUsage> usage = new EnumMap<>(BASETYPE.class);
+			for (TypedSWIPrologDatabase database : new ArrayList<>(
+					this.databases.get(agent))) {
+				ModuleUsage current = usage.get(database.getType());
+				ModuleUsage measured = database.getUsage();
+				usage.put(database.getType(),
+						current == null ? measured : current.add(measured));
+			}
+			sample.put(agent, Collections.unmodifiableMap(usage));
+		}
+		this.usageSample = Collections.unmodifiableMap(sample);
+		this.usageSampleTime = now;
+		return this.usageSample;
+	}
+
+	/**
+	 * Returns the number of clauses and approximate memory used by the
+	 * databases of all agents together, per database type, based on
+	 * {@link #getUsage()}.
+	 *
+	 * @return The usage per database type.
+	 * @throws KRQueryFailedException
+	 *             If the usage of a database could not be determined.
+	 */
+	public Map<BASETYPE, ModuleUsage> getUsageByType()
+			throws KRQueryFailedException {
+		Map<BASETYPE, ModuleUsage> total = new EnumMap<>(BASETYPE.class);
+		for (Map<BASETYPE, ModuleUsage> usage : getUsage().values()) {
+			for (Map.Entry<BASETYPE, ModuleUsage> entry : usage.entrySet()) {
+				ModuleUsage current = total.get(entry.getKey());
+				total.put(entry.getKey(), current == null ? entry.getValue()
+						: current.add(entry.getValue()));
+			}
+		}
+		return total;
+	}
+
+	/**
+	 * @return {@code true} if new mailboxes store messages to multiple
+	 *         receivers only once.
+	 */
+	public boolean isCompactBroadcasts() {
+		return this.compactBroadcasts;
+	}
+
+	/**
+	 * Determines whether mailboxes store a message that is sent to multiple
+	 * receivers once, together with the list of receivers, instead of as one
+	 * sent/2 fact per receiver. Agent programs can still query (and delete)
+	 * sent/2 facts as before. Only applies to mailboxes that are created after
+	 * calling this method.
+	 *
+	 * @param compact
+	 *            {@code true} to store broadcasts compactly.
+	 */
+	public void setCompactBroadcasts(boolean compact) {
+		this.compactBroadcasts = compact;
+	}
+
+	/**
+	 * Removes all facts from a mailbox that exceed the limits of its retention
+	 * policy, in a single batch. Should be called once per cycle of the agent
+	 * that owns the mailbox.
+	 *
+	 * @param database
+	 *            The mailbox.
+	 * @param cycle
+	 *            The current cycle of the agent.
+	 * @return The number of facts that were removed.
+	 * @throws KRDatabaseException
+	 */
+	public int enforceMailboxRetention(Database database, long cycle)
+			throws KRDatabaseException {
+		MailboxRetention retention = ((TypedSWIPrologDatabase) database)
+				.getMailboxRetention();
+		if (retention == null) {
+			return 0;
+		}
+		List<jpl.Term> evicted = retention.collect(cycle);
+		if (!evicted.isEmpty()) {
+			((TypedSWIPrologDatabase) database).deleteAll(evicted);
+		}
+		return evicted.size();
+	}
+
 	@Override
 	public Collection<String> getReceiversOfMessage(Database database,
 			Message message) throws KRQueryFailedException {
 		TypedSWIPrologDatabase swidb = (TypedSWIPrologDatabase) database;
-		Variable recipient = new Variable("Recipient");
 		jpl.Term msg = ((PrologDBFormula) message.getContent()).getTerm();
-		jpl.Term sent = JPLUtils.createCompound("sent", recipient, msg);
-		jpl.Term db_sent = JPLUtils.createCompound(":", swidb.getJPLName(),
-				sent);
+		// Use the receiver index of the mailbox if we are looking for a
+		// specific message; only a query can handle messages with variables.
+		if (isGround(msg)) {
+			long start = startTiming();
+			Set<String> names = swidb.getReceivers(msg);
+			if (names != null) {
+				recordTime("getReceiversOfMessage", swidb.getType(), swidb.getOwner(),
+						start);
+				return names;
+			}
+		}
 
-		Set<PrologSubstitution> results = SWIPrologDatabase.rawquery(db_sent);
+		long start = startTiming();
+		Set<PrologSubstitution> results = swidb.query(
+				swidb.getReceiversQuery(), msg);
+		recordTime("getReceiversOfMessage", swidb.getType(), swidb.getOwner(),
+				start);
 		Set<String> names = new LinkedHashSet<>();
 		for (Substitution subst : results) {
 			for (Var var : subst.getVariables()) {
-				if (((Variable) var).name().equals(recipient.name())) {
+				if (((Variable) var).name().equals(
+						TypedSWIPrologDatabase.RECIPIENT.name())) {
 					names.add(subst.get(var).toString());
 				}
 			}
@@ -765,22 +1528,32 @@ public class SwiPrologMentalState implements MentalState {
 		return names;
 	}
 
+	/**
+	 * Checks whether a term does not contain any variables.
+	 *
+	 * @param term
+	 *            A JPL term.
+	 * @return {@code true} if the term is ground.
+	 */
+	private boolean isGround(jpl.Term term) {
+		if (term.isVariable()) {
+			return false;
+		} else if (term.isCompound()) {
+			for (jpl.Term arg : term.args()) {
+				if (!isGround(arg)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
 	@Override
 	public Set<DatabaseFormula> insert(Database database, Message message,
 			boolean received) throws KRDatabaseException {
 		TypedSWIPrologDatabase swidb = (TypedSWIPrologDatabase) database;
-		jpl.Term msg = ((PrologUpdate) message.getContent()).getTerm();
-		switch (message.getMood()) {
-		case IMPERATIVE:
-			msg = JPLUtils.createCompound("imp", msg);
-			break;
-		case INDICATIVE:
-			// we do not add a mood modifier for indicatives.
-			break;
-		case INTERROGATIVE:
-			msg = JPLUtils.createCompound("int", msg);
-			break;
-		}
+		MailboxRetention retention = swidb.getMailboxRetention();
+		jpl.Term msg = convert(message);
 
 		Set<DatabaseFormula> updates = new HashSet<DatabaseFormula>();
 		if (received) {
@@ -788,14 +1561,52 @@ public class SwiPrologMentalState implements MentalState {
 			jpl.Term fact = JPLUtils.createCompound("received", sender, msg);
 			swidb.insert(fact);
 			updates.add(new PrologDBFormula(fact, null));
+			if (retention != null) {
+				retention.record(fact, message.getSender().getName());
+			}
+		} else if (message.getReceivers().size() == 1) {
+			// sent to a single receiver
+			AgentId id = message.getReceivers().iterator().next();
+			jpl.Term fact = JPLUtils.createCompound("sent",
+					new jpl.Atom(id.getName()), msg);
+			swidb.insert(fact);
+			updates.add(new PrologDBFormula(fact, null));
+			if (retention != null) {
+				retention.record(fact, null);
+			}
 		} else {
-			// sent
+			// sent to multiple receivers: insert all facts in one call.
+			List<jpl.Term> receivers = new ArrayList<>(message.getReceivers()
+					.size());
+			List<jpl.Term> facts = new ArrayList<>(message.getReceivers()
+					.size());
 			for (AgentId id : message.getReceivers()) {
-				jpl.Term sender = new jpl.Atom(id.getName());
-				jpl.Term fact = JPLUtils.createCompound("sent", sender, msg);
-				swidb.insert(fact);
+				jpl.Term receiver = new jpl.Atom(id.getName());
+				receivers.add(receiver);
+				jpl.Term fact = JPLUtils.createCompound("sent", receiver, msg);
+				facts.add(fact);
 				updates.add(new PrologDBFormula(fact, null));
 			}
+			if (swidb.isCompact()) {
+				// Store the message only once.
+				jpl.Term fact = JPLUtils.createCompound(
+						TypedSWIPrologDatabase.BROADCAST,
+						JPLUtils.termsToList(receivers), msg);
+				swidb.insert(fact);
+				if (retention != null) {
+					retention.record(fact, null);
+				}
+			} else {
+				// The receivers are substituted here: a variable for them
+				// could capture a variable of the message.
+				swidb.insertAll(facts);
+				for (jpl.Term fact : facts) {
+					swidb.updateReceivers(fact, true);
+					if (retention != null) {
+						retention.record(fact, null);
+					}
+				}
+			}
 		}
 		return updates;
 	}
@@ -804,8 +1615,11 @@ public class SwiPrologMentalState implements MentalState {
 	public DatabaseFormula insert(Database database, Percept percept)
 			throws KRDatabaseException {
 		TypedSWIPrologDatabase swidb = (TypedSWIPrologDatabase) database;
+		long start = startTiming();
 		jpl.Term db_percept = JPLUtils.createCompound("percept",
 				perceptToTerm(percept));
+		recordTime("convertPercept", swidb.getType(), swidb.getOwner(),
+				start);
 		swidb.insert(db_percept);
 		return new PrologDBFormula(db_percept, null);
 	}
@@ -814,8 +1628,11 @@ public class SwiPrologMentalState implements MentalState {
 	public DatabaseFormula delete(Database database, Percept percept)
 			throws KRDatabaseException {
 		TypedSWIPrologDatabase swidb = (TypedSWIPrologDatabase) database;
+		long start = startTiming();
 		jpl.Term db_percept = JPLUtils.createCompound("percept",
 				perceptToTerm(percept));
+		recordTime("convertPercept", swidb.getType(), swidb.getOwner(),
+				start);
 		swidb.delete(db_percept);
 		return new PrologDBFormula(db_percept, null);
 	}
@@ -827,7 +1644,7 @@ public class SwiPrologMentalState implements MentalState {
 	 *            The EIS percept to be translated.
 	 * @return A JPL term translation of the percept.
 	 */
-	private jpl.Term perceptToTerm(Percept percept) {
+	jpl.Term perceptToTerm(Percept percept) {
 		// Get main operator name and parameters of the percept.
 		String name = percept.getName();
 		List<Parameter> parameters = percept.getParameters();
@@ -852,11 +1669,16 @@ public class SwiPrologMentalState implements MentalState {
 		TypedSWIPrologDatabase swidb = (TypedSWIPrologDatabase) database;
 		Set<DatabaseFormula> updates = new HashSet<>();
 		// Turn name into JPL term and create agent fact.
-		PrologTerm prolog = (PrologTerm) convert(new Identifier(id.getName()));
-		jpl.Term[] arg = { prolog.getTerm() };
+		jpl.Term[] arg = { new Atom(id.getName()) };
 		jpl.Term term = JPLUtils.createCompound("agent", arg);
 		// Insert or delete agent fact.
-		if (insert) {
+		if (this.sharedAgentFacts) {
+			if (insert) {
+				SharedAgentFacts.insert(id.getName());
+			} else {
+				SharedAgentFacts.delete(id.getName());
+			}
+		} else if (insert) {
 			swidb.insert(term);
 		} else {
 			swidb.delete(term);
@@ -876,6 +1698,42 @@ public class SwiPrologMentalState implements MentalState {
 		return updates;
 	}
 
+	@Override
+	public Set<DatabaseFormula> updateAgentFacts(Database database,
+			boolean insert, Collection<AgentId> ids) throws KRDatabaseException {
+		TypedSWIPrologDatabase swidb = (TypedSWIPrologDatabase) database;
+		Set<DatabaseFormula> updates = new HashSet<>();
+		List<String> names = new ArrayList<>(ids.size());
+		List<jpl.Term> agents = new ArrayList<>(ids.size());
+		List<jpl.Term> facts = new ArrayList<>(ids.size());
+		for (AgentId id : ids) {
+			jpl.Term agent = new Atom(id.getName());
+			jpl.Term fact = JPLUtils.createCompound("agent", agent);
+			names.add(id.getName());
+			agents.add(agent);
+			facts.add(fact);
+			updates.add(new PrologDBFormula(fact, null));
+		}
+		if (ids.isEmpty()) {
+			return updates;
+		}
+		// Insert or delete all agent facts at once.
+		if (this.sharedAgentFacts) {
+			if (insert) {
+				SharedAgentFacts.insert(names);
+			} else {
+				SharedAgentFacts.delete(names);
+			}
+		} else if (insert) {
+			Variable agent = new Variable("Agent");
+			swidb.insertAll(JPLUtils.createCompound("agent", agent), agent,
+					agents);
+		} else {
+			swidb.deleteAll(facts);
+		}
+		return updates;
+	}
+
 	@Override
 	public Update convert(Message message, boolean isSent, AgentId receiver) {
 		jpl.Term term = JPLUtils.createCompound((isSent ? "sent" : "received"),
@@ -910,4 +1768,24 @@ public class SwiPrologMentalState implements MentalState {
 	public DependencyGraph<?> createDependencyGraph() {
 		return new SwiDependencyGraph();
 	}
+
+	/**
+	 * @return The current time if operations are timed, or 0 if the metrics
+	 *         are disabled.
+	 */
+	private long startTiming() {
+		return this.metrics.isEnabled() ? System.nanoTime() : 0;
+	}
+
+	/**
+	 * Reports the time an operation has taken since {@link #startTiming()},
+	 * unless operations are not timed.
+	 */
+	private void recordTime(String operation, BASETYPE type, String agent,
+			long start) {
+		if (start != 0) {
+			this.metrics.record(operation, type, agent, System.nanoTime()
+					- start);
+		}
+	}
 }
@@ -1,20 +1,50 @@
 package swiPrologMentalState;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import jpl.Atom;
+import jpl.Compound;
 import jpl.Term;
 import jpl.Variable;
 import krTools.errors.exceptions.KRDatabaseException;
 import krTools.errors.exceptions.KRInitFailedException;
 import krTools.errors.exceptions.KRQueryFailedException;
 import krTools.language.DatabaseFormula;
+import krTools.language.Query;
+import krTools.language.Substitution;
+import krTools.language.Update;
+import krTools.language.Var;
 import mentalState.BASETYPE;
 import swiprolog.database.SWIPrologDatabase;
 import swiprolog.language.JPLUtils;
+import swiprolog.language.PrologDBFormula;
+import swiprolog.language.PrologQuery;
+import swiprolog.language.PrologSubstitution;
+import swiprolog.language.PrologTerm;
 
 public class TypedSWIPrologDatabase extends SWIPrologDatabase {
+	/**
+	 * Name of the predicate that stores a message sent to a list of receivers
+	 * once, if broadcasts are stored compactly.
+	 */
+	public static final String BROADCAST = "sent_to_all";
+	/**
+	 * The goal sent(Recipient, Message) that looks up the receivers of a
+	 * message in a mailbox, see {@link #getReceiversQuery()}.
+	 */
+	static final Variable RECIPIENT = new Variable("Recipient");
+	private static final Variable MESSAGE = new Variable("Message");
+	private static final Term SENT = JPLUtils.createCompound("sent",
+			RECIPIENT, MESSAGE);
 	private final SwiPrologMentalState state;
 	/**
 	 * The name of the agent that owns this database.
@@ -24,6 +54,106 @@ public class TypedSWIPrologDatabase extends SWIPrologDatabase {
 	 * Type of the database, e.g., belief, knowledge, ... base.
 	 */
 	private final BASETYPE type;
+	/**
+	 * The content the database was created with, e.g., the belief section of
+	 * the agent program for a belief base.
+	 */
+	private Collection<DatabaseFormula> content;
+	/**
+	 * Keeps track of the facts in a mailbox if its size is limited;
+	 * {@code null} otherwise.
+	 */
+	private MailboxRetention retention;
+	/**
+	 * Index of a mailbox from (the string representation of) messages to the
+	 * receivers they have been sent to according to the sent/2 facts in the
+	 * mailbox, with the number of facts per receiver as the same fact can be
+	 * inserted more than once; {@code null} if this database is not a
+	 * mailbox.
+	 */
+	private Map<String, Map<String, Integer>> receivers;
+	/**
+	 * Whether the receiver index is out of date, because a sent/2 fact with
+	 * variables has been deleted and the index cannot tell which fact was
+	 * retracted. Guarded by {@link #receivers}.
+	 */
+	private boolean receiversStale = false;
+	/**
+	 * Whether this mailbox stores messages to multiple receivers as a single
+	 * {@link #BROADCAST} fact.
+	 */
+	private boolean compact = false;
+	/**
+	 * The percepts of a percept base if they are stored in Java;
+	 * {@code null} otherwise.
+	 */
+	private PerceptIndex percepts;
+	/**
+	 * The percept base that is imported into this belief base, if any; looked
+	 * up on first use.
+	 */
+	private TypedSWIPrologDatabase perceptBase;
+	/**
+	 * The intensities of the emotions in an emotion base; {@code null} if this
+	 * database is not an emotion base.
+	 */
+	private EmotionIntensities emotions;
+	/**
+	 * The emotion base that is imported into this belief base, if any; looked
+	 * up on first use.
+	 */
+	private TypedSWIPrologDatabase emotionBase;
+	/**
+	 * The number of databases of the same type that the owner had when this
+	 * database was created; identifies goal bases in the update log.
+	 */
+	private int sequence = 0;
+	/**
+	 * Whether the initial content has been added; only later updates are
+	 * written to the update log.
+	 */
+	private boolean initialized = false;
+	/**
+	 * The content of this belief base at past cycles, if it is kept;
+	 * {@code null} otherwise.
+	 */
+	private BeliefHistory history;
+	/**
+	 * The results of earlier queries on this belief or goal base, if they are
+	 * cached; {@code null} otherwise.
+	 */
+	private QueryCache queryCache;
+	/**
+	 * The results of queries on the knowledge of this belief or goal base,
+	 * shared with all agents with the same knowledge, if they are memoized;
+	 * {@code null} otherwise.
+	 */
+	private KnowledgeMemo knowledgeMemo;
+	/**
+	 * The goals that have been compiled in the module of this database, by
+	 * their canonical text and parameters.
+	 */
+	private final Map<String, PreparedQuery> prepared = new HashMap<>();
+	/**
+	 * The query that looks up the receivers of a message in this mailbox;
+	 * prepared on first use.
+	 */
+	private PreparedQuery receiversQuery;
+	/**
+	 * The recursive knowledge predicates that are tabled in this belief or
+	 * goal base, if any; {@code null} otherwise.
+	 */
+	private KnowledgeTables tables;
+	/**
+	 * Whether a predicate a tabled predicate depends on has changed since
+	 * the tables were last abolished.
+	 */
+	private boolean tablesStale = false;
+	/**
+	 * The belief base whose query cache is affected by updates of this
+	 * percept base or mailbox, if any; looked up on first use.
+	 */
+	private TypedSWIPrologDatabase beliefBase;
 
 	/**
 	 * @param databaseType
@@ -48,6 +178,7 @@ public class TypedSWIPrologDatabase extends SWIPrologDatabase {
 		this.owner = name;
 		this.type = databaseType;
 		this.state = state;
+		this.content = content;
 
 		if (!this.type.equals(BASETYPE.KNOWLEDGEBASE)) {
 			// Create SWI Prolog module that will act as our database.
@@ -79,6 +210,20 @@ public class TypedSWIPrologDatabase extends SWIPrologDatabase {
 			// }
 		}
 
+		if (this.type == BASETYPE.BELIEFBASE && state.getBeliefHistory() > 0) {
+			this.history = new BeliefHistory(state.getBeliefHistory());
+		}
+		if ((this.type == BASETYPE.BELIEFBASE || this.type == BASETYPE.GOALBASE)
+				&& state.isTabling()) {
+			KnowledgeTables.checkSupported();
+			List<String> volatileSignatures = new ArrayList<>();
+			if (state.isSharedAgentFacts()) {
+				volatileSignatures.add("agent/1");
+			}
+			this.tables = new KnowledgeTables(getKnowledgeBaseContent(),
+					volatileSignatures);
+		}
+
 		// Create an anonymous variable.
 		Variable anonymousVar = new Variable("_");
 
@@ -91,6 +236,10 @@ public class TypedSWIPrologDatabase extends SWIPrologDatabase {
 			break;
 		case BELIEFBASE:
 			declareDynamic(dynamicBeliefs);
+			if (state.isSharedAgentFacts()) {
+				SharedAgentFacts.importInto(this);
+			}
+			declareTabled();
 			// Add initial content to database.
 			add(content);
 			// Add content from knowledge base.
@@ -101,9 +250,16 @@ public class TypedSWIPrologDatabase extends SWIPrologDatabase {
 			// Import received and sent predicates into belief base, if mailbox
 			// exists.
 			importMailsInBB();
+			// Import emotion predicate into belief base, if emotion base
+			// exists.
+			importEmotionsIntoBB();
 			break;
 		case GOALBASE:
 			declareDynamic(dynamicGoals);
+			if (state.isSharedAgentFacts()) {
+				SharedAgentFacts.importInto(this);
+			}
+			declareTabled();
 			// Add initial content to database.
 			add(content);
 			// Add content from knowledge base.
@@ -132,6 +288,14 @@ public class TypedSWIPrologDatabase extends SWIPrologDatabase {
 				throw new KRInitFailedException("initialization of the mail"
 						+ "box of agent " + this.owner + "failed", e);
 			}
+			if (state.isCompactBroadcasts()) {
+				createBroadcastView();
+			}
+			if (!state.getMailboxRetentionPolicy().isUnbounded()) {
+				this.retention = new MailboxRetention(
+						state.getMailboxRetentionPolicy());
+			}
+			this.receivers = new HashMap<>();
 			// Ignore initial content; mailbox is empty initially.
 			// Import received and sent predicates into belief base, if it
 			// exists.
@@ -154,11 +318,50 @@ public class TypedSWIPrologDatabase extends SWIPrologDatabase {
 			rawquery(JPLUtils.createCompound("dynamic", db_percept2));
 			rawquery(JPLUtils
 					.createCompound(":", getJPLName(), export_percept2));
+			if (state.isJavaPercepts()) {
+				this.percepts = new PerceptIndex();
+			}
 			// Ignore initial content; percept base is empty initially.
 			// Import percept predicate into belief base, if it exists.
 			importPerceptsIntoBB();
 			break;
+		case EMOTIONBASE:
+			Term emotion = JPLUtils.createCompound("emotion", anonymousVar,
+					anonymousVar);
+			Term db_emotion = JPLUtils.createCompound(":", getJPLName(),
+					emotion);
+			Term export_emotion = JPLUtils.createCompound("export", db_emotion);
+
+			rawquery(JPLUtils.createCompound("dynamic", db_emotion));
+			rawquery(JPLUtils.createCompound(":", getJPLName(), export_emotion));
+			this.emotions = new EmotionIntensities(state.getEmotionRetention());
+			// Ignore initial content; emotion base is empty initially.
+			// Import emotion predicate into belief base, if it exists.
+			importEmotionsIntoBB();
+			break;
+		}
+		if ((this.type == BASETYPE.BELIEFBASE || this.type == BASETYPE.GOALBASE)
+				&& state.getQueryCacheSize() > 0) {
+			List<DatabaseFormula> clauses = new ArrayList<>(content);
+			clauses.addAll(getKnowledgeBaseContent());
+			List<String> volatileSignatures = new ArrayList<>();
+			if (state.isSharedAgentFacts()) {
+				volatileSignatures.add("agent/1");
+			}
+			this.queryCache = new QueryCache(state.getQueryCacheSize(),
+					clauses, volatileSignatures);
 		}
+		if ((this.type == BASETYPE.BELIEFBASE || this.type == BASETYPE.GOALBASE)
+				&& state.getKnowledgeMemoSize() > 0) {
+			this.knowledgeMemo = state
+					.getKnowledgeMemo(getKnowledgeBaseContent());
+			// Initial beliefs or goals that extend a knowledge predicate
+			// change its answers for this agent only.
+			for (DatabaseFormula formula : content) {
+				this.knowledgeMemo.taint(((PrologDBFormula) formula).getTerm());
+			}
+		}
+		this.initialized = true;
 	}
 
 	/**
@@ -181,6 +384,1256 @@ public class TypedSWIPrologDatabase extends SWIPrologDatabase {
 		return this.type;
 	}
 
+	/**
+	 * @return The number of databases of the same type that were created for
+	 *         the owner before this database. Unlike the number of live
+	 *         databases, this identifies the database for its whole life.
+	 */
+	public int getSequence() {
+		return this.sequence;
+	}
+
+	void setSequence(int sequence) {
+		this.sequence = sequence;
+	}
+
+	/**
+	 * @return The content of this belief base at past cycles, or {@code null}
+	 *         if it is not kept.
+	 */
+	public BeliefHistory getHistory() {
+		return this.history;
+	}
+
+	/**
+	 * @return The retention bookkeeping of this mailbox, or {@code null} if
+	 *         this database is not a mailbox or its size is not limited.
+	 */
+	public MailboxRetention getMailboxRetention() {
+		return this.retention;
+	}
+
+	/**
+	 * Determines the number of clauses in, and the approximate memory used by,
+	 * the module of this database, using the predicate properties
+	 * number_of_clauses/1 and size/1 of SWI Prolog. Predicates that are
+	 * imported from another module, such as shared agent facts, are not
+	 * counted. Both sums are computed by Prolog in a single call.
+	 *
+	 * @return The usage of this database; {@link ModuleUsage#EMPTY} for a
+	 *         knowledge base, as it does not have a module of its own.
+	 * @throws KRQueryFailedException
+	 */
+	public ModuleUsage getUsage() throws KRQueryFailedException {
+		if (this.type == BASETYPE.KNOWLEDGEBASE) {
+			return ModuleUsage.EMPTY;
+		}
+		Variable clauses = new Variable("Clauses");
+		Variable bytes = new Variable("Bytes");
+		Term goal = JPLUtils.createCompound(",",
+				sumOfPredicateProperty("number_of_clauses", clauses),
+				sumOfPredicateProperty("size", bytes));
+		Set<PrologSubstitution> results = rawquery(goal);
+		if (results.isEmpty()) {
+			return ModuleUsage.EMPTY;
+		}
+		long clauseCount = 0, byteCount = 0;
+		PrologSubstitution result = results.iterator().next();
+		for (Var var : result.getVariables()) {
+			Term value = ((PrologTerm) result.get(var)).getTerm();
+			if (((Variable) var).name().equals(clauses.name())) {
+				clauseCount = value.longValue();
+			} else if (((Variable) var).name().equals(bytes.name())) {
+				byteCount = value.longValue();
+			}
+		}
+		return new ModuleUsage(clauseCount, byteCount);
+	}
+
+	/**
+	 * Retrieves the predicates and clauses stored in the module of this
+	 * database in a single Prolog call. Predicates that are imported from
+	 * another module are left out. Percepts and emotions that are stored in
+	 * Java are passed to Prolog first.
+	 *
+	 * @param dynamic
+	 *            Receives the indicators Name/Arity of all dynamic predicates.
+	 * @param clauses
+	 *            Receives all clauses, as Head :- Body or as a fact.
+	 * @throws KRQueryFailedException
+	 */
+	void dump(List<Term> dynamic, List<Term> clauses)
+			throws KRQueryFailedException {
+		if (this.type == BASETYPE.KNOWLEDGEBASE) {
+			return;
+		}
+		syncPercepts();
+		syncEmotions();
+		Variable head = new Variable("Head");
+		Variable body = new Variable("Body");
+		Variable clause = new Variable("Clause");
+		Variable name = new Variable("Name");
+		Variable arity = new Variable("Arity");
+		Variable indicators = new Variable("Indicators");
+		Variable all = new Variable("Clauses");
+		Term predicate = JPLUtils.createCompound(":", getJPLName(), head);
+		// current_predicate(_, M:H), \+ predicate_property(M:H,
+		// imported_from(_)), predicate_property(M:H, dynamic)
+		Term local = JPLUtils.createCompound(",", JPLUtils.createCompound(
+				"current_predicate", new Variable("_"), predicate), JPLUtils
+				.createCompound(",", JPLUtils.createCompound("\\+", JPLUtils
+						.createCompound("predicate_property", predicate,
+								JPLUtils.createCompound("imported_from",
+										new Variable("_")))), JPLUtils
+						.createCompound("predicate_property", predicate,
+								new Atom("dynamic"))));
+		Term findIndicators = JPLUtils.createCompound("findall", JPLUtils
+				.createCompound("/", name, arity), JPLUtils.createCompound(",",
+				local, JPLUtils.createCompound("functor", head, name, arity)),
+				indicators);
+		// (B == true -> C = H ; C = (H :- B))
+		Term toClause = JPLUtils.createCompound(";", JPLUtils.createCompound(
+				"->", JPLUtils.createCompound("==", body, new Atom("true")),
+				JPLUtils.createCompound("=", clause, head)), JPLUtils
+				.createCompound("=", clause,
+						JPLUtils.createCompound(":-", head, body)));
+		Term findClauses = JPLUtils.createCompound("findall", clause, JPLUtils
+				.createCompound(",", local, JPLUtils.createCompound(",",
+						JPLUtils.createCompound("clause", predicate, body),
+						toClause)), all);
+		Set<PrologSubstitution> results = rawquery(JPLUtils.createCompound(
+				",", findIndicators, findClauses));
+		if (results.isEmpty()) {
+			return;
+		}
+		PrologSubstitution result = results.iterator().next();
+		for (Var var : result.getVariables()) {
+			String varName = ((Variable) var).name();
+			List<Term> target;
+			if (varName.equals(indicators.name())) {
+				target = dynamic;
+			} else if (varName.equals(all.name())) {
+				target = clauses;
+			} else {
+				continue;
+			}
+			List<Term> list = JPLUtils.getOperands(".",
+					((PrologTerm) result.get(var)).getTerm());
+			// Remove the empty list.
+			list.remove(list.size() - 1);
+			target.addAll(list);
+		}
+	}
+
+	/**
+	 * Replaces the content of this database by the given predicates and
+	 * clauses, as retrieved by {@link #dump(List, List)}, in a single Prolog
+	 * call: the predicates are declared dynamic and emptied, after which all
+	 * clauses are asserted. Percepts and emotions that are stored in Java are
+	 * added to their Java representation instead, and the receiver index of a
+	 * mailbox is rebuilt.
+	 *
+	 * @param dynamic
+	 *            Indicators Name/Arity of all dynamic predicates.
+	 * @param clauses
+	 *            The clauses.
+	 * @throws KRDatabaseException
+	 */
+	void load(List<Term> dynamic, List<Term> clauses)
+			throws KRDatabaseException {
+		List<Term> prolog = new ArrayList<>(clauses.size());
+		for (Term clause : clauses) {
+			if (isPercept(clause)) {
+				this.percepts.insert(clause.arg(1));
+			} else if (isEmotion(clause)) {
+				this.emotions.set(clause.arg(1).name(), clause.arg(2)
+						.doubleValue());
+			} else {
+				prolog.add(clause);
+				updateReceivers(clause, true);
+				if (this.history != null) {
+					this.history.insert(clause);
+				}
+				if (this.queryCache != null) {
+					this.queryCache.invalidate(clause);
+				}
+			}
+		}
+		if (this.knowledgeMemo != null) {
+			this.knowledgeMemo.taintChanged(prolog);
+		}
+		this.tablesStale = this.tables != null;
+		Variable indicator = new Variable("Indicator");
+		Variable name = new Variable("Name");
+		Variable arity = new Variable("Arity");
+		Variable head = new Variable("Head");
+		Variable clause = new Variable("Clause");
+		Term qualified = JPLUtils.createCompound(":", getJPLName(), indicator);
+		// forall(member(N/A, Ds), (dynamic(M:(N/A)), functor(H, N, A),
+		// retractall(M:H)))
+		Term reset = JPLUtils.createCompound("forall", JPLUtils.createCompound(
+				"member", indicator, JPLUtils.termsToList(dynamic)), JPLUtils
+				.createCompound(",", JPLUtils.createCompound("dynamic",
+						qualified), JPLUtils.createCompound(",", JPLUtils
+						.createCompound("=", indicator,
+								JPLUtils.createCompound("/", name, arity)),
+						JPLUtils.createCompound(",", JPLUtils.createCompound(
+								"functor", head, name, arity), JPLUtils
+								.createCompound("retractall", JPLUtils
+										.createCompound(":", getJPLName(),
+												head))))));
+		Term assertz = JPLUtils.createCompound("forall", JPLUtils
+				.createCompound("member", clause, JPLUtils.termsToList(prolog)),
+				JPLUtils.createCompound("assertz",
+						JPLUtils.createCompound(":", getJPLName(), clause)));
+		try {
+			rawquery(JPLUtils.createCompound(",", reset, assertz));
+		} catch (KRQueryFailedException e) {
+			throw new KRDatabaseException("unable to load " + prolog.size()
+					+ " clauses into " + getName(), e);
+		}
+	}
+
+	/**
+	 * Creates the goal aggregate_all(sum(V), (current_predicate(_, M:H), \+
+	 * predicate_property(M:H, imported_from(_)), predicate_property(M:H,
+	 * property(V))), Sum) for the module M of this database.
+	 */
+	private Term sumOfPredicateProperty(String property, Variable sum) {
+		Variable value = new Variable("V_" + property);
+		Variable head = new Variable("H_" + property);
+		Term predicate = JPLUtils.createCompound(":", getJPLName(), head);
+		Term current = JPLUtils.createCompound("current_predicate",
+				new Variable("_"), predicate);
+		Term local = JPLUtils.createCompound("\\+", JPLUtils.createCompound(
+				"predicate_property", predicate, JPLUtils.createCompound(
+						"imported_from", new Variable("_"))));
+		Term measure = JPLUtils.createCompound("predicate_property",
+				predicate, JPLUtils.createCompound(property, value));
+		return JPLUtils.createCompound("aggregate_all",
+				JPLUtils.createCompound("sum", value),
+				JPLUtils.createCompound(",", current,
+						JPLUtils.createCompound(",", local, measure)), sum);
+	}
+
+	/**
+	 * {@inheritDoc} <br>
+	 * Reports the time taken to the metrics of the mental state.
+	 */
+	@Override
+	public Set<Substitution> query(Query query) throws KRQueryFailedException {
+		long start = startTiming();
+		try {
+			Set<Substitution> percepts = queryPercepts(((PrologQuery) query)
+					.getTerm());
+			if (percepts != null) {
+				return percepts;
+			}
+			if (this.queryCache != null || this.knowledgeMemo != null) {
+				Term term = ((PrologQuery) query).getTerm();
+				Map<String, String> names = new HashMap<>();
+				String key = QueryCache.getKey(term, names);
+				Set<Substitution> results = null;
+				if (this.knowledgeMemo != null) {
+					results = this.knowledgeMemo.get(key, names);
+				}
+				if (results == null && this.queryCache != null) {
+					results = this.queryCache.get(key, names);
+				}
+				if (results == null) {
+					syncPercepts();
+					syncEmotions();
+					syncTables();
+					PrologCalls.count();
+					results = super.query(query);
+					if ((this.knowledgeMemo == null || !this.knowledgeMemo.put(
+							key, names, term, results))
+							&& this.queryCache != null) {
+						this.queryCache.put(key, names, term, results);
+					}
+				}
+				return results;
+			}
+			syncPercepts();
+			syncEmotions();
+			syncTables();
+			PrologCalls.count();
+			return super.query(query);
+		} finally {
+			recordTime("query", start);
+		}
+	}
+
+	/**
+	 * Compiles a goal in the module of this database, so that it can be run
+	 * repeatedly with different values for its parameters by
+	 * {@link #query(PreparedQuery, Term...)}. Preparing the same goal with the
+	 * same parameters again returns the query that was prepared first.
+	 *
+	 * @param goal
+	 *            The goal; should not be module qualified.
+	 * @param parameters
+	 *            The variables of the goal whose values are passed for each
+	 *            call.
+	 * @return The prepared query.
+	 * @throws KRQueryFailedException
+	 *             If the goal could not be compiled.
+	 */
+	public synchronized PreparedQuery prepare(Term goal,
+			Variable... parameters) throws KRQueryFailedException {
+		StringBuilder key = new StringBuilder(CanonicalTerms.write(goal));
+		for (Variable parameter : parameters) {
+			key.append(' ').append(parameter.name());
+		}
+		PreparedQuery query = this.prepared.get(key.toString());
+		if (query == null) {
+			query = new PreparedQuery(getJPLName(), "$prepared_"
+					+ this.prepared.size(), goal, parameters);
+			this.prepared.put(key.toString(), query);
+		}
+		return query;
+	}
+
+	/**
+	 * @return The query sent(Recipient, Message) on this mailbox, prepared
+	 *         with Message as parameter, so that a message can be passed to
+	 *         {@link #query(PreparedQuery, Term...)} to find its receivers.
+	 * @throws KRQueryFailedException
+	 *             If the query could not be compiled.
+	 */
+	public synchronized PreparedQuery getReceiversQuery()
+			throws KRQueryFailedException {
+		if (this.receiversQuery == null) {
+			this.receiversQuery = prepare(SENT, MESSAGE);
+		}
+		return this.receiversQuery;
+	}
+
+	/**
+	 * Runs a query that has been prepared by this database.
+	 *
+	 * @param query
+	 *            The prepared query.
+	 * @param arguments
+	 *            The values of the parameters of the query, in order.
+	 * @return The solutions for the variables of the query that are not
+	 *         parameters.
+	 * @throws KRQueryFailedException
+	 */
+	public Set<PrologSubstitution> query(PreparedQuery query,
+			Term... arguments) throws KRQueryFailedException {
+		if (!query.getModule().name().equals(getJPLName().name())) {
+			throw new IllegalArgumentException("query " + query
+					+ " has not been prepared for " + getName());
+		}
+		syncPercepts();
+		syncEmotions();
+		syncTables();
+		return query.execute(arguments);
+	}
+
+	/**
+	 * {@inheritDoc} <br>
+	 * Keeps the receiver index of a mailbox up to date.
+	 */
+	@Override
+	public void insert(Term formula) throws KRDatabaseException {
+		long start = startTiming();
+		if (isPercept(formula)) {
+			boolean inserted = this.percepts.insert(formula.arg(1));
+			recordTime("insert", start);
+			if (inserted) {
+				log(true, formula);
+			}
+			return;
+		} else if (isEmotion(formula)) {
+			this.emotions.set(formula.arg(1).name(), formula.arg(2)
+					.doubleValue());
+			recordTime("insert", start);
+			return;
+		}
+		PrologCalls.count();
+		super.insert(formula);
+		recordTime("insert", start);
+		log(true, formula);
+		updateReceivers(formula, true);
+	}
+
+	/**
+	 * {@inheritDoc} <br>
+	 * Keeps the receiver index of a mailbox up to date, and removes the
+	 * receiver from compactly stored broadcasts.
+	 */
+	@Override
+	public void delete(Term formula) throws KRDatabaseException {
+		long start = startTiming();
+		if (isPercept(formula)) {
+			// Log the percept that was removed, not a pattern.
+			Term removed = this.percepts.delete(formula.arg(1));
+			recordTime("delete", start);
+			if (removed != null) {
+				log(false, JPLUtils.createCompound("percept", removed));
+			}
+			return;
+		} else if (this.emotions != null && formula.name().equals("emotion")
+				&& formula.arity() == 2) {
+			// The emotion facts only reflect the intensities in Java.
+			deleteEmotion(formula.arg(1), formula.arg(2));
+			recordTime("delete", start);
+			return;
+		}
+		PrologCalls.count();
+		super.delete(formula);
+		recordTime("delete", start);
+		log(false, formula);
+		if (this.retention != null) {
+			this.retention.remove(formula);
+		}
+		if (this.compact && formula.name().equals("sent")
+				&& formula.arity() == 2) {
+			deleteFromBroadcasts(formula.arg(1), formula.arg(2));
+		}
+		updateReceivers(formula, false);
+	}
+
+	/**
+	 * Removes the cached queries that may be affected by an update of this
+	 * database: those of this database, or, for a percept base or mailbox,
+	 * those of the belief base that imports it. Also taints a knowledge
+	 * predicate that is changed by the update.
+	 */
+	private void invalidateQueries(Term formula) {
+		if (this.knowledgeMemo != null) {
+			this.knowledgeMemo.taint(formula);
+		}
+		if (this.tables != null && this.tables.affects(formula)) {
+			this.tablesStale = true;
+		}
+		if (this.queryCache != null) {
+			this.queryCache.invalidate(formula);
+		} else if (this.type == BASETYPE.PERCEPTBASE
+				|| this.type == BASETYPE.MAILBOX) {
+			if (this.beliefBase == null) {
+				this.beliefBase = this.state.getDatabase(this.owner,
+						BASETYPE.BELIEFBASE);
+			}
+			if (this.beliefBase != null && this.beliefBase.tables != null
+					&& this.beliefBase.tables.affects(formula)) {
+				this.beliefBase.tablesStale = true;
+			}
+			if (this.beliefBase != null && this.beliefBase.queryCache != null) {
+				this.beliefBase.queryCache.invalidate(formula);
+				if (formula.name().equals(BROADCAST)) {
+					this.beliefBase.queryCache.invalidate("sent/2");
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return The query cache of this belief or goal base, or {@code null} if
+	 *         queries are not cached.
+	 */
+	public QueryCache getQueryCache() {
+		return this.queryCache;
+	}
+
+	/**
+	 * @return The memo of queries on the knowledge of this belief or goal
+	 *         base, or {@code null} if they are not memoized.
+	 */
+	public KnowledgeMemo getKnowledgeMemo() {
+		return this.knowledgeMemo;
+	}
+
+	/**
+	 * {@inheritDoc} <br>
+	 * Also removes this database from its mental state.
+	 */
+	@Override
+	public void destroy() throws KRDatabaseException {
+		PrologCalls.count();
+		super.destroy();
+		this.state.removeDatabase(this);
+	}
+
+	/**
+	 * Hides {@link SWIPrologDatabase#rawquery(Term)}, so that the calls of
+	 * this class are counted by {@link PrologCalls}.
+	 *
+	 * @param goal
+	 *            The goal.
+	 * @return The solutions of the goal.
+	 * @throws KRQueryFailedException
+	 */
+	public static Set<PrologSubstitution> rawquery(Term goal)
+			throws KRQueryFailedException {
+		return PrologCalls.rawquery(goal);
+	}
+
+	/**
+	 * @return The tabled predicates of this belief or goal base, or
+	 *         {@code null} if predicates are not tabled.
+	 */
+	public KnowledgeTables getTables() {
+		return this.tables;
+	}
+
+	/**
+	 * Declares the recursive knowledge predicates tabled in the module of
+	 * this database, if tabling is enabled. Should be called before their
+	 * clauses are added.
+	 *
+	 * @throws KRQueryFailedException
+	 */
+	private void declareTabled() throws KRQueryFailedException {
+		if (this.tables == null) {
+			return;
+		}
+		for (String signature : this.tables.getTabled()) {
+			int slash = signature.lastIndexOf('/');
+			Term indicator = JPLUtils.createCompound("/", new Atom(
+					signature.substring(0, slash)), new jpl.Integer(
+					Integer.parseInt(signature.substring(slash + 1))));
+			rawquery(JPLUtils.createCompound(":", getJPLName(),
+					JPLUtils.createCompound("table", indicator)));
+		}
+	}
+
+	/**
+	 * Abolishes the tables of this database if a predicate a tabled
+	 * predicate depends on has changed since they were computed. Tables are
+	 * abolished at most once between two queries, however many updates
+	 * there were.
+	 *
+	 * @throws KRQueryFailedException
+	 */
+	private void syncTables() throws KRQueryFailedException {
+		if (this.tablesStale) {
+			rawquery(JPLUtils.createCompound("abolish_module_tables",
+					getJPLName()));
+			this.tablesStale = false;
+		}
+	}
+
+	/**
+	 * {@inheritDoc} <br>
+	 * Applies the update as a single transaction, see
+	 * {@link #apply(List, List)}.
+	 */
+	@Override
+	public void insert(Update update) throws KRDatabaseException {
+		apply(update.getAddList(), update.getDeleteList());
+	}
+
+	/**
+	 * {@inheritDoc} <br>
+	 * Undoes the update as a single transaction, see
+	 * {@link #apply(List, List)}.
+	 */
+	@Override
+	public void delete(Update update) throws KRDatabaseException {
+		apply(update.getDeleteList(), update.getAddList());
+	}
+
+	/**
+	 * <p>
+	 * Removes and adds formulas in a single Prolog call, as one transaction:
+	 * either all formulas are applied, or the database is left unchanged.
+	 * Each formula to remove retracts the first matching clause, if any; then
+	 * all formulas to add are asserted. Only the clauses that were retracted
+	 * are logged, as they were stored.
+	 * </p>
+	 * <p>
+	 * Before anything is changed, Prolog checks that every formula is a fact
+	 * or clause of a dynamic (or not yet defined) predicate of this database;
+	 * otherwise the update is rejected. If asserting still raises an
+	 * exception, the clauses asserted so far are erased and the retracted
+	 * clauses are asserted again, at the end of their predicate.
+	 * </p>
+	 * <p>
+	 * Percept and emotion bases that store their content in Java, and
+	 * mailboxes that store broadcasts compactly, apply formulas one at a time
+	 * instead.
+	 * </p>
+	 *
+	 * @param added
+	 *            The formulas to add.
+	 * @param removed
+	 *            The formulas to remove.
+	 * @throws KRDatabaseException
+	 *             If the update was rejected or failed; the database has not
+	 *             been changed.
+	 */
+	public void apply(List<DatabaseFormula> added,
+			List<DatabaseFormula> removed) throws KRDatabaseException {
+		if (this.percepts != null || this.emotions != null || this.compact) {
+			for (DatabaseFormula formula : removed) {
+				delete(formula);
+			}
+			for (DatabaseFormula formula : added) {
+				insert(formula);
+			}
+			return;
+		}
+		if (added.isEmpty() && removed.isEmpty()) {
+			return;
+		}
+		long start = startTiming();
+		List<Term> adds = new ArrayList<>(added.size());
+		for (DatabaseFormula formula : added) {
+			adds.add(((PrologDBFormula) formula).getTerm());
+		}
+		List<Term> deletes = new ArrayList<>(removed.size());
+		for (DatabaseFormula formula : removed) {
+			deletes.add(((PrologDBFormula) formula).getTerm());
+		}
+		Term addList = JPLUtils.termsToList(adds);
+		Term deleteList = JPLUtils.termsToList(deletes);
+		Variable formula = new Variable("Formula");
+		Variable retracted = new Variable("Retracted");
+		Variable asserted = new Variable("Asserted");
+		Variable refs = new Variable("Refs");
+		Variable ref = new Variable("Ref");
+		Variable error = new Variable("Error");
+		Term db_formula = JPLUtils.createCompound(":", getJPLName(), formula);
+
+		// forall((member(F, Adds) ; member(F, Deletes)), modifiable(F))
+		Term check = JPLUtils.createCompound("forall", JPLUtils
+				.createCompound(";",
+						JPLUtils.createCompound("member", formula, addList),
+						JPLUtils.createCompound("member", formula, deleteList)),
+				modifiable(formula));
+		// findall(F, (member(F, Deletes), once(retract(M:F))), Retracted)
+		Term retract = JPLUtils.createCompound("findall", formula, JPLUtils
+				.createCompound(",", JPLUtils.createCompound("member", formula,
+						deleteList), JPLUtils.createCompound("once", JPLUtils
+						.createCompound("retract", db_formula))), retracted);
+		// The references of the asserted clauses are collected in Asserted =
+		// asserted(Refs), which survives the backtracking of forall/2:
+		// forall(member(F, Adds), (assertz(M:F, Ref), arg(1, Asserted, Refs),
+		// nb_setarg(1, Asserted, [Ref|Refs])))
+		Term record = JPLUtils.createCompound(",", JPLUtils.createCompound(
+				"assertz", db_formula, ref), JPLUtils.createCompound(",",
+				JPLUtils.createCompound("arg", new jpl.Integer(1), asserted,
+						refs), JPLUtils.createCompound("nb_setarg",
+						new jpl.Integer(1), asserted, JPLUtils.createCompound(
+								".", ref, refs))));
+		Term assertAll = JPLUtils.createCompound("forall",
+				JPLUtils.createCompound("member", formula, addList), record);
+		// Rollback: arg(1, Asserted, Refs), forall(member(Ref, Refs),
+		// erase(Ref)), forall(member(F, Retracted), assertz(M:F)), throw(E)
+		Term rollback = JPLUtils.createCompound(",", JPLUtils.createCompound(
+				"arg", new jpl.Integer(1), asserted, refs), JPLUtils
+				.createCompound(",", JPLUtils.createCompound("forall",
+						JPLUtils.createCompound("member", ref, refs),
+						JPLUtils.createCompound("erase", ref)), JPLUtils
+						.createCompound(",", JPLUtils.createCompound("forall",
+								JPLUtils.createCompound("member", formula,
+										retracted), JPLUtils.createCompound(
+										"assertz", db_formula)), JPLUtils
+								.createCompound("throw", error))));
+		// \+ \+ (Asserted = asserted([]), catch(AssertAll, E, Rollback)),
+		// so the clause references are not returned as bindings.
+		Term assertz = JPLUtils.createCompound("\\+", JPLUtils
+				.createCompound("\\+", JPLUtils.createCompound(",", JPLUtils
+						.createCompound("=", asserted, JPLUtils.createCompound(
+								"asserted", new Atom("[]"))), JPLUtils
+						.createCompound("catch", assertAll, error, rollback))));
+		Set<PrologSubstitution> results;
+		try {
+			results = rawquery(JPLUtils.createCompound(",", check,
+					JPLUtils.createCompound(",", retract, assertz)));
+		} catch (KRQueryFailedException e) {
+			throw new KRDatabaseException("update of " + getName()
+					+ " failed and has been rolled back", e);
+		}
+		if (results.isEmpty()) {
+			throw new KRDatabaseException("update of " + getName()
+					+ " rejected: it modifies a static or imported predicate");
+		}
+		recordTime("update", start);
+		// Only the clauses that were actually retracted, as they were stored.
+		List<Term> retractedClauses = Collections.emptyList();
+		PrologSubstitution result = results.iterator().next();
+		for (Var var : result.getVariables()) {
+			if (((Variable) var).name().equals(retracted.name())) {
+				retractedClauses = JPLUtils.getOperands(".",
+						((PrologTerm) result.get(var)).getTerm());
+				// Remove the empty list.
+				retractedClauses.remove(retractedClauses.size() - 1);
+			}
+		}
+		for (Term delete : retractedClauses) {
+			log(false, delete);
+			updateReceivers(delete, false);
+			if (this.retention != null) {
+				this.retention.remove(delete);
+			}
+		}
+		for (Term add : adds) {
+			log(true, add);
+			updateReceivers(add, true);
+		}
+	}
+
+	/**
+	 * Creates the goal that checks that a formula can be asserted into and
+	 * retracted from this database: (F = (H :- _) -> true ; H = F),
+	 * callable(H), \+ predicate_property(M:H, imported_from(_)), \+
+	 * (predicate_property(M:H, defined), \+ predicate_property(M:H,
+	 * dynamic)).
+	 */
+	private Term modifiable(Variable formula) {
+		Variable head = new Variable("Head");
+		Term db_head = JPLUtils.createCompound(":", getJPLName(), head);
+		Term getHead = JPLUtils.createCompound(";", JPLUtils.createCompound(
+				"->", JPLUtils.createCompound("=", formula, JPLUtils
+						.createCompound(":-", head, new Variable("_"))),
+				new Atom("true")), JPLUtils.createCompound("=", head, formula));
+		Term local = JPLUtils.createCompound("\\+", JPLUtils.createCompound(
+				"predicate_property", db_head, JPLUtils.createCompound(
+						"imported_from", new Variable("_"))));
+		Term dynamic = JPLUtils.createCompound("\\+", JPLUtils.createCompound(
+				",", JPLUtils.createCompound("predicate_property", db_head,
+						new Atom("defined")), JPLUtils.createCompound("\\+",
+						JPLUtils.createCompound("predicate_property", db_head,
+								new Atom("dynamic")))));
+		return JPLUtils.createCompound(",", getHead, JPLUtils.createCompound(
+				",", JPLUtils.createCompound("callable", head),
+				JPLUtils.createCompound(",", local, dynamic)));
+	}
+
+	/**
+	 * Records an update in the history of this belief base, if it is kept,
+	 * and writes it to the update log of the mental state, if there is one
+	 * and the initial content of this database has been added.
+	 */
+	private void log(boolean insert, Term formula) throws KRDatabaseException {
+		invalidateQueries(formula);
+		if (this.history != null) {
+			if (insert) {
+				this.history.insert(formula);
+			} else {
+				this.history.delete(formula);
+			}
+		}
+		UpdateLog log = this.state.getUpdateLog();
+		if (log != null && this.initialized) {
+			log.append(this, insert, formula);
+		}
+	}
+
+	/**
+	 * @return The percepts of this percept base if they are stored in Java,
+	 *         see {@link SwiPrologMentalState#setJavaPercepts(boolean)};
+	 *         {@code null} otherwise.
+	 */
+	public PerceptIndex getPerceptIndex() {
+		return this.percepts;
+	}
+
+	/**
+	 * Passes changes to percepts that are stored in Java to Prolog, if this is
+	 * such a percept base or a belief base that imports one.
+	 *
+	 * @throws KRQueryFailedException
+	 */
+	public void syncPercepts() throws KRQueryFailedException {
+		TypedSWIPrologDatabase source = getPerceptSource();
+		if (source != null && source.percepts != null
+				&& source.percepts.isPending()) {
+			try {
+				source.percepts.sync(source);
+			} catch (KRDatabaseException e) {
+				throw new KRQueryFailedException("percepts of "
+						+ this.owner + " could not be synchronized", e);
+			}
+		}
+	}
+
+	/**
+	 * @return The percept base whose percepts are visible in this database:
+	 *         this database if it is a percept base, the percept base of the
+	 *         agent if this is a belief base, and {@code null} otherwise.
+	 */
+	private TypedSWIPrologDatabase getPerceptSource() {
+		if (this.percepts != null) {
+			return this;
+		} else if (this.type == BASETYPE.BELIEFBASE) {
+			if (this.perceptBase == null) {
+				this.perceptBase = this.state.getDatabase(this.owner,
+						BASETYPE.PERCEPTBASE);
+			}
+			return this.perceptBase;
+		}
+		return null;
+	}
+
+	/**
+	 * Answers a query percept(Percept) from the percept index, if the
+	 * percepts are stored in Java and the predicate of the percept is known.
+	 *
+	 * @param query
+	 *            A query.
+	 * @return The answers, or {@code null} if the query cannot be answered
+	 *         from the index.
+	 */
+	private Set<Substitution> queryPercepts(Term query) {
+		if (!query.name().equals("percept") || query.arity() != 1) {
+			return null;
+		}
+		Term pattern = query.arg(1);
+		if (pattern.isVariable() || pattern.isInteger() || pattern.isFloat()) {
+			return null;
+		}
+		TypedSWIPrologDatabase source = getPerceptSource();
+		if (source == null || source.percepts == null) {
+			return null;
+		}
+		Set<String> variables = new LinkedHashSet<>();
+		JavaDatabase.getVariables(pattern, variables);
+		Set<Substitution> result = new LinkedHashSet<>();
+		for (Map<String, Term> bindings : source.percepts.match(pattern)) {
+			Map<String, Term> answer = new HashMap<>();
+			for (String variable : variables) {
+				answer.put(variable,
+						JavaDatabase.resolve(new Variable(variable), bindings));
+			}
+			result.add(new PrologSubstitution(answer));
+		}
+		return result;
+	}
+
+	/**
+	 * @return {@code true} if the formula is a percept/1 fact that is stored
+	 *         in Java.
+	 */
+	private boolean isPercept(Term formula) {
+		return this.percepts != null && formula.name().equals("percept")
+				&& formula.arity() == 1;
+	}
+
+	/**
+	 * @return The emotions of this emotion base; {@code null} if this
+	 *         database is not an emotion base.
+	 */
+	public EmotionIntensities getEmotions() {
+		return this.emotions;
+	}
+
+	/**
+	 * Passes changes to the intensities of emotions to Prolog, if this is an
+	 * emotion base or a belief base that imports one.
+	 *
+	 * @throws KRQueryFailedException
+	 */
+	public void syncEmotions() throws KRQueryFailedException {
+		TypedSWIPrologDatabase source = null;
+		if (this.emotions != null) {
+			source = this;
+		} else if (this.type == BASETYPE.BELIEFBASE) {
+			if (this.emotionBase == null) {
+				this.emotionBase = this.state.getDatabase(this.owner,
+						BASETYPE.EMOTIONBASE);
+			}
+			source = this.emotionBase;
+		}
+		if (source != null && source.emotions != null
+				&& source.emotions.isPending()) {
+			try {
+				source.emotions.sync(source);
+			} catch (KRDatabaseException e) {
+				throw new KRQueryFailedException("emotions of " + this.owner
+						+ " could not be synchronized", e);
+			}
+		}
+	}
+
+	/**
+	 * @return {@code true} if the formula is an emotion(Name, Intensity) fact
+	 *         for an emotion base, with an atom as name and a number as
+	 *         intensity for an insert.
+	 */
+	private boolean isEmotion(Term formula) {
+		return this.emotions != null && formula.name().equals("emotion")
+				&& formula.arity() == 2 && formula.arg(1).isAtom()
+				&& (formula.arg(2).isInteger() || formula.arg(2).isFloat());
+	}
+
+	/**
+	 * Removes the emotion that matches emotion(Name, Intensity), if any, from
+	 * the intensities of this emotion base. Only an atom or a variable can
+	 * match the name, and only a number or a variable the intensity.
+	 */
+	private void deleteEmotion(Term name, Term intensity) {
+		if ((name.isAtom() || name.isVariable())
+				&& (intensity.isInteger() || intensity.isFloat() || intensity
+						.isVariable())) {
+			this.emotions.remove(name.isVariable() ? null : name.name(),
+					intensity.isVariable() ? null : intensity.doubleValue());
+		}
+	}
+
+	/**
+	 * @return {@code true} if this is a mailbox that stores messages to
+	 *         multiple receivers as a single {@link #BROADCAST} fact.
+	 */
+	public boolean isCompact() {
+		return this.compact;
+	}
+
+	/**
+	 * Sets up a mailbox to store broadcasts compactly. A message that is sent
+	 * to multiple receivers is stored once, as a fact sent_to_all(Receivers,
+	 * Message) with a list of receivers. The clause sent(Receiver, Message) :-
+	 * sent_to_all(Receivers, Message), member(Receiver, Receivers) makes these
+	 * messages available through the sent/2 predicate as before.
+	 *
+	 * @throws KRInitFailedException
+	 */
+	private void createBroadcastView() throws KRInitFailedException {
+		Variable receiver = new Variable("Receiver");
+		Variable receivers = new Variable("Receivers");
+		Variable message = new Variable("Message");
+		Term broadcast = JPLUtils.createCompound(BROADCAST, receivers, message);
+		Term view = JPLUtils.createCompound(":-",
+				JPLUtils.createCompound("sent", receiver, message),
+				JPLUtils.createCompound(",", broadcast,
+						JPLUtils.createCompound("member", receiver, receivers)));
+		try {
+			rawquery(JPLUtils.createCompound("dynamic",
+					JPLUtils.createCompound(":", getJPLName(), broadcast)));
+			rawquery(JPLUtils.createCompound("assertz",
+					JPLUtils.createCompound(":", getJPLName(), view)));
+		} catch (KRQueryFailedException e) {
+			throw new KRInitFailedException("initialization of compact "
+					+ "broadcasts in the mailbox of agent " + this.owner
+					+ " failed", e);
+		}
+		this.compact = true;
+	}
+
+	/**
+	 * Removes a receiver from all compactly stored broadcasts of a message. A
+	 * broadcast without any remaining receivers is removed. If the receiver
+	 * is a variable, all broadcasts of the message are removed.
+	 *
+	 * @param receiver
+	 *            The receiver that is removed.
+	 * @param message
+	 *            The message.
+	 * @throws KRDatabaseException
+	 */
+	private void deleteFromBroadcasts(Term receiver, Term message)
+			throws KRDatabaseException {
+		Variable receivers = new Variable("Receivers");
+		Variable rest = new Variable("Rest");
+		Term retract = JPLUtils.createCompound("retract", JPLUtils
+				.createCompound(":", getJPLName(),
+						JPLUtils.createCompound(BROADCAST, receivers, message)));
+		Term query;
+		if (receiver.isVariable()) {
+			query = JPLUtils.createCompound("forall", retract,
+					new Atom("true"));
+		} else {
+			// forall(retract(Broadcast), (subtract(Receivers, [Receiver],
+			// Rest), (Rest == [] -> true ; assertz(sent_to_all(Rest, Message)))))
+			Term subtract = JPLUtils.createCompound("subtract", receivers,
+					JPLUtils.termsToList(Collections.singletonList(receiver)),
+					rest);
+			Term keep = JPLUtils.createCompound(";", JPLUtils.createCompound(
+					"->", JPLUtils.createCompound("==", rest, new Atom("[]")),
+					new Atom("true")), JPLUtils.createCompound("assertz",
+					JPLUtils.createCompound(":", getJPLName(),
+							JPLUtils.createCompound(BROADCAST, rest, message))));
+			query = JPLUtils.createCompound("forall", retract,
+					JPLUtils.createCompound(",", subtract, keep));
+		}
+		try {
+			rawquery(query);
+		} catch (KRQueryFailedException e) {
+			throw new KRDatabaseException("unable to remove " + receiver
+					+ " from broadcasts of " + message + " in " + getName(), e);
+		}
+	}
+
+	/**
+	 * Looks up the receivers of a message in the receiver index of this
+	 * mailbox.
+	 *
+	 * @param message
+	 *            The message (content) that has been sent.
+	 * @return The names of the receivers the message has been sent to, or
+	 *         {@code null} if this database is not a mailbox or the index
+	 *         could not be brought up to date.
+	 */
+	public Set<String> getReceivers(Term message) {
+		if (this.receivers == null) {
+			return null;
+		}
+		synchronized (this.receivers) {
+			if (this.receiversStale) {
+				try {
+					rebuildReceivers();
+				} catch (KRQueryFailedException e) {
+					return null;
+				}
+			}
+			Map<String, Integer> names = this.receivers.get(message
+					.toString());
+			if (names == null) {
+				return Collections.emptySet();
+			} else {
+				return new LinkedHashSet<>(names.keySet());
+			}
+		}
+	}
+
+	/**
+	 * Adds receivers to, or removes receivers from, the receiver index if the
+	 * given fact is a sent/2 or {@link #BROADCAST} fact and this database is a
+	 * mailbox.
+	 *
+	 * @param fact
+	 *            A fact that has been inserted or deleted.
+	 * @param insert
+	 *            {@code true} if the fact has been inserted.
+	 */
+	void updateReceivers(Term fact, boolean insert) {
+		if (this.receivers == null || fact.arity() != 2) {
+			return;
+		}
+		List<Term> receivers;
+		if (fact.name().equals("sent")) {
+			receivers = new LinkedList<>();
+			receivers.add(fact.arg(1));
+		} else if (fact.name().equals(BROADCAST)) {
+			receivers = JPLUtils.getOperands(".", fact.arg(1));
+			// Remove the empty list.
+			receivers.remove(receivers.size() - 1);
+		} else {
+			return;
+		}
+		String message = fact.arg(2).toString();
+		synchronized (this.receivers) {
+			Map<String, Integer> names = this.receivers.get(message);
+			for (Term receiver : receivers) {
+				if (insert) {
+					if (names == null) {
+						names = new LinkedHashMap<>();
+						this.receivers.put(message, names);
+					}
+					Integer count = names.get(receiver.name());
+					names.put(receiver.name(), count == null ? 1 : count + 1);
+				} else if (!JavaDatabase.isGround(fact)) {
+					// Only Prolog knows which fact has been retracted.
+					this.receiversStale = true;
+				} else if (names != null) {
+					Integer count = names.get(receiver.name());
+					if (count == null || count == 1) {
+						names.remove(receiver.name());
+					} else {
+						names.put(receiver.name(), count - 1);
+					}
+				}
+			}
+			if (names != null && names.isEmpty()) {
+				this.receivers.remove(message);
+			}
+		}
+	}
+
+	/**
+	 * Rebuilds the receiver index from the sent/2 facts in this mailbox.
+	 * Should be called while holding the lock on {@link #receivers}.
+	 *
+	 * @throws KRQueryFailedException
+	 */
+	private void rebuildReceivers() throws KRQueryFailedException {
+		Variable receiver = new Variable("Receiver");
+		Variable message = new Variable("Message");
+		Variable sent = new Variable("Sent");
+		Term findall = JPLUtils.createCompound("findall", JPLUtils
+				.createCompound("-", receiver, message), JPLUtils
+				.createCompound(":", getJPLName(),
+						JPLUtils.createCompound("sent", receiver, message)),
+				sent);
+		Set<PrologSubstitution> result = rawquery(findall);
+		this.receivers.clear();
+		for (PrologSubstitution solution : result) {
+			for (Var var : solution.getVariables()) {
+				if (!((Variable) var).name().equals(sent.name())) {
+					continue;
+				}
+				List<Term> pairs = JPLUtils.getOperands(".",
+						((PrologTerm) solution.get(var)).getTerm());
+				// Remove the empty list.
+				pairs.remove(pairs.size() - 1);
+				for (Term pair : pairs) {
+					String key = pair.arg(2).toString();
+					Map<String, Integer> names = this.receivers.get(key);
+					if (names == null) {
+						names = new LinkedHashMap<>();
+						this.receivers.put(key, names);
+					}
+					Integer count = names.get(pair.arg(1).name());
+					names.put(pair.arg(1).name(), count == null ? 1
+							: count + 1);
+				}
+			}
+		}
+		this.receiversStale = false;
+	}
+
+	/**
+	 * Returns the content this database was created with, or the content it
+	 * was most recently reloaded with.
+	 *
+	 * @return The initial content of this database.
+	 */
+	public Collection<DatabaseFormula> getContent() {
+		return this.content;
+	}
+
+	/**
+	 * @param content
+	 *            The new initial content of this database.
+	 */
+	void setContent(Collection<DatabaseFormula> content) {
+		this.content = content;
+	}
+
+	/**
+	 * Updates this database from an old to a new version of its content. Only
+	 * formulas that occur in the old content but not in the new content are
+	 * retracted, and only formulas that occur in the new content but not in
+	 * the old content are asserted. The changes are applied to the current
+	 * clauses of the database: a formula that the agent has deleted already
+	 * is not retracted, and a formula that the agent has inserted already is
+	 * not asserted again. Formulas are compared by their canonical text with
+	 * renamed variables, see {@link #getClauseKey(Term)}, as {@link Term} does
+	 * not implement hashcode/equals.
+	 *
+	 * @param oldContent
+	 *            The content that was inserted previously.
+	 * @param newContent
+	 *            The content that should be present after the update.
+	 * @param dynamicDeclarations
+	 *            Predicates that should (also) be declared dynamic.
+	 * @throws KRDatabaseException
+	 * @throws KRQueryFailedException
+	 */
+	public void reload(Collection<DatabaseFormula> oldContent,
+			Collection<DatabaseFormula> newContent, Set<Term> dynamicDeclarations)
+			throws KRDatabaseException, KRQueryFailedException {
+		// Index the old content; a formula may occur more than once.
+		Map<String, List<DatabaseFormula>> removed = new HashMap<>();
+		for (DatabaseFormula formula : oldContent) {
+			String key = getClauseKey(((PrologDBFormula) formula).getTerm());
+			List<DatabaseFormula> formulas = removed.get(key);
+			if (formulas == null) {
+				formulas = new LinkedList<>();
+				removed.put(key, formulas);
+			}
+			formulas.add(formula);
+		}
+		List<DatabaseFormula> added = new LinkedList<>();
+		for (DatabaseFormula formula : newContent) {
+			String key = getClauseKey(((PrologDBFormula) formula).getTerm());
+			List<DatabaseFormula> formulas = removed.get(key);
+			if (formulas == null) {
+				added.add(formula);
+			} else {
+				formulas.remove(0);
+				if (formulas.isEmpty()) {
+					removed.remove(key);
+				}
+			}
+		}
+
+		// Count the clauses that are currently present.
+		List<Term> clauses = new ArrayList<>();
+		dump(new ArrayList<Term>(), clauses);
+		Map<String, Integer> present = new HashMap<>();
+		for (Term clause : clauses) {
+			String key = getClauseKey(clause);
+			Integer count = present.get(key);
+			present.put(key, count == null ? 1 : count + 1);
+		}
+
+		// Declare first, so new clauses never refer to undeclared predicates.
+		declareDynamic(dynamicDeclarations);
+		for (Map.Entry<String, List<DatabaseFormula>> formulas : removed
+				.entrySet()) {
+			for (DatabaseFormula formula : formulas.getValue()) {
+				if (take(present, formulas.getKey())) {
+					delete(formula);
+				}
+			}
+		}
+		List<DatabaseFormula> missing = new LinkedList<>();
+		for (DatabaseFormula formula : added) {
+			if (!take(present, getClauseKey(((PrologDBFormula) formula)
+					.getTerm()))) {
+				missing.add(formula);
+			}
+		}
+		add(missing);
+	}
+
+	/**
+	 * Removes one occurrence of a clause from a count of clauses.
+	 *
+	 * @return {@code true} if the clause occurred in the count.
+	 */
+	private static boolean take(Map<String, Integer> counts, String key) {
+		Integer count = counts.get(key);
+		if (count == null) {
+			return false;
+		} else if (count == 1) {
+			counts.remove(key);
+		} else {
+			counts.put(key, count - 1);
+		}
+		return true;
+	}
+
+	/**
+	 * @param clause
+	 *            A fact or clause.
+	 * @return The canonical text of the clause with its variables renamed in
+	 *         order of appearance, so that a clause read back from Prolog has
+	 *         the same key as the clause it was asserted from. Every
+	 *         anonymous variable is renamed to a new variable.
+	 */
+	static String getClauseKey(Term clause) {
+		return CanonicalTerms.write(rename(clause,
+				new HashMap<String, Variable>(), new int[1]));
+	}
+
+	private static Term rename(Term term, Map<String, Variable> names,
+			int[] count) {
+		if (term.isVariable()) {
+			Variable renamed = term.name().equals("_") ? null : names.get(term
+					.name());
+			if (renamed == null) {
+				renamed = new Variable("V" + count[0]++);
+				if (!term.name().equals("_")) {
+					names.put(term.name(), renamed);
+				}
+			}
+			return renamed;
+		} else if (!term.isCompound() || term.arity() == 0) {
+			return term;
+		}
+		Term[] args = new Term[term.arity()];
+		for (int i = 0; i < args.length; i++) {
+			args[i] = rename(term.arg(i + 1), names, count);
+		}
+		return new Compound(term.name(), args);
+	}
+
 	/**
 	 * Get knowledge base content (should be done for belief and goal bases).
 	 *
@@ -256,6 +1709,45 @@ public class TypedSWIPrologDatabase extends SWIPrologDatabase {
 				bb_import_percept1));
 	}
 
+	/**
+	 * Imports emotion/2 from the emotion base into the belief base, if both
+	 * exist.
+	 *
+	 * @throws KRQueryFailedException
+	 */
+	private void importEmotionsIntoBB() throws KRQueryFailedException {
+		SWIPrologDatabase beliefbase, emotionbase;
+		switch (this.type) {
+		case BELIEFBASE:
+			beliefbase = this;
+			emotionbase = this.state.getDatabase(this.owner,
+					BASETYPE.EMOTIONBASE);
+			break;
+		case EMOTIONBASE:
+			emotionbase = this;
+			beliefbase = this.state
+					.getDatabase(this.owner, BASETYPE.BELIEFBASE);
+			break;
+		default:
+			throw new UnsupportedOperationException(
+					"can not import emotions from " + this.type);
+		}
+		if (beliefbase == null || emotionbase == null) {
+			return;
+		}
+
+		Variable anonymousVar = new Variable("_");
+		Term emotion = JPLUtils.createCompound("emotion", anonymousVar,
+				anonymousVar);
+		Term eb_emotion = JPLUtils.createCompound(":",
+				emotionbase.getJPLName(), emotion);
+		Term bb_import_emotion = JPLUtils.createCompound(":",
+				beliefbase.getJPLName(),
+				JPLUtils.createCompound("import", eb_emotion));
+		rawquery(JPLUtils.createCompound(",", new Atom("true"),
+				bb_import_emotion));
+	}
+
 	/**
 	 * DOC
 	 *
@@ -325,6 +1817,107 @@ public class TypedSWIPrologDatabase extends SWIPrologDatabase {
 		}
 	}
 
+	/**
+	 * Inserts an instance of a template for each of the given values in a
+	 * single Prolog call, i.e. by asserting the template for each binding of
+	 * the variable to one of the values. The template itself is passed to
+	 * Prolog only once, which avoids a round trip per fact.
+	 *
+	 * @param template
+	 *            The fact that is inserted; should contain the variable.
+	 * @param variable
+	 *            The variable that is bound to each of the values.
+	 * @param values
+	 *            The values for the variable.
+	 * @throws KRDatabaseException
+	 */
+	public void insertAll(Term template, Variable variable, List<Term> values)
+			throws KRDatabaseException {
+		Term member = JPLUtils.createCompound("member", variable,
+				JPLUtils.termsToList(values));
+		Term assertz = JPLUtils.createCompound("assertz",
+				JPLUtils.createCompound(":", getJPLName(), template));
+		try {
+			rawquery(JPLUtils.createCompound("forall", member, assertz));
+		} catch (KRQueryFailedException e) {
+			throw new KRDatabaseException("unable to insert " + values.size()
+					+ " instances of " + template + " into " + getName(), e);
+		}
+		for (Term value : values) {
+			log(true, substitute(template, variable, value));
+		}
+	}
+
+	/**
+	 * Inserts all given facts in a single Prolog call. Unlike
+	 * {@link #insertAll(Term, Variable, List)} no variable is added to the
+	 * call, so the facts may contain any variable.
+	 *
+	 * @param facts
+	 *            The facts that are inserted.
+	 * @throws KRDatabaseException
+	 */
+	public void insertAll(List<Term> facts) throws KRDatabaseException {
+		List<Term> asserts = new ArrayList<>(facts.size());
+		for (Term fact : facts) {
+			asserts.add(JPLUtils.createCompound("assertz",
+					JPLUtils.createCompound(":", getJPLName(), fact)));
+		}
+		try {
+			rawquery(JPLUtils.termsToConjunct(asserts));
+		} catch (KRQueryFailedException e) {
+			throw new KRDatabaseException("unable to insert " + facts.size()
+					+ " facts into " + getName(), e);
+		}
+		for (Term fact : facts) {
+			log(true, fact);
+		}
+	}
+
+	/**
+	 * Removes all given facts in a single Prolog call. Facts that are not
+	 * present are ignored.
+	 *
+	 * @param facts
+	 *            The facts that are removed.
+	 * @throws KRDatabaseException
+	 */
+	public void deleteAll(List<Term> facts) throws KRDatabaseException {
+		Variable fact = new Variable("Fact");
+		Term member = JPLUtils.createCompound("member", fact,
+				JPLUtils.termsToList(facts));
+		Term retract = JPLUtils.createCompound("retract",
+				JPLUtils.createCompound(":", getJPLName(), fact));
+		try {
+			rawquery(JPLUtils.createCompound("forall", member,
+					JPLUtils.createCompound("ignore", retract)));
+		} catch (KRQueryFailedException e) {
+			throw new KRDatabaseException("unable to delete " + facts.size()
+					+ " facts from " + getName(), e);
+		}
+		for (Term removed : facts) {
+			updateReceivers(removed, false);
+			log(false, removed);
+		}
+	}
+
+	/**
+	 * @return A copy of the term in which the variable has been replaced by
+	 *         the value.
+	 */
+	private static Term substitute(Term term, Variable variable, Term value) {
+		if (term.isVariable()) {
+			return term.name().equals(variable.name()) ? value : term;
+		} else if (!term.isCompound() || term.arity() == 0) {
+			return term;
+		}
+		Term[] args = new Term[term.arity()];
+		for (int i = 0; i < args.length; i++) {
+			args[i] = substitute(term.arg(i + 1), variable, value);
+		}
+		return new Compound(term.name(), args);
+	}
+
 	/**
 	 * Declares predicates as dynamic predicates in the database so they can be
 	 * queried without introducing existence errors.
@@ -338,4 +1931,23 @@ public class TypedSWIPrologDatabase extends SWIPrologDatabase {
 			rawquery(JPLUtils.createCompound("dynamic", declaration));
 		}
 	}
+
+	/**
+	 * @return The current time if operations are timed, or 0 if the metrics
+	 *         of the mental state are disabled.
+	 */
+	private long startTiming() {
+		return this.state.getMetrics().isEnabled() ? System.nanoTime() : 0;
+	}
+
+	/**
+	 * Reports the time an operation has taken since {@link #startTiming()},
+	 * unless operations are not timed.
+	 */
+	private void recordTime(String operation, long start) {
+		if (start != 0) {
+			this.state.getMetrics().record(operation, this.type, this.owner,
+					System.nanoTime() - start);
+		}
+	}
 }
@@ -0,0 +1,376 @@
+/**
+ * Knowledge Representation Tools. Copyright (C) 2014 Koen Hindriks.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package swiPrologMentalState;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+import jpl.Term;
+import krTools.errors.exceptions.KRDatabaseException;
+import mentalState.BASETYPE;
+
+/**
+ * <p>
+ * An append-only log of all inserts and deletes on the databases of a
+ * {@link SwiPrologMentalState}, see
+ * {@link SwiPrologMentalState#setUpdateLog(UpdateLog)}. After a crash, the
+ * mental states of the agents can be rebuilt by creating their databases
+ * again (or restoring a snapshot) and calling
+ * {@link #replay(File, SwiPrologMentalState)}.
+ * </p>
+ * <p>
+ * Each record holds the owner, type and sequence number of the database, the
+ * operation and the formula in canonical text, see {@link CanonicalTerms},
+ * followed by a checksum. Records are buffered and written in batches; how
+ * often the log is forced to disk is determined by the {@link Sync} policy.
+ * Replaying stops at the first incomplete or corrupt record, which is what a
+ * crash during a write leaves behind; such a tail is cut off when the log is
+ * opened again, so new records directly follow the last valid one.
+ * </p>
+ * <p>
+ * Only updates of live databases are logged; the initial content of a
+ * database is not, as it is inserted again when the database is created.
+ * Agent facts in the module shared by all agents and emotion intensities are
+ * not logged either.
+ * </p>
+ */
+public class UpdateLog {
+	/**
+	 * When the log is forced to disk.
+	 */
+	public enum Sync {
+		/**
+		 * Never; batches are handed to the operating system only.
+		 */
+		NEVER,
+		/**
+		 * After every batch.
+		 */
+		BATCH,
+		/**
+		 * After every update; the slowest but safest option.
+		 */
+		ALWAYS;
+	}
+
+	/**
+	 * Receives the updates of a log that is replayed.
+	 */
+	interface Target {
+		/**
+		 * Applies an update.
+		 *
+		 * @param agent
+		 *            The owner of the database.
+		 * @param type
+		 *            The type of the database.
+		 * @param sequence
+		 *            The sequence number of the database.
+		 * @param insert
+		 *            {@code true} for an insert, {@code false} for a delete.
+		 * @param formula
+		 *            The formula that was inserted or deleted.
+		 * @throws KRDatabaseException
+		 */
+		void apply(String agent, BASETYPE type, int sequence, boolean insert,
+				Term formula) throws KRDatabaseException;
+	}
+
+	private static final byte INSERT = 1;
+	private static final byte DELETE = 2;
+
+	private final FileOutputStream file;
+	private final Sync sync;
+	private final int batchSize;
+	/**
+	 * The records of the current batch.
+	 */
+	private final ByteArrayOutputStream batch = new ByteArrayOutputStream();
+	private final DataOutputStream out = new DataOutputStream(this.batch);
+	private int batchCount = 0;
+	private long records = 0;
+
+	/**
+	 * Opens a log for appending; records are added after the last valid
+	 * record of an existing log, and anything after that record is removed.
+	 *
+	 * @param file
+	 *            The file of the log.
+	 * @param batchSize
+	 *            The number of records that are buffered before they are
+	 *            written; at least 1.
+	 * @param sync
+	 *            When the log is forced to disk.
+	 * @throws IOException
+	 *             If the file cannot be opened or repaired.
+	 */
+	public UpdateLog(File file, int batchSize, Sync sync) throws IOException {
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("batch size should be positive");
+		}
+		long valid = file.exists() ? getValidLength(file) : 0;
+		this.file = new FileOutputStream(file, true);
+		try {
+			if (this.file.getChannel().size() > valid) {
+				this.file.getChannel().truncate(valid);
+				this.file.getChannel().force(false);
+			}
+		} catch (IOException e) {
+			this.file.close();
+			throw e;
+		}
+		this.batchSize = batchSize;
+		this.sync = sync;
+	}
+
+	/**
+	 * Appends an insert or delete to the log.
+	 *
+	 * @param database
+	 *            The database that was updated.
+	 * @param insert
+	 *            {@code true} for an insert, {@code false} for a delete.
+	 * @param formula
+	 *            The formula that was inserted or deleted.
+	 * @throws KRDatabaseException
+	 *             If the log could not be written.
+	 */
+	public synchronized void append(TypedSWIPrologDatabase database,
+			boolean insert, Term formula) throws KRDatabaseException {
+		try {
+			append(database.getOwner(), database.getType(),
+					database.getSequence(), insert, formula);
+		} catch (IOException e) {
+			throw new KRDatabaseException("unable to log update of "
+					+ database.getName(), e);
+		}
+	}
+
+	/**
+	 * Appends an insert or delete of the database with the given owner, type
+	 * and sequence number to the log.
+	 *
+	 * @throws IOException
+	 *             If the log could not be written.
+	 */
+	synchronized void append(String agent, BASETYPE type, int sequence,
+			boolean insert, Term formula) throws IOException {
+		byte[] payload = encode(agent, type, sequence, insert, formula);
+		CRC32 crc = new CRC32();
+		crc.update(payload);
+		this.out.writeInt(payload.length);
+		this.out.write(payload);
+		this.out.writeInt((int) crc.getValue());
+		this.records++;
+		if (++this.batchCount >= this.batchSize || this.sync == Sync.ALWAYS) {
+			flush();
+		}
+	}
+
+	private static byte[] encode(String agent, BASETYPE type, int sequence,
+			boolean insert, Term formula) {
+		byte[] owner = agent.getBytes(StandardCharsets.UTF_8);
+		byte[] text = CanonicalTerms.write(formula).getBytes(
+				StandardCharsets.UTF_8);
+		ByteBuffer buffer = ByteBuffer.allocate(14 + owner.length
+				+ text.length);
+		buffer.put(insert ? INSERT : DELETE);
+		buffer.put((byte) type.ordinal());
+		buffer.putInt(sequence);
+		buffer.putInt(owner.length);
+		buffer.put(owner);
+		buffer.putInt(text.length);
+		buffer.put(text);
+		return buffer.array();
+	}
+
+	/**
+	 * Writes the current batch to the file, and forces it to disk unless the
+	 * policy is {@link Sync#NEVER}.
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void flush() throws IOException {
+		if (this.batchCount == 0) {
+			return;
+		}
+		this.batch.writeTo(this.file);
+		this.batch.reset();
+		this.batchCount = 0;
+		if (this.sync != Sync.NEVER) {
+			this.file.getChannel().force(false);
+		}
+	}
+
+	/**
+	 * Flushes the current batch and closes the log.
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void close() throws IOException {
+		try {
+			flush();
+		} finally {
+			this.file.close();
+		}
+	}
+
+	/**
+	 * @return The number of records appended since the log was opened.
+	 */
+	public synchronized long getRecords() {
+		return this.records;
+	}
+
+	/**
+	 * Applies all updates in a log to the databases of a mental state. The
+	 * databases should exist, with the content they had when the log was
+	 * opened; the log of the mental state should not be set yet, as the
+	 * replayed updates would be logged again.
+	 *
+	 * @param file
+	 *            The file of the log.
+	 * @param state
+	 *            The mental state.
+	 * @return The number of updates that were applied.
+	 * @throws IOException
+	 *             If the log could not be read.
+	 * @throws KRDatabaseException
+	 *             If a database does not exist, or an update failed.
+	 */
+	public static long replay(File file, final SwiPrologMentalState state)
+			throws IOException, KRDatabaseException {
+		return replay(file, new Target() {
+			@Override
+			public void apply(String agent, BASETYPE type, int sequence,
+					boolean insert, Term formula) throws KRDatabaseException {
+				TypedSWIPrologDatabase database = state.getDatabase(agent,
+						type, sequence);
+				if (database == null) {
+					throw new KRDatabaseException("cannot replay update of "
+							+ type + " " + sequence + " of " + agent
+							+ " as it does not exist");
+				}
+				if (insert) {
+					database.insert(formula);
+				} else {
+					database.delete(formula);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Passes all updates in a log to a target, in order.
+	 *
+	 * @return The number of updates that were applied.
+	 * @throws IOException
+	 *             If the log could not be read.
+	 * @throws KRDatabaseException
+	 *             If the target failed to apply an update.
+	 */
+	static long replay(File file, Target target) throws IOException,
+			KRDatabaseException {
+		long applied = 0;
+		try (DataInputStream in = open(file)) {
+			byte[] payload;
+			while ((payload = read(in, file.length())) != null) {
+				apply(ByteBuffer.wrap(payload), target);
+				applied++;
+			}
+		}
+		return applied;
+	}
+
+	/**
+	 * @param file
+	 *            The file of a log.
+	 * @return The length of the log up to and including its last valid
+	 *         record.
+	 * @throws IOException
+	 *             If the log could not be read.
+	 */
+	public static long getValidLength(File file) throws IOException {
+		long length = 0;
+		try (DataInputStream in = open(file)) {
+			byte[] payload;
+			while ((payload = read(in, file.length())) != null) {
+				length += 8 + payload.length;
+			}
+		}
+		return length;
+	}
+
+	private static DataInputStream open(File file) throws IOException {
+		return new DataInputStream(new BufferedInputStream(
+				new FileInputStream(file)));
+	}
+
+	/**
+	 * Reads the next record of a log.
+	 *
+	 * @param in
+	 *            The log.
+	 * @param limit
+	 *            The length of the log.
+	 * @return The payload of the record, or {@code null} if the rest of the
+	 *         log does not start with a complete record with a valid
+	 *         checksum.
+	 * @throws IOException
+	 */
+	private static byte[] read(DataInputStream in, long limit)
+			throws IOException {
+		try {
+			int length = in.readInt();
+			if (length < 0 || length > limit) {
+				return null;
+			}
+			byte[] payload = new byte[length];
+			in.readFully(payload);
+			CRC32 crc = new CRC32();
+			crc.update(payload);
+			return in.readInt() == (int) crc.getValue() ? payload : null;
+		} catch (EOFException e) {
+			return null;
+		}
+	}
+
+	private static void apply(ByteBuffer record, Target target)
+			throws KRDatabaseException {
+		boolean insert = record.get() == INSERT;
+		BASETYPE type = BASETYPE.values()[record.get()];
+		int sequence = record.getInt();
+		byte[] owner = new byte[record.getInt()];
+		record.get(owner);
+		byte[] text = new byte[record.getInt()];
+		record.get(text);
+		target.apply(new String(owner, StandardCharsets.UTF_8), type,
+				sequence, insert, CanonicalTerms.read(new String(text,
+						StandardCharsets.UTF_8)));
+	}
+}
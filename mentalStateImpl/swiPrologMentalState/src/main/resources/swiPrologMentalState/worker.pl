@@ -0,0 +1,35 @@
+/*
+ * Worker process of a sharded mental state, see PrologWorker.java.
+ *
+ * Reads requests query(Template, Goal) from standard input, one term per
+ * request, and answers each with a single line on standard output:
+ * ok(Solutions) with the list of instances of Template for all solutions of
+ * Goal, or error(Error) if Goal raised an exception. All output is written
+ * with write_canonical/1 so it can be read without operator declarations.
+ */
+
+:- module(goal_worker, [serve/0]).
+
+serve :-
+	prompt(_, ''),
+	repeat,
+	read_term(user_input, Request, []),
+	(   Request == end_of_file
+	->  !
+	;   handle(Request),
+	    fail
+	).
+
+handle(query(Template, Goal)) :- !,
+	catch(findall(Template, Goal, Solutions), Error, true),
+	(   var(Error)
+	->  reply(ok(Solutions))
+	;   reply(error(Error))
+	).
+handle(Request) :-
+	reply(error(unknown_request(Request))).
+
+reply(Reply) :-
+	write_canonical(user_output, Reply),
+	nl(user_output),
+	flush_output(user_output).
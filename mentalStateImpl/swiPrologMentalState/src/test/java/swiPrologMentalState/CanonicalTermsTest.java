@@ -0,0 +1,106 @@
+/**
+ * Knowledge Representation Tools. Copyright (C) 2014 Koen Hindriks.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package swiPrologMentalState;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import jpl.Atom;
+import jpl.Term;
+import jpl.Variable;
+
+import org.junit.Test;
+
+import swiprolog.language.JPLUtils;
+
+public class CanonicalTermsTest {
+	/**
+	 * Writes a term, reads it back, and checks that the result is written
+	 * the same.
+	 */
+	private static void assertRoundTrip(Term term) {
+		String text = CanonicalTerms.write(term);
+		assertEquals(text, CanonicalTerms.write(CanonicalTerms.read(text)));
+	}
+
+	@Test
+	public void roundTripsAtoms() {
+		for (String name : new String[] { "on", "Capital", "two words",
+				"it's", "back\\slash", "new\nline", "tab\there", "[]", "",
+				"+", "'" }) {
+			assertRoundTrip(new Atom(name));
+			assertEquals(name, CanonicalTerms.read(
+					CanonicalTerms.write(new Atom(name))).name());
+		}
+	}
+
+	@Test
+	public void roundTripsNumbers() {
+		assertRoundTrip(JPLUtils.createIntegerNumber(42));
+		assertRoundTrip(JPLUtils.createIntegerNumber(-7));
+		assertRoundTrip(JPLUtils.createIntegerNumber(Long.MAX_VALUE));
+		assertRoundTrip(new jpl.Float(1.5));
+		assertRoundTrip(new jpl.Float(-0.25));
+		assertRoundTrip(new jpl.Float(1e10));
+		assertRoundTrip(new jpl.Float(1e-5));
+		assertEquals(-7, CanonicalTerms.read("-7").longValue());
+		assertTrue(CanonicalTerms.read("1.0e10").isFloat());
+	}
+
+	@Test
+	public void roundTripsCompoundsAndLists() {
+		Term list = JPLUtils.createCompound(".",
+				JPLUtils.createIntegerNumber(1), JPLUtils.createCompound(".",
+						new Atom("b"), new Variable("T")));
+		Term term = JPLUtils.createCompound("on", new Atom("a"),
+				JPLUtils.createCompound("f", new Variable("X"), list,
+						new Atom("[]")));
+		assertRoundTrip(term);
+		assertRoundTrip(JPLUtils.createCompound(":-",
+				JPLUtils.createCompound("p", new Variable("X")),
+				JPLUtils.createCompound(",", JPLUtils.createCompound("q",
+						new Variable("X")), new Atom("!"))));
+	}
+
+	@Test
+	public void readsCanonicalText() {
+		Term term = CanonicalTerms.read("f('A b',[a,b|T],\"text\",-3,{x}) .");
+		assertEquals("f", term.name());
+		assertEquals(5, term.arity());
+		assertEquals("A b", term.arg(1).name());
+		Term list = term.arg(2);
+		assertEquals(".", list.name());
+		assertEquals("a", list.arg(1).name());
+		assertEquals("b", list.arg(2).arg(1).name());
+		assertTrue(list.arg(2).arg(2).isVariable());
+		assertTrue(term.arg(3).isAtom());
+		assertEquals("text", term.arg(3).name());
+		assertEquals(-3, term.arg(4).longValue());
+		assertEquals("{}", term.arg(5).name());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsTextAfterTerm() {
+		CanonicalTerms.read("f(a) g");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsUnterminatedQuote() {
+		CanonicalTerms.read("'open");
+	}
+}
@@ -0,0 +1,117 @@
+/**
+ * Knowledge Representation Tools. Copyright (C) 2014 Koen Hindriks.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package swiPrologMentalState;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import jpl.Atom;
+import jpl.Term;
+
+import org.junit.Test;
+
+import swiprolog.language.JPLUtils;
+
+public class PersistentFactSetTest {
+	private static Term fact(int i) {
+		return JPLUtils.createCompound("f", JPLUtils.createIntegerNumber(i));
+	}
+
+	private static Set<String> toStrings(PersistentFactSet set) {
+		Set<String> strings = new HashSet<>();
+		for (Term term : set) {
+			strings.add(term.toString());
+		}
+		return strings;
+	}
+
+	@Test
+	public void addsAndRemoves() {
+		PersistentFactSet one = PersistentFactSet.EMPTY.add(fact(1));
+		PersistentFactSet two = one.add(fact(2));
+		assertEquals(0, PersistentFactSet.EMPTY.size());
+		assertEquals(1, one.size());
+		assertEquals(2, two.size());
+		assertTrue(two.contains(fact(1)));
+		assertTrue(two.contains(fact(2)));
+		assertFalse(one.contains(fact(2)));
+
+		PersistentFactSet removed = two.remove(fact(1));
+		assertEquals(1, removed.size());
+		assertFalse(removed.contains(fact(1)));
+		assertTrue(removed.contains(fact(2)));
+		// The older versions are not changed.
+		assertTrue(two.contains(fact(1)));
+		assertTrue(one.contains(fact(1)));
+	}
+
+	@Test
+	public void ignoresDuplicatesAndAbsentFormulas() {
+		PersistentFactSet set = PersistentFactSet.EMPTY.add(fact(1));
+		assertSame(set, set.add(fact(1)));
+		assertSame(set, set.remove(fact(2)));
+		assertSame(PersistentFactSet.EMPTY,
+				PersistentFactSet.EMPTY.remove(fact(1)));
+	}
+
+	@Test
+	public void keepsFormulasWithTheSameHash() {
+		Term aa = new Atom("Aa");
+		Term bb = new Atom("BB");
+		assertEquals(aa.toString().hashCode(), bb.toString().hashCode());
+
+		PersistentFactSet both = PersistentFactSet.EMPTY.add(aa).add(bb);
+		assertEquals(2, both.size());
+		assertTrue(both.contains(aa));
+		assertTrue(both.contains(bb));
+		assertEquals(new HashSet<>(Arrays.asList(aa.toString(),
+				bb.toString())), toStrings(both));
+		assertSame(both, both.add(bb));
+
+		PersistentFactSet left = both.remove(aa);
+		assertEquals(1, left.size());
+		assertFalse(left.contains(aa));
+		assertTrue(left.contains(bb));
+		assertEquals(0, left.remove(bb).size());
+		assertFalse(left.remove(bb).contains(bb));
+	}
+
+	@Test
+	public void handlesManyFormulas() {
+		PersistentFactSet set = PersistentFactSet.EMPTY;
+		for (int i = 0; i < 2000; i++) {
+			set = set.add(fact(i));
+		}
+		assertEquals(2000, set.size());
+		for (int i = 0; i < 2000; i += 2) {
+			set = set.remove(fact(i));
+		}
+		assertEquals(1000, set.size());
+		for (int i = 0; i < 2000; i++) {
+			assertEquals(i % 2 == 1, set.contains(fact(i)));
+		}
+		assertEquals(1000, toStrings(set).size());
+	}
+}
@@ -0,0 +1,164 @@
+/**
+ * Knowledge Representation Tools. Copyright (C) 2014 Koen Hindriks.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package swiPrologMentalState;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import jpl.Atom;
+import jpl.Term;
+import jpl.Variable;
+import krTools.errors.exceptions.KRDatabaseException;
+import mentalState.BASETYPE;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import swiprolog.language.JPLUtils;
+
+public class UpdateLogTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * Collects the replayed updates as text.
+	 */
+	private static class Collector implements UpdateLog.Target {
+		private final List<String> updates = new ArrayList<>();
+
+		@Override
+		public void apply(String agent, BASETYPE type, int sequence,
+				boolean insert, Term formula) {
+			this.updates.add(describe(agent, type, sequence, insert, formula));
+		}
+	}
+
+	private static String describe(String agent, BASETYPE type, int sequence,
+			boolean insert, Term formula) {
+		return agent + " " + type + " " + sequence + " "
+				+ (insert ? "insert " : "delete ")
+				+ CanonicalTerms.write(formula);
+	}
+
+	private static Term on(String block, String place) {
+		return JPLUtils.createCompound("on", new Atom(block), new Atom(place));
+	}
+
+	private static List<String> replay(File file) throws IOException,
+			KRDatabaseException {
+		Collector collector = new Collector();
+		long applied = UpdateLog.replay(file, collector);
+		assertEquals(collector.updates.size(), applied);
+		return collector.updates;
+	}
+
+	@Test
+	public void replaysWhatWasAppended() throws Exception {
+		File file = this.folder.newFile("updates.log");
+		Term rule = JPLUtils.createCompound(":-",
+				JPLUtils.createCompound("clear", new Variable("X")),
+				JPLUtils.createCompound("block", new Variable("X")));
+		UpdateLog log = new UpdateLog(file, 2, UpdateLog.Sync.NEVER);
+		log.append("agent", BASETYPE.BELIEFBASE, 0, true, on("a", "b"));
+		log.append("agent", BASETYPE.BELIEFBASE, 0, false, on("a", "b"));
+		log.append("other agent", BASETYPE.GOALBASE, 3, true, rule);
+		assertEquals(3, log.getRecords());
+		log.close();
+
+		List<String> updates = replay(file);
+		assertEquals(3, updates.size());
+		assertEquals(describe("agent", BASETYPE.BELIEFBASE, 0, true,
+				on("a", "b")), updates.get(0));
+		assertEquals(describe("agent", BASETYPE.BELIEFBASE, 0, false,
+				on("a", "b")), updates.get(1));
+		assertEquals(describe("other agent", BASETYPE.GOALBASE, 3, true,
+				rule), updates.get(2));
+	}
+
+	@Test
+	public void reopeningAppendsAfterExistingRecords() throws Exception {
+		File file = this.folder.newFile("updates.log");
+		UpdateLog log = new UpdateLog(file, 1, UpdateLog.Sync.BATCH);
+		log.append("agent", BASETYPE.BELIEFBASE, 0, true, on("a", "b"));
+		log.close();
+		log = new UpdateLog(file, 1, UpdateLog.Sync.BATCH);
+		log.append("agent", BASETYPE.BELIEFBASE, 0, true, on("b", "c"));
+		log.close();
+
+		List<String> updates = replay(file);
+		assertEquals(2, updates.size());
+		assertEquals(describe("agent", BASETYPE.BELIEFBASE, 0, true,
+				on("b", "c")), updates.get(1));
+	}
+
+	@Test
+	public void cutsOffTornTail() throws Exception {
+		File file = this.folder.newFile("updates.log");
+		UpdateLog log = new UpdateLog(file, 1, UpdateLog.Sync.ALWAYS);
+		log.append("agent", BASETYPE.BELIEFBASE, 0, true, on("a", "b"));
+		log.append("agent", BASETYPE.BELIEFBASE, 0, true, on("b", "c"));
+		log.close();
+		long valid = file.length();
+
+		// A crash in the middle of a write: a length and part of a record.
+		try (FileOutputStream out = new FileOutputStream(file, true)) {
+			out.write(new byte[] { 0, 0, 0, 40, 1, 2, 3 });
+		}
+		assertEquals(valid, UpdateLog.getValidLength(file));
+		assertEquals(2, replay(file).size());
+
+		log = new UpdateLog(file, 1, UpdateLog.Sync.ALWAYS);
+		assertEquals(valid, file.length());
+		log.append("agent", BASETYPE.BELIEFBASE, 0, false, on("a", "b"));
+		log.close();
+
+		List<String> updates = replay(file);
+		assertEquals(3, updates.size());
+		assertEquals(describe("agent", BASETYPE.BELIEFBASE, 0, false,
+				on("a", "b")), updates.get(2));
+	}
+
+	@Test
+	public void stopsAtCorruptRecord() throws Exception {
+		File file = this.folder.newFile("updates.log");
+		UpdateLog log = new UpdateLog(file, 10, UpdateLog.Sync.NEVER);
+		log.append("agent", BASETYPE.BELIEFBASE, 0, true, on("a", "b"));
+		log.flush();
+		long first = file.length();
+		log.append("agent", BASETYPE.BELIEFBASE, 0, true, on("b", "c"));
+		log.close();
+
+		// Damage the formula of the second record, so its checksum fails.
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.seek(file.length() - 6);
+			int b = raf.read();
+			raf.seek(file.length() - 6);
+			raf.write(b ^ 0xFF);
+		}
+		assertEquals(first, UpdateLog.getValidLength(file));
+		assertEquals(1, replay(file).size());
+	}
+}
@@ -1,5 +1,7 @@
 package mentalState;
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
@@ -78,6 +80,15 @@ public abstract class DependencyGraph<T extends Expression> {
 	 */
 	public abstract void add(Query query) throws KRException;
 
+	/**
+	 * Returns all nodes in the graph.
+	 *
+	 * @return An unmodifiable view on the nodes in this graph.
+	 */
+	public Collection<Node<T>> getNodes() {
+		return Collections.unmodifiableCollection(this.graph.values());
+	}
+
 	/**
 	 * Returns the definitions in the program that are never used.
 	 *
@@ -130,22 +141,21 @@ public abstract class DependencyGraph<T extends Expression> {
 	}
 
 	/**
-	 * String representation of this graph.
+	 * String representation of this graph. Use a
+	 * {@link DependencyGraphExporter} to write (large) graphs to a stream.
 	 */
 	@Override
 	public String toString() {
-		Node<T> node;
 		int counter;
 
-		StringBuffer buffer = new StringBuffer("Dependency Graph:\n");
+		StringBuilder buffer = new StringBuilder("Dependency Graph:\n");
 		buffer.append("----Definitions----\n");
 		// Initialize counter.
 		counter = 0;
-		for (String sig : this.graph.keySet()) {
-			node = this.graph.get(sig);
+		for (Node<T> node : this.graph.values()) {
 			if (node.isDefined()) {
 				counter++;
-				buffer.append(sig);
+				buffer.append(node.getSignature());
 				buffer.append(" @ ");
 				for (Expression def : node.getDefinitions()) {
 					buffer.append(def.getSourceInfo().toString());
@@ -157,8 +167,8 @@ public abstract class DependencyGraph<T extends Expression> {
 							.getDependencies().iterator();
 					buffer.append(dependencyIterator.next().getSignature());
 					while (dependencyIterator.hasNext()) {
-						buffer.append(" , "
-								+ dependencyIterator.next().getSignature());
+						buffer.append(" , ");
+						buffer.append(dependencyIterator.next().getSignature());
 					}
 				}
 				buffer.append("\n");
@@ -168,8 +178,7 @@ public abstract class DependencyGraph<T extends Expression> {
 		buffer.append("\n----Queries----\n");
 		// Initialize counter.
 		counter = 0;
-		for (String sig2 : this.graph.keySet()) {
-			node = this.graph.get(sig2);
+		for (Node<T> node : this.graph.values()) {
 			if (node.isQueried()) {
 				counter++;
 				for (Expression query : node.getQueries()) {
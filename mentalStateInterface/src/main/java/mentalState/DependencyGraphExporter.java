@@ -0,0 +1,248 @@
+/**
+ * Knowledge Representation Tools. Copyright (C) 2014 Koen Hindriks.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package mentalState;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.List;
+
+import krTools.language.Expression;
+
+/**
+ * <p>
+ * Writes a {@link DependencyGraph} to a stream, either in the DOT format used
+ * by Graphviz or as JSON.
+ * </p>
+ * <p>
+ * Nodes are written one at a time directly to the target, so the memory used
+ * does not depend on the size of the graph. This makes the exporter suitable
+ * for (very) large programs for which {@link DependencyGraph#toString()} would
+ * produce a huge string.
+ * </p>
+ */
+public class DependencyGraphExporter {
+
+	/**
+	 * The supported export formats.
+	 */
+	public enum Format {
+		/**
+		 * Graphviz DOT format.
+		 */
+		DOT,
+		/**
+		 * JSON object with a list of nodes.
+		 */
+		JSON;
+	}
+
+	/**
+	 * The graph that is exported.
+	 */
+	private final DependencyGraph<?> graph;
+
+	/**
+	 * @param graph
+	 *            The graph that is exported.
+	 */
+	public DependencyGraphExporter(DependencyGraph<?> graph) {
+		this.graph = graph;
+	}
+
+	/**
+	 * Writes the graph to an output stream using UTF-8 encoding. The stream is
+	 * flushed but not closed.
+	 *
+	 * @param format
+	 *            The export format.
+	 * @param out
+	 *            The stream to write to.
+	 * @throws IOException
+	 *             If writing to the stream failed.
+	 */
+	public void export(Format format, OutputStream out) throws IOException {
+		Writer writer = new BufferedWriter(new OutputStreamWriter(out,
+				StandardCharsets.UTF_8));
+		export(format, writer);
+		writer.flush();
+	}
+
+	/**
+	 * Writes the graph to a writer. The writer is not flushed or closed.
+	 *
+	 * @param format
+	 *            The export format.
+	 * @param out
+	 *            The writer to write to.
+	 * @throws IOException
+	 *             If writing failed.
+	 */
+	public void export(Format format, Writer out) throws IOException {
+		switch (format) {
+		case DOT:
+			writeDot(out);
+			break;
+		case JSON:
+			writeJson(out);
+			break;
+		}
+	}
+
+	/**
+	 * Writes the graph in DOT format. Definitions that are never used are
+	 * colored gray, queries that are never defined are colored red, and basic
+	 * nodes are drawn as boxes.
+	 */
+	private void writeDot(Writer out) throws IOException {
+		out.write("digraph dependencies {\n");
+		for (Node<?> node : this.graph.getNodes()) {
+			out.write("  ");
+			writeDotString(out, node.getSignature());
+			out.write(" [");
+			if (node.isBasic()) {
+				out.write("shape=box");
+			} else {
+				out.write("shape=ellipse");
+			}
+			if (node.isDefined() && !node.isQueried()) {
+				out.write(", color=gray");
+			} else if (!node.isDefined() && node.isQueried()) {
+				out.write(", color=red");
+			}
+			out.write("];\n");
+			for (Node<?> dependency : node.getDependencies()) {
+				out.write("  ");
+				writeDotString(out, node.getSignature());
+				out.write(" -> ");
+				writeDotString(out, dependency.getSignature());
+				out.write(";\n");
+			}
+		}
+		out.write("}\n");
+	}
+
+	/**
+	 * Writes the graph as a JSON object of the form
+	 * <code>{"nodes":[{"signature":..,"defined":..,"queried":..,"basic":..,
+	 * "definitions":[..],"queries":[..],"dependencies":[..]},..]}</code>.
+	 * Definitions and queries are written as the source info of the
+	 * expressions.
+	 */
+	private void writeJson(Writer out) throws IOException {
+		out.write("{\"nodes\":[");
+		Iterator<? extends Node<?>> nodes = this.graph.getNodes().iterator();
+		while (nodes.hasNext()) {
+			Node<?> node = nodes.next();
+			out.write("\n{\"signature\":");
+			writeJsonString(out, node.getSignature());
+			out.write(",\"defined\":" + node.isDefined());
+			out.write(",\"queried\":" + node.isQueried());
+			out.write(",\"basic\":" + node.isBasic());
+			out.write(",\"definitions\":");
+			writeJsonSources(out, node.getDefinitions());
+			out.write(",\"queries\":");
+			writeJsonSources(out, node.getQueries());
+			out.write(",\"dependencies\":[");
+			Iterator<? extends Node<?>> dependencies = node.getDependencies()
+					.iterator();
+			while (dependencies.hasNext()) {
+				writeJsonString(out, dependencies.next().getSignature());
+				if (dependencies.hasNext()) {
+					out.write(",");
+				}
+			}
+			out.write("]}");
+			if (nodes.hasNext()) {
+				out.write(",");
+			}
+		}
+		out.write("\n]}\n");
+	}
+
+	private void writeJsonSources(Writer out,
+			List<? extends Expression> expressions) throws IOException {
+		out.write("[");
+		Iterator<? extends Expression> iterator = expressions.iterator();
+		while (iterator.hasNext()) {
+			Expression expression = iterator.next();
+			out.write("{\"expression\":");
+			writeJsonString(out, expression.toString());
+			out.write(",\"source\":");
+			if (expression.getSourceInfo() == null) {
+				out.write("null");
+			} else {
+				writeJsonString(out, expression.getSourceInfo().toString());
+			}
+			out.write("}");
+			if (iterator.hasNext()) {
+				out.write(",");
+			}
+		}
+		out.write("]");
+	}
+
+	private static void writeDotString(Writer out, String value)
+			throws IOException {
+		out.write('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\') {
+				out.write('\\');
+			}
+			out.write(c);
+		}
+		out.write('"');
+	}
+
+	private static void writeJsonString(Writer out, String value)
+			throws IOException {
+		out.write('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+			case '"':
+				out.write("\\\"");
+				break;
+			case '\\':
+				out.write("\\\\");
+				break;
+			case '\n':
+				out.write("\\n");
+				break;
+			case '\r':
+				out.write("\\r");
+				break;
+			case '\t':
+				out.write("\\t");
+				break;
+			default:
+				if (c < 0x20) {
+					out.write(String.format("\\u%04x", (int) c));
+				} else {
+					out.write(c);
+				}
+			}
+		}
+		out.write('"');
+	}
+}
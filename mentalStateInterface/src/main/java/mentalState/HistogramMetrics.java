@@ -0,0 +1,133 @@
+/**
+ * Knowledge Representation Tools. Copyright (C) 2014 Koen Hindriks.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package mentalState;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * <p>
+ * {@link MentalStateMetrics} that keeps a {@link LatencyHistogram} per
+ * operation, {@link BASETYPE} and agent. Measurements can be pulled with
+ * {@link #getHistograms()}, or inspected through JMX after calling
+ * {@link #register(String)}.
+ * </p>
+ * <p>
+ * Histograms are keyed by "operation/type/agent", where type and agent are
+ * "-" if not applicable.
+ * </p>
+ */
+public class HistogramMetrics implements MentalStateMetrics,
+		HistogramMetricsMXBean {
+	private final ConcurrentMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+
+	@Override
+	public void record(String operation, BASETYPE type, String agent,
+			long nanos) {
+		String key = operation + "/" + (type == null ? "-" : type.name())
+				+ "/" + (agent == null ? "-" : agent);
+		LatencyHistogram histogram = this.histograms.get(key);
+		if (histogram == null) {
+			LatencyHistogram created = new LatencyHistogram();
+			histogram = this.histograms.putIfAbsent(key, created);
+			if (histogram == null) {
+				histogram = created;
+			}
+		}
+		histogram.record(nanos);
+	}
+
+	@Override
+	public boolean isEnabled() {
+		return true;
+	}
+
+	/**
+	 * @return An unmodifiable view on the histograms, keyed by
+	 *         "operation/type/agent".
+	 */
+	public Map<String, LatencyHistogram> getHistograms() {
+		return Collections.unmodifiableMap(this.histograms);
+	}
+
+	/**
+	 * Registers these metrics with the platform MBean server.
+	 *
+	 * @param name
+	 *            The name used in the object name
+	 *            "mentalState:type=Metrics,name=...".
+	 * @throws JMException
+	 *             If registration failed.
+	 */
+	public void register(String name) throws JMException {
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+				new ObjectName("mentalState:type=Metrics,name=" + name));
+	}
+
+	@Override
+	public Map<String, Long> getCounts() {
+		Map<String, Long> values = new TreeMap<>();
+		for (Map.Entry<String, LatencyHistogram> entry : this.histograms
+				.entrySet()) {
+			values.put(entry.getKey(), entry.getValue().getCount());
+		}
+		return values;
+	}
+
+	@Override
+	public Map<String, Long> getMeanLatencies() {
+		Map<String, Long> values = new TreeMap<>();
+		for (Map.Entry<String, LatencyHistogram> entry : this.histograms
+				.entrySet()) {
+			values.put(entry.getKey(), entry.getValue().getMean());
+		}
+		return values;
+	}
+
+	@Override
+	public Map<String, Long> getP99Latencies() {
+		Map<String, Long> values = new TreeMap<>();
+		for (Map.Entry<String, LatencyHistogram> entry : this.histograms
+				.entrySet()) {
+			values.put(entry.getKey(), entry.getValue().getPercentile(99));
+		}
+		return values;
+	}
+
+	@Override
+	public Map<String, Long> getMaxLatencies() {
+		Map<String, Long> values = new TreeMap<>();
+		for (Map.Entry<String, LatencyHistogram> entry : this.histograms
+				.entrySet()) {
+			values.put(entry.getKey(), entry.getValue().getMax());
+		}
+		return values;
+	}
+
+	@Override
+	public void reset() {
+		this.histograms.clear();
+	}
+}
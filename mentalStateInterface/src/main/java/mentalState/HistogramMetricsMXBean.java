@@ -0,0 +1,52 @@
+/**
+ * Knowledge Representation Tools. Copyright (C) 2014 Koen Hindriks.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package mentalState;
+
+import java.util.Map;
+
+/**
+ * JMX view on a {@link HistogramMetrics}. All maps are keyed by
+ * "operation/type/agent", where type and agent are "-" if not applicable.
+ */
+public interface HistogramMetricsMXBean {
+	/**
+	 * @return The number of times each operation has been performed.
+	 */
+	Map<String, Long> getCounts();
+
+	/**
+	 * @return The mean latency of each operation in nanoseconds.
+	 */
+	Map<String, Long> getMeanLatencies();
+
+	/**
+	 * @return An upper bound of the 99th percentile latency of each operation
+	 *         in nanoseconds.
+	 */
+	Map<String, Long> getP99Latencies();
+
+	/**
+	 * @return The largest latency of each operation in nanoseconds.
+	 */
+	Map<String, Long> getMaxLatencies();
+
+	/**
+	 * Removes all measurements.
+	 */
+	void reset();
+}
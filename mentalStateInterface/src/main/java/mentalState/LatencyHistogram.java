@@ -0,0 +1,120 @@
+/**
+ * Knowledge Representation Tools. Copyright (C) 2014 Koen Hindriks.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package mentalState;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A thread safe histogram of latencies. Latencies are counted in buckets of
+ * exponentially increasing size (powers of two nanoseconds), so recording a
+ * latency is a constant time operation and the memory used is fixed;
+ * percentiles are accurate up to a factor of two.
+ */
+public class LatencyHistogram {
+	/**
+	 * Bucket i counts latencies in the range [2^i, 2^(i+1)) nanoseconds;
+	 * bucket 0 also counts latencies of 0.
+	 */
+	private final AtomicLongArray buckets = new AtomicLongArray(64);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong total = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Records a latency.
+	 *
+	 * @param nanos
+	 *            The latency in nanoseconds.
+	 */
+	public void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		int bucket = nanos == 0 ? 0 : 63 - Long.numberOfLeadingZeros(nanos);
+		this.buckets.incrementAndGet(bucket);
+		this.count.incrementAndGet();
+		this.total.addAndGet(nanos);
+		long current = this.max.get();
+		while (nanos > current && !this.max.compareAndSet(current, nanos)) {
+			current = this.max.get();
+		}
+	}
+
+	/**
+	 * @return The number of recorded latencies.
+	 */
+	public long getCount() {
+		return this.count.get();
+	}
+
+	/**
+	 * @return The sum of all recorded latencies in nanoseconds.
+	 */
+	public long getTotal() {
+		return this.total.get();
+	}
+
+	/**
+	 * @return The largest recorded latency in nanoseconds.
+	 */
+	public long getMax() {
+		return this.max.get();
+	}
+
+	/**
+	 * @return The mean latency in nanoseconds, or 0 if nothing was recorded.
+	 */
+	public long getMean() {
+		long n = this.count.get();
+		return n == 0 ? 0 : this.total.get() / n;
+	}
+
+	/**
+	 * Returns an upper bound of a percentile of the recorded latencies.
+	 *
+	 * @param percentile
+	 *            The percentile, between 0 and 100.
+	 * @return The upper bound of the bucket that contains the percentile, in
+	 *         nanoseconds, capped by the largest recorded latency; 0 if nothing
+	 *         was recorded.
+	 */
+	public long getPercentile(double percentile) {
+		long n = this.count.get();
+		if (n == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(percentile / 100 * n);
+		long seen = 0;
+		for (int i = 0; i < this.buckets.length(); i++) {
+			seen += this.buckets.get(i);
+			if (seen >= rank) {
+				long bound = i == 63 ? Long.MAX_VALUE : (1L << (i + 1)) - 1;
+				return Math.min(bound, this.max.get());
+			}
+		}
+		return this.max.get();
+	}
+
+	@Override
+	public String toString() {
+		return "count=" + getCount() + ", mean=" + getMean() + "ns, p50<="
+				+ getPercentile(50) + "ns, p99<=" + getPercentile(99)
+				+ "ns, max=" + getMax() + "ns";
+	}
+}
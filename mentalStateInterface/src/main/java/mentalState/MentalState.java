@@ -206,6 +206,27 @@ public interface MentalState {
 	Set<DatabaseFormula> updateAgentFact(Database database, boolean insert,
 			AgentId id, boolean me) throws KRDatabaseException;
 
+	/**
+	 * Updates the 'agent(name)' facts for a group of agents that join or leave
+	 * at the same time in a database. Has the same effect as calling
+	 * {@link #updateAgentFact(Database, boolean, AgentId, boolean)} for each
+	 * agent (without 'me(name)' facts), but allows the implementation to
+	 * apply all updates at once.
+	 *
+	 * @param database
+	 *            The database that needs to be updated.
+	 * @param insert
+	 *            {@code true} if the facts need to be inserted; {@code false}
+	 *            if the facts need to be removed;
+	 * @param ids
+	 *            Ids of the agents whose related agent facts need to be
+	 *            updated.
+	 * @return The facts that were inserted or removed.
+	 * @throws KRDatabaseException
+	 */
+	Set<DatabaseFormula> updateAgentFacts(Database database, boolean insert,
+			Collection<AgentId> ids) throws KRDatabaseException;
+
 	/**
 	 * Convert a Message into something we can put in a database. FIXME can we
 	 * use the EIS converter here?
@@ -220,6 +241,16 @@ public interface MentalState {
 	 */
 	Update convert(Message message, boolean isSent, AgentId receiver);
 
+	/**
+	 * Sets the metrics that the operations of this mental state, and of the
+	 * databases it creates, are reported to. By default, {@link NoMetrics}
+	 * are used.
+	 *
+	 * @param metrics
+	 *            The metrics to report to.
+	 */
+	void setMetrics(MentalStateMetrics metrics);
+
 	/**
 	 * Creates an empty, language specific {@link DependencyGraph}.
 	 *
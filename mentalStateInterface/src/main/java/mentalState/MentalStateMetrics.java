@@ -0,0 +1,49 @@
+/**
+ * Knowledge Representation Tools. Copyright (C) 2014 Koen Hindriks.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package mentalState;
+
+/**
+ * Receives measurements of the operations performed by a {@link MentalState}
+ * implementation. Implementations should be thread safe and cheap to call, as
+ * they are called for every operation; {@link NoMetrics} is used if no metrics
+ * have been configured.
+ */
+public interface MentalStateMetrics {
+	/**
+	 * Records that an operation has been performed.
+	 *
+	 * @param operation
+	 *            The name of the operation, e.g. "query" or "insertPercept".
+	 * @param type
+	 *            The type of database the operation was performed on, or
+	 *            {@code null} if the operation does not concern a specific
+	 *            database.
+	 * @param agent
+	 *            The name of the agent that owns the database, or {@code null}
+	 *            if the operation does not concern a specific agent.
+	 * @param nanos
+	 *            The time the operation took, in nanoseconds.
+	 */
+	void record(String operation, BASETYPE type, String agent, long nanos);
+
+	/**
+	 * @return {@code false} if all measurements are ignored; operations are
+	 *         then not timed at all.
+	 */
+	boolean isEnabled();
+}
@@ -0,0 +1,377 @@
+/**
+ * Knowledge Representation Tools. Copyright (C) 2014 Koen Hindriks.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package mentalState;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+import krTools.KRInterface;
+import krTools.database.Database;
+import krTools.errors.exceptions.KRDatabaseException;
+import krTools.errors.exceptions.KRInitFailedException;
+import krTools.errors.exceptions.KRQueryFailedException;
+import krTools.language.DatabaseFormula;
+import krTools.language.Query;
+import krTools.language.Substitution;
+import krTools.language.Term;
+import krTools.language.Update;
+import languageTools.program.agent.AgentId;
+import languageTools.program.agent.AgentProgram;
+import languageTools.program.agent.actions.UserSpecAction;
+import languageTools.program.agent.msg.Message;
+import eis.iilang.Action;
+import eis.iilang.Parameter;
+import eis.iilang.Percept;
+
+/**
+ * <p>
+ * A {@link MentalState} that forwards all calls to another mental state and
+ * records the calls that change the mental state of agents in a compact
+ * binary trace: the creation and destruction of databases, percept and
+ * message inserts, percept deletes and agent fact updates. A trace can be
+ * replayed with a {@link TraceReplayer} to reproduce a workload on a fresh
+ * mental state.
+ * </p>
+ * <p>
+ * A call is recorded after it has completed successfully. Databases are
+ * identified by the order in which they have been created. The databases
+ * returned by this mental state wrap those of the other mental state, so
+ * that their destruction is recorded as well; all databases that are passed
+ * to recorded calls should be created through this mental state. Recording stops at the first I/O error or call on an unknown
+ * database, which is then available via {@link #getError()}; the calls
+ * themselves are not affected.
+ * </p>
+ */
+public class RecordingMentalState implements MentalState {
+	private final MentalState delegate;
+	private final TraceWriter writer;
+	/**
+	 * The identifier of the next database created through this mental state.
+	 */
+	private int nextId = 0;
+	private IOException error;
+
+	/**
+	 * A database created through this mental state: forwards all calls to
+	 * the database of the other mental state, and records its destruction.
+	 */
+	private class RecordedDatabase implements Database {
+		private final Database database;
+		private final int id;
+
+		private RecordedDatabase(Database database, int id) {
+			this.database = database;
+			this.id = id;
+		}
+
+		@Override
+		public String getName() {
+			return this.database.getName();
+		}
+
+		@Override
+		public Set<Substitution> query(Query query)
+				throws KRQueryFailedException {
+			return this.database.query(query);
+		}
+
+		@Override
+		public void insert(Update update) throws KRDatabaseException {
+			this.database.insert(update);
+		}
+
+		@Override
+		public void insert(DatabaseFormula formula) throws KRDatabaseException {
+			this.database.insert(formula);
+		}
+
+		@Override
+		public void delete(Update update) throws KRDatabaseException {
+			this.database.delete(update);
+		}
+
+		@Override
+		public void delete(DatabaseFormula formula) throws KRDatabaseException {
+			this.database.delete(formula);
+		}
+
+		@Override
+		public void destroy() throws KRDatabaseException {
+			this.database.destroy();
+			synchronized (RecordingMentalState.this) {
+				start(TraceWriter.DESTROY_DATABASE, this);
+			}
+		}
+
+		@Override
+		public String toString() {
+			return this.database.toString();
+		}
+	}
+
+	/**
+	 * @param delegate
+	 *            The mental state that handles all calls.
+	 * @param out
+	 *            The stream the trace is written to.
+	 * @throws IOException
+	 *             If the header of the trace could not be written.
+	 */
+	public RecordingMentalState(MentalState delegate, OutputStream out)
+			throws IOException {
+		this.delegate = delegate;
+		this.writer = new TraceWriter(out);
+	}
+
+	/**
+	 * @return The first I/O error that occurred while recording, or
+	 *         {@code null}.
+	 */
+	public synchronized IOException getError() {
+		return this.error;
+	}
+
+	/**
+	 * Flushes the trace to the underlying stream.
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void flush() throws IOException {
+		this.writer.flush();
+	}
+
+	/**
+	 * Stops recording and closes the underlying stream.
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void close() throws IOException {
+		this.writer.close();
+	}
+
+	@Override
+	public Class<? extends KRInterface> getKRInterface() {
+		return this.delegate.getKRInterface();
+	}
+
+	@Override
+	public Term convert(Parameter parameter) {
+		return this.delegate.convert(parameter);
+	}
+
+	@Override
+	public Parameter convert(Term term) {
+		return this.delegate.convert(term);
+	}
+
+	@Override
+	public Term makeList(List<Term> termList) {
+		return this.delegate.makeList(termList);
+	}
+
+	@Override
+	public Action convert(UserSpecAction action) {
+		return this.delegate.convert(action);
+	}
+
+	@Override
+	public Update filterMailUpdates(Update update, boolean selectMails) {
+		return this.delegate.filterMailUpdates(update, selectMails);
+	}
+
+	@Override
+	public Database makeDatabase(BASETYPE type,
+			Collection<DatabaseFormula> content, AgentProgram agent)
+			throws KRInitFailedException, KRDatabaseException,
+			KRQueryFailedException {
+		Database created = this.delegate.makeDatabase(type, content, agent);
+		RecordedDatabase database;
+		synchronized (this) {
+			int id = this.nextId++;
+			database = new RecordedDatabase(created, id);
+			if (this.error == null) {
+				try {
+					this.writer.writeOperation(TraceWriter.MAKE_DATABASE);
+					this.writer.writeNumber(id);
+					this.writer.writeNumber(type.ordinal());
+					this.writer.writeString(agent.getSourceFile().getName());
+				} catch (IOException e) {
+					this.error = e;
+				}
+			}
+		}
+		return database;
+	}
+
+	@Override
+	public Collection<String> getReceiversOfMessage(Database database,
+			Message message) throws KRQueryFailedException {
+		return this.delegate.getReceiversOfMessage(unwrap(database), message);
+	}
+
+	@Override
+	public Set<DatabaseFormula> insert(Database database, Message message,
+			boolean received) throws KRDatabaseException {
+		Set<DatabaseFormula> inserted = this.delegate.insert(
+				unwrap(database), message, received);
+		synchronized (this) {
+			if (start(TraceWriter.INSERT_MESSAGE, database)) {
+				try {
+					this.writer.writeBoolean(received);
+					this.writer.writeString(message.getSender().getName());
+					this.writer.writeStrings(getNames(message.getReceivers()));
+					this.writer.writeNumber(message.getMood().ordinal());
+					this.writer.writeString(message.getContent().toString());
+				} catch (IOException e) {
+					this.error = e;
+				}
+			}
+		}
+		return inserted;
+	}
+
+	@Override
+	public DatabaseFormula insert(Database database, Percept percept)
+			throws KRDatabaseException {
+		DatabaseFormula inserted = this.delegate.insert(unwrap(database),
+				percept);
+		recordPercept(TraceWriter.INSERT_PERCEPT, database, percept);
+		return inserted;
+	}
+
+	@Override
+	public DatabaseFormula delete(Database database, Percept percept)
+			throws KRDatabaseException {
+		DatabaseFormula deleted = this.delegate.delete(unwrap(database),
+				percept);
+		recordPercept(TraceWriter.DELETE_PERCEPT, database, percept);
+		return deleted;
+	}
+
+	@Override
+	public Set<DatabaseFormula> updateAgentFact(Database database,
+			boolean insert, AgentId id, boolean me) throws KRDatabaseException {
+		Set<DatabaseFormula> updates = this.delegate.updateAgentFact(
+				unwrap(database), insert, id, me);
+		synchronized (this) {
+			if (start(TraceWriter.UPDATE_AGENT_FACT, database)) {
+				try {
+					this.writer.writeBoolean(insert);
+					this.writer.writeBoolean(me);
+					this.writer.writeString(id.getName());
+				} catch (IOException e) {
+					this.error = e;
+				}
+			}
+		}
+		return updates;
+	}
+
+	@Override
+	public Set<DatabaseFormula> updateAgentFacts(Database database,
+			boolean insert, Collection<AgentId> ids) throws KRDatabaseException {
+		Set<DatabaseFormula> updates = this.delegate.updateAgentFacts(
+				unwrap(database), insert, ids);
+		synchronized (this) {
+			if (start(TraceWriter.UPDATE_AGENT_FACTS, database)) {
+				try {
+					this.writer.writeBoolean(insert);
+					this.writer.writeStrings(getNames(ids));
+				} catch (IOException e) {
+					this.error = e;
+				}
+			}
+		}
+		return updates;
+	}
+
+	@Override
+	public Update convert(Message message, boolean isSent, AgentId receiver) {
+		return this.delegate.convert(message, isSent, receiver);
+	}
+
+	@Override
+	public void setMetrics(MentalStateMetrics metrics) {
+		this.delegate.setMetrics(metrics);
+	}
+
+	@Override
+	public DependencyGraph<?> createDependencyGraph() {
+		return this.delegate.createDependencyGraph();
+	}
+
+	private synchronized void recordPercept(int operation, Database database,
+			Percept percept) {
+		if (start(operation, database)) {
+			try {
+				this.writer.writePercept(percept);
+			} catch (IOException e) {
+				this.error = e;
+			}
+		}
+	}
+
+	/**
+	 * Writes the operation code and database of a record. Should be called
+	 * while holding the lock on this mental state.
+	 *
+	 * @return {@code true} if the rest of the record should be written.
+	 */
+	private boolean start(int operation, Database database) {
+		if (this.error != null) {
+			return false;
+		}
+		if (!(database instanceof RecordedDatabase)) {
+			this.error = new IOException("database " + database.getName()
+					+ " has not been created by the recording mental state");
+			return false;
+		}
+		try {
+			this.writer.writeOperation(operation);
+			this.writer.writeNumber(((RecordedDatabase) database).id);
+			return true;
+		} catch (IOException e) {
+			this.error = e;
+			return false;
+		}
+	}
+
+	/**
+	 * @return The database of the other mental state that a database created
+	 *         through this mental state wraps, or the database itself if it
+	 *         has not been created through this mental state.
+	 */
+	private static Database unwrap(Database database) {
+		if (database instanceof RecordedDatabase) {
+			return ((RecordedDatabase) database).database;
+		}
+		return database;
+	}
+
+	private static List<String> getNames(Collection<AgentId> ids) {
+		List<String> names = new ArrayList<>(ids.size());
+		for (AgentId id : ids) {
+			names.add(id.getName());
+		}
+		return names;
+	}
+}
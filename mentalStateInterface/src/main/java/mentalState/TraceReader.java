@@ -0,0 +1,152 @@
+/**
+ * Knowledge Representation Tools. Copyright (C) 2014 Koen Hindriks.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package mentalState;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import eis.iilang.Function;
+import eis.iilang.Identifier;
+import eis.iilang.Numeral;
+import eis.iilang.Parameter;
+import eis.iilang.ParameterList;
+import eis.iilang.Percept;
+import eis.iilang.TruthValue;
+
+/**
+ * Reads a trace written by {@link TraceWriter}.
+ */
+class TraceReader implements Closeable {
+	private final DataInputStream in;
+	private final List<String> strings = new ArrayList<>();
+
+	TraceReader(InputStream in) throws IOException {
+		this.in = new DataInputStream(new BufferedInputStream(in));
+		if (this.in.readInt() != TraceWriter.MAGIC) {
+			throw new IOException("not a mental state trace");
+		}
+		int version = this.in.readUnsignedByte();
+		if (version != TraceWriter.VERSION) {
+			throw new IOException("unsupported trace version " + version);
+		}
+	}
+
+	/**
+	 * @return The next operation code, or -1 at the end of the trace.
+	 */
+	int readOperation() throws IOException {
+		return this.in.read();
+	}
+
+	boolean readBoolean() throws IOException {
+		return this.in.readBoolean();
+	}
+
+	long readNumber() throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = this.in.readUnsignedByte();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("malformed number in trace");
+	}
+
+	int readInt() throws IOException {
+		return (int) readNumber();
+	}
+
+	long readSignedNumber() throws IOException {
+		long value = readNumber();
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	String readString() throws IOException {
+		int index = readInt();
+		if (index == 0) {
+			byte[] bytes = new byte[readInt()];
+			this.in.readFully(bytes);
+			String value = new String(bytes, StandardCharsets.UTF_8);
+			this.strings.add(value);
+			return value;
+		} else if (index <= this.strings.size()) {
+			return this.strings.get(index - 1);
+		} else {
+			throw new IOException("unknown string " + index + " in trace");
+		}
+	}
+
+	List<String> readStrings() throws IOException {
+		int size = readInt();
+		List<String> values = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			values.add(readString());
+		}
+		return values;
+	}
+
+	Percept readPercept() throws IOException {
+		String name = readString();
+		return new Percept(name, readParameters());
+	}
+
+	private LinkedList<Parameter> readParameters() throws IOException {
+		int size = readInt();
+		LinkedList<Parameter> parameters = new LinkedList<>();
+		for (int i = 0; i < size; i++) {
+			parameters.add(readParameter());
+		}
+		return parameters;
+	}
+
+	private Parameter readParameter() throws IOException {
+		int tag = readInt();
+		switch (tag) {
+		case TraceWriter.IDENTIFIER:
+			return new Identifier(readString());
+		case TraceWriter.INTEGER:
+			return new Numeral(readSignedNumber());
+		case TraceWriter.DOUBLE:
+			return new Numeral(this.in.readDouble());
+		case TraceWriter.FUNCTION:
+			String name = readString();
+			return new Function(name, readParameters());
+		case TraceWriter.LIST:
+			return new ParameterList(readParameters());
+		case TraceWriter.TRUTH_VALUE:
+			return new TruthValue(readString());
+		default:
+			throw new IOException("unknown parameter type " + tag
+					+ " in trace");
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.in.close();
+	}
+}
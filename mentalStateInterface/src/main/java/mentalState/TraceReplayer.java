@@ -0,0 +1,386 @@
+/**
+ * Knowledge Representation Tools. Copyright (C) 2014 Koen Hindriks.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package mentalState;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import krTools.database.Database;
+import krTools.errors.exceptions.KRException;
+import languageTools.program.agent.AgentId;
+import languageTools.program.agent.msg.Message;
+import languageTools.program.agent.msg.SentenceMood;
+import eis.iilang.Percept;
+
+/**
+ * <p>
+ * Drives a mental state with the calls recorded by a
+ * {@link RecordingMentalState}. The trace is decoded completely before it is
+ * replayed, so the replay runs as fast as the mental state allows and the
+ * measured latencies do not include decoding.
+ * </p>
+ * <p>
+ * Databases are created in the order of the trace through
+ * {@link Environment#createDatabase(MentalState, String, BASETYPE)}, as the
+ * agent programs that were used to create them are not part of the trace.
+ * For the same reason, messages are recreated from their text by
+ * {@link Environment#createMessage(String, Collection, SentenceMood, String)}.
+ * Databases are destroyed where the trace records their destruction, so the
+ * churn of short-lived goal bases is reproduced as well.
+ * </p>
+ */
+public class TraceReplayer {
+	/**
+	 * Provides the parts of a workload that cannot be stored in a trace.
+	 */
+	public interface Environment {
+		/**
+		 * Creates a database for an agent, e.g. by calling
+		 * {@link MentalState#makeDatabase} with the program of the agent.
+		 *
+		 * @param state
+		 *            The mental state that is replayed.
+		 * @param agent
+		 *            The name of the agent, i.e. of its source file.
+		 * @param type
+		 *            The type of the database.
+		 * @return The database.
+		 * @throws KRException
+		 */
+		Database createDatabase(MentalState state, String agent, BASETYPE type)
+				throws KRException;
+
+		/**
+		 * Creates a message, e.g. by parsing its content.
+		 *
+		 * @param sender
+		 *            The name of the sender.
+		 * @param receivers
+		 *            The names of the receivers.
+		 * @param mood
+		 *            The mood of the message.
+		 * @param content
+		 *            The content of the message as text.
+		 * @return The message.
+		 */
+		Message createMessage(String sender, Collection<String> receivers,
+				SentenceMood mood, String content);
+	}
+
+	/**
+	 * The outcome of a replay.
+	 */
+	public static class Result {
+		private final Map<String, LatencyHistogram> latencies;
+		private final LatencyHistogram total;
+		private final long nanos;
+
+		private Result(Map<String, LatencyHistogram> latencies,
+				LatencyHistogram total, long nanos) {
+			this.latencies = latencies;
+			this.total = total;
+			this.nanos = nanos;
+		}
+
+		/**
+		 * @return The latencies per operation, e.g. "insertPercept".
+		 */
+		public Map<String, LatencyHistogram> getLatencies() {
+			return this.latencies;
+		}
+
+		/**
+		 * @return The latencies of all operations together.
+		 */
+		public LatencyHistogram getTotal() {
+			return this.total;
+		}
+
+		/**
+		 * @return The time the replay took in nanoseconds.
+		 */
+		public long getNanos() {
+			return this.nanos;
+		}
+
+		/**
+		 * @return The number of operations replayed per second.
+		 */
+		public double getThroughput() {
+			return this.nanos == 0 ? 0 : this.total.getCount() * 1e9
+					/ this.nanos;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder builder = new StringBuilder();
+			builder.append(String.format("%d operations in %.1f ms: %.0f ops/s%n",
+					this.total.getCount(), this.nanos / 1e6, getThroughput()));
+			builder.append("total: ").append(this.total).append('\n');
+			for (Map.Entry<String, LatencyHistogram> entry : this.latencies
+					.entrySet()) {
+				builder.append(entry.getKey()).append(": ")
+						.append(entry.getValue()).append('\n');
+			}
+			return builder.toString();
+		}
+	}
+
+	/**
+	 * A decoded record.
+	 */
+	private static abstract class Operation {
+		private final String name;
+		private final int database;
+
+		private Operation(String name, int database) {
+			this.name = name;
+			this.database = database;
+		}
+
+		/**
+		 * Performs the operation.
+		 *
+		 * @param state
+		 *            The mental state the trace is replayed on.
+		 * @param databases
+		 *            The databases created so far, in order of creation; an
+		 *            operation that creates a database appends it, one that
+		 *            destroys a database replaces it by {@code null}.
+		 */
+		abstract void execute(MentalState state, List<Database> databases)
+				throws KRException;
+
+		/**
+		 * @return The database the operation is performed on.
+		 */
+		Database getDatabase(List<Database> databases) {
+			return databases.get(this.database);
+		}
+	}
+
+	private final MentalState state;
+	private final Environment environment;
+
+	/**
+	 * @param state
+	 *            The (fresh) mental state to replay the trace on.
+	 * @param environment
+	 *            Creates databases and messages.
+	 */
+	public TraceReplayer(MentalState state, Environment environment) {
+		this.state = state;
+		this.environment = environment;
+	}
+
+	/**
+	 * Replays a trace. The stream is read completely but not closed.
+	 *
+	 * @param in
+	 *            The trace.
+	 * @return The throughput and latencies of the replay.
+	 * @throws IOException
+	 *             If the trace could not be read.
+	 * @throws KRException
+	 *             If a replayed call failed.
+	 */
+	public Result replay(InputStream in) throws IOException, KRException {
+		List<Operation> operations = decode(new TraceReader(in));
+		Map<String, LatencyHistogram> latencies = new LinkedHashMap<>();
+		LatencyHistogram total = new LatencyHistogram();
+		List<Database> databases = new ArrayList<>();
+		long begin = System.nanoTime();
+		for (Operation operation : operations) {
+			long start = System.nanoTime();
+			operation.execute(this.state, databases);
+			long nanos = System.nanoTime() - start;
+			LatencyHistogram histogram = latencies.get(operation.name);
+			if (histogram == null) {
+				histogram = new LatencyHistogram();
+				latencies.put(operation.name, histogram);
+			}
+			histogram.record(nanos);
+			total.record(nanos);
+		}
+		return new Result(latencies, total, System.nanoTime() - begin);
+	}
+
+	/**
+	 * Decodes all records of a trace.
+	 */
+	private List<Operation> decode(TraceReader reader) throws IOException {
+		List<Operation> operations = new ArrayList<>();
+		Map<String, AgentId> ids = new HashMap<>();
+		int databases = 0;
+		Set<Integer> destroyed = new HashSet<>();
+		try {
+			for (int code = reader.readOperation(); code != -1; code = reader
+					.readOperation()) {
+				int database = reader.readInt();
+				if (code != TraceWriter.MAKE_DATABASE && database >= databases) {
+					throw new IOException("record for unknown database "
+							+ database);
+				} else if (destroyed.contains(database)) {
+					throw new IOException("record for destroyed database "
+							+ database);
+				}
+				switch (code) {
+				case TraceWriter.MAKE_DATABASE:
+					BASETYPE type = BASETYPE.values()[reader.readInt()];
+					operations.add(makeDatabase(database, this.environment,
+							reader.readString(), type));
+					databases++;
+					break;
+				case TraceWriter.INSERT_PERCEPT:
+				case TraceWriter.DELETE_PERCEPT:
+					operations.add(percept(database,
+							code == TraceWriter.INSERT_PERCEPT,
+							reader.readPercept()));
+					break;
+				case TraceWriter.INSERT_MESSAGE:
+					boolean received = reader.readBoolean();
+					String sender = reader.readString();
+					List<String> receivers = reader.readStrings();
+					SentenceMood mood = SentenceMood.values()[reader.readInt()];
+					operations.add(message(database, received,
+							this.environment.createMessage(sender, receivers,
+									mood, reader.readString())));
+					break;
+				case TraceWriter.UPDATE_AGENT_FACT:
+					boolean insert = reader.readBoolean();
+					boolean me = reader.readBoolean();
+					operations.add(agentFact(database, insert,
+							getId(ids, reader.readString()), me));
+					break;
+				case TraceWriter.UPDATE_AGENT_FACTS:
+					boolean join = reader.readBoolean();
+					List<AgentId> agents = new ArrayList<>();
+					for (String name : reader.readStrings()) {
+						agents.add(getId(ids, name));
+					}
+					operations.add(agentFacts(database, join, agents));
+					break;
+				case TraceWriter.DESTROY_DATABASE:
+					operations.add(destroyDatabase(database));
+					destroyed.add(database);
+					break;
+				default:
+					throw new IOException("unknown operation " + code
+							+ " in trace");
+				}
+			}
+		} catch (EOFException e) {
+			throw new IOException("trace ends in the middle of a record", e);
+		}
+		return operations;
+	}
+
+	private static AgentId getId(Map<String, AgentId> ids, String name) {
+		AgentId id = ids.get(name);
+		if (id == null) {
+			id = new AgentId(name);
+			ids.put(name, id);
+		}
+		return id;
+	}
+
+	private static Operation makeDatabase(int database,
+			final Environment environment, final String agent,
+			final BASETYPE type) {
+		return new Operation("makeDatabase", database) {
+			@Override
+			void execute(MentalState state, List<Database> databases)
+					throws KRException {
+				databases.add(environment.createDatabase(state, agent, type));
+			}
+		};
+	}
+
+	private static Operation destroyDatabase(final int database) {
+		return new Operation("destroyDatabase", database) {
+			@Override
+			void execute(MentalState state, List<Database> databases)
+					throws KRException {
+				getDatabase(databases).destroy();
+				databases.set(database, null);
+			}
+		};
+	}
+
+	private static Operation percept(int database, final boolean insert,
+			final Percept percept) {
+		return new Operation(insert ? "insertPercept" : "deletePercept",
+				database) {
+			@Override
+			void execute(MentalState state, List<Database> databases)
+					throws KRException {
+				Database database = getDatabase(databases);
+				if (insert) {
+					state.insert(database, percept);
+				} else {
+					state.delete(database, percept);
+				}
+			}
+		};
+	}
+
+	private static Operation message(int database, final boolean received,
+			final Message message) {
+		return new Operation("insertMessage", database) {
+			@Override
+			void execute(MentalState state, List<Database> databases)
+					throws KRException {
+				Database database = getDatabase(databases);
+				state.insert(database, message, received);
+			}
+		};
+	}
+
+	private static Operation agentFact(int database, final boolean insert,
+			final AgentId id, final boolean me) {
+		return new Operation("updateAgentFact", database) {
+			@Override
+			void execute(MentalState state, List<Database> databases)
+					throws KRException {
+				Database database = getDatabase(databases);
+				state.updateAgentFact(database, insert, id, me);
+			}
+		};
+	}
+
+	private static Operation agentFacts(int database, final boolean insert,
+			final List<AgentId> ids) {
+		return new Operation("updateAgentFacts", database) {
+			@Override
+			void execute(MentalState state, List<Database> databases)
+					throws KRException {
+				Database database = getDatabase(databases);
+				state.updateAgentFacts(database, insert, ids);
+			}
+		};
+	}
+}
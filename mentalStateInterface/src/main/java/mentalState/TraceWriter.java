@@ -0,0 +1,187 @@
+/**
+ * Knowledge Representation Tools. Copyright (C) 2014 Koen Hindriks.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package mentalState;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import eis.iilang.Function;
+import eis.iilang.Identifier;
+import eis.iilang.Numeral;
+import eis.iilang.Parameter;
+import eis.iilang.ParameterList;
+import eis.iilang.Percept;
+import eis.iilang.TruthValue;
+
+/**
+ * <p>
+ * Writes the binary trace of a {@link RecordingMentalState}. A trace starts
+ * with {@link #MAGIC} and {@link #VERSION}, followed by records that each
+ * start with an operation code. Integers are written as variable length
+ * integers, zigzag encoded if they can be negative, and every string is
+ * written in full, as length-prefixed UTF-8, only the first time it occurs;
+ * after that it is referred to by its index. This keeps traces of
+ * percepts and messages that repeat the same names small.
+ * </p>
+ * <p>
+ * EIS parameters are written as a tree of tagged nodes. Message contents are
+ * written as text, as their representation depends on the KR language.
+ * </p>
+ */
+class TraceWriter implements Closeable {
+	static final int MAGIC = 0x474F414C;
+	static final int VERSION = 3;
+
+	static final int MAKE_DATABASE = 1;
+	static final int INSERT_PERCEPT = 2;
+	static final int DELETE_PERCEPT = 3;
+	static final int INSERT_MESSAGE = 4;
+	static final int UPDATE_AGENT_FACT = 5;
+	static final int UPDATE_AGENT_FACTS = 6;
+	static final int DESTROY_DATABASE = 7;
+
+	static final int IDENTIFIER = 1;
+	static final int INTEGER = 2;
+	static final int DOUBLE = 3;
+	static final int FUNCTION = 4;
+	static final int LIST = 5;
+	static final int TRUTH_VALUE = 6;
+
+	private final DataOutputStream out;
+	private final Map<String, Integer> strings = new HashMap<>();
+
+	TraceWriter(OutputStream out) throws IOException {
+		this.out = new DataOutputStream(new BufferedOutputStream(out));
+		this.out.writeInt(MAGIC);
+		this.out.writeByte(VERSION);
+	}
+
+	void writeOperation(int operation) throws IOException {
+		this.out.writeByte(operation);
+	}
+
+	void writeBoolean(boolean value) throws IOException {
+		this.out.writeBoolean(value);
+	}
+
+	/**
+	 * Writes a non-negative number using 7 bits per byte.
+	 */
+	void writeNumber(long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			this.out.writeByte((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		this.out.writeByte((int) value);
+	}
+
+	/**
+	 * Writes a number that may be negative, using zigzag encoding so that
+	 * numbers close to 0 are written in few bytes.
+	 */
+	void writeSignedNumber(long value) throws IOException {
+		writeNumber((value << 1) ^ (value >> 63));
+	}
+
+	/**
+	 * Writes a string as index + 1 if it has been written before, and as 0
+	 * followed by the length and UTF-8 bytes of the string otherwise.
+	 */
+	void writeString(String value) throws IOException {
+		Integer index = this.strings.get(value);
+		if (index == null) {
+			writeNumber(0);
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			writeNumber(bytes.length);
+			this.out.write(bytes);
+			this.strings.put(value, this.strings.size());
+		} else {
+			writeNumber(index + 1);
+		}
+	}
+
+	void writeStrings(Collection<String> values) throws IOException {
+		writeNumber(values.size());
+		for (String value : values) {
+			writeString(value);
+		}
+	}
+
+	void writePercept(Percept percept) throws IOException {
+		writeString(percept.getName());
+		writeParameters(percept.getParameters());
+	}
+
+	private void writeParameters(Collection<Parameter> parameters)
+			throws IOException {
+		writeNumber(parameters.size());
+		for (Parameter parameter : parameters) {
+			writeParameter(parameter);
+		}
+	}
+
+	private void writeParameter(Parameter parameter) throws IOException {
+		if (parameter instanceof Identifier) {
+			writeNumber(IDENTIFIER);
+			writeString(((Identifier) parameter).getValue());
+		} else if (parameter instanceof Numeral) {
+			Number number = ((Numeral) parameter).getValue();
+			if (number instanceof Double || number instanceof Float) {
+				writeNumber(DOUBLE);
+				this.out.writeDouble(number.doubleValue());
+			} else {
+				writeNumber(INTEGER);
+				writeSignedNumber(number.longValue());
+			}
+		} else if (parameter instanceof Function) {
+			writeNumber(FUNCTION);
+			writeString(((Function) parameter).getName());
+			writeParameters(((Function) parameter).getParameters());
+		} else if (parameter instanceof ParameterList) {
+			ParameterList list = (ParameterList) parameter;
+			writeNumber(LIST);
+			writeNumber(list.size());
+			for (Parameter element : list) {
+				writeParameter(element);
+			}
+		} else if (parameter instanceof TruthValue) {
+			writeNumber(TRUTH_VALUE);
+			writeString(((TruthValue) parameter).getValue());
+		} else {
+			throw new IllegalArgumentException("cannot record EIS parameter "
+					+ parameter + " of unsupported type "
+					+ parameter.getClass().getCanonicalName());
+		}
+	}
+
+	void flush() throws IOException {
+		this.out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.out.close();
+	}
+}